@@ -24,13 +24,18 @@ public class Behavior {
     private Vector < Float > numberBank;	            //Floats used for setting/incrementing/decrementing actions
     private Vector < Float > nullNumberBank;	        //Floats used for setting/incrementing/decrementing actions
     private Vector < Behavior > subBehaviors;	        //storing any sub-behaviors generated
+    private final Vector < Behavior > parents = new Vector < Behavior > ();	//behaviors this is a sub-behavior of
     
-    private Boid boid;									//storing our boid for variable value retrieval
     private int score;									//stores evaluation score
     private static final int ALL_VARS_COUNT = 12;	    //number of variables from boid
     private static final int ALL_ACTIONS_COUNT = 3;	  	//number of possible actions
     private static final int MAX_BEHAVIOR_DEPTH = 4;	//max depth of behavior
     private Random r = new Random();
+    private volatile CompiledBehavior compiled;			//this behavior compiled for execution; made when first needed
+    private volatile BehaviorProgram program;			//this behavior as a flat program; made when first needed
+    
+    //run the flat program (see BehaviorProgram) instead of the compiled form? (decided once, at startup)
+    static final boolean USE_PROGRAM = Boolean.getBoolean("swarm.behaviorProgram");
  
     //stores randoms chosen for behavior
     private float velocityScale;
@@ -96,8 +101,12 @@ public class Behavior {
 		
 		for(int i = 1; i < behavior_array.getValuesAs(JsonObject.class).size(); i++) {
 			JsonObject subBehavior = behavior_array.getValuesAs(JsonObject.class).get(i);
-			subBehaviors.add(new Behavior(subBehavior));
+			Behavior sub = new Behavior(subBehavior);
+			sub.parents.add(this);
+			subBehaviors.add(sub);
 		}
+		
+		compiled();	//compile the behavior (and its sub-behaviors) now, rather than on the first time step
     }
     
     public Behavior(JsonObject behavior) {
@@ -140,43 +149,90 @@ public class Behavior {
 		motionProbability  = Float.parseFloat(behavior.getString("rand_motion_probability"));
     }
     
-    //executes Behavior on a boid
+    //executes Behavior on a boid, using the compiled form (or the program)
     public void execute(Boid boid) {
-    	this.boid = boid;	//sets boid to act upon
-    	if (compare())		//make a comparison
+    	if (USE_PROGRAM)
+    		program().execute(boid.store, boid.index, boid.index + 1);
+    	else
+    		compiled().execute(boid.store, boid.index);
+    }
+    
+    //executes Behavior on the boids at indices from ... to-1 in a flock's store (the program does them all in one loop)
+    public void execute(BoidStore store, int from, int to) {
+    	if (USE_PROGRAM)
+    		program().execute(store, from, to);
+    	else {
+    		CompiledBehavior c = compiled();
+    		for (int index = from; index < to; index++)
+    			c.execute(store, index);
+    	}
+    }
+    
+    //the compiled form of this behavior (see CompiledBehavior); compiled the first time it is needed,
+    //and again after a setter has been called
+    //(a setter called on a sub-behavior remakes this one too, since this one's compiled form includes it)
+    //NOTE: changes made to the vectors in place are only seen after recompile()
+    public CompiledBehavior compiled() {
+    	CompiledBehavior c = compiled;
+    	if (c == null)
+    		compiled = c = CompiledBehavior.compile(this);
+    	return c;
+    }
+    
+    //the flat program for this behavior (see BehaviorProgram); made and remade like the compiled form
+    public BehaviorProgram program() {
+    	BehaviorProgram p = program;
+    	if (p == null)
+    		program = p = new BehaviorProgram(this);
+    	return p;
+    }
+    
+    //forget the compiled form and the program of this behavior, and of every behavior it is a sub-behavior of
+    public void recompile() {
+    	compiled = null;
+    	program = null;
+    	for (int i = 0; i < parents.size(); i++)
+    		parents.get(i).recompile();
+    }
+    
+    //executes Behavior on a boid by interpreting the IDs (does the same as execute, only slower)
+    //the boid is passed along rather than kept, so a behavior can be executed on any number of threads at once
+    public void executeInterpreted(Boid boid) {
+    	if (compare(boid))		//make a comparison
     	    for (int i = 0; i < ifActionIDs.size(); i++)
-    		    actionBank(ifActionIDs.get(i), ifPropertyIDs.get(i), 1);
+    		    actionBank(boid, ifActionIDs.get(i), ifPropertyIDs.get(i), 1);
      
     	else			//if comparison is false
     	    for (int i = 0; i < elseActionIDs.size(); i++)
-    		    actionBank(elseActionIDs.get(i), elsePropertyIDs.get(i), 1);
+    		    actionBank(boid, elseActionIDs.get(i), elsePropertyIDs.get(i), 1);
      
     	//execute any sub-behaviors
     	for (int i = 0; i < subBehaviors.size(); i++)
-    	    subBehaviors.get(i).execute(boid);
+    	    subBehaviors.get(i).executeInterpreted(boid);
     }
      
-        //makes a comparison between two variables
-    public boolean compare() {
+        //makes a comparison between two variables of a boid
+    public boolean compare(Boid boid) {
     	switch (comparatorId) {
     	case 0:
-    	    if (varBank(propertyA, false) > varBank(propertyB, randomPropertyB))	//if var1 > var2
+    	    if (varBank(boid, propertyA, false) > varBank(boid, propertyB, randomPropertyB))	//if var1 > var2
     		      return true;
     	    else return false;
     	case 1:
-    	    if (varBank(propertyA, false) < varBank(propertyB, randomPropertyB))	//if var1 < var2
+    	    if (varBank(boid, propertyA, false) < varBank(boid, propertyB, randomPropertyB))	//if var1 < var2
     		      return true;
     	    else return false;
     	case 2:
-    	    if (varBank(propertyA, false) == varBank(propertyB, randomPropertyB))	//if var1 == var2
+    	    if (varBank(boid, propertyA, false) == varBank(boid, propertyB, randomPropertyB))	//if var1 == var2
     		      return true;
     	    else return false;
     	}
     	return false;
     }
 
-    //bank containing variables, integers, and randoms
-    public float varBank(int ID, boolean rand) {
+    //bank containing variables (of the boid), integers, and randoms
+    //the boid isn't looked at for randoms, or for IDs that aren't variables, so it can be null then
+    public float varBank(Boid boid, int ID, boolean rand) {
     	switch (ID) {
     	case 0:
     	    if (rand) return velocityScale;
@@ -220,17 +276,17 @@ public class Behavior {
     //int ID: chooses between incrementing a variable by x, decrementing by x, or setting to x
     //int propertyA: decides which variable is going to be acted on in any of the 3 cases
     //float x: what is added, subtracted, or set to a variable
-    public void actionBank(int ID, int propertyA, float x) {
+    public void actionBank(Boid boid, int ID, int propertyA, float x) {
     	boolean rand = false;	//allows for randomness when grabbing from var bank; not desired in action bank
     	switch (ID) {
         //add to variable
     	case 0:
-    	    float i = varBank(propertyA, rand) + x;
+    	    float i = varBank(boid, propertyA, rand) + x;
     	    boid.set(propertyA, i);
     	    break;
         //subtract from variable
     	case 1:
-    	    float j = varBank(propertyA, rand) - x;
+    	    float j = varBank(boid, propertyA, rand) - x;
     	    boid.set(propertyA, j);
     	    break;
         //set to value
@@ -415,6 +471,7 @@ public class Behavior {
      
     public void setVariableID(int propertyA) {
     	this.propertyA = propertyA;
+    	recompile();
     }
      
     public int getComparatorID() {
@@ -423,6 +480,11 @@ public class Behavior {
      
     public void setComparatorID(int comparatorId) {
     	this.comparatorId = comparatorId;
+    	recompile();
+    }
+     
+    public boolean isRandomPropertyB() {
+    	return randomPropertyB;
     }
      
     public int getNextNumID() {
@@ -431,6 +493,7 @@ public class Behavior {
      
     public void setNextNumID(int propertyB) {
     	this.propertyB = propertyB;
+    	recompile();
     }
      
     public Vector < Integer > getActionIDs() {
@@ -439,6 +502,7 @@ public class Behavior {
      
     public void setActionIDs(Vector < Integer > ifActionIDs) {
     	this.ifActionIDs = ifActionIDs;
+    	recompile();
     }
      
     public Vector < Integer > getActionVariableIDs() {
@@ -447,6 +511,7 @@ public class Behavior {
      
     public void setActionVariableIDs(Vector < Integer > ifPropertyIDs) {
     	this.ifPropertyIDs = ifPropertyIDs;
+    	recompile();
     }
      
     public Vector < Integer > getNullActionIDs() {
@@ -455,6 +520,7 @@ public class Behavior {
      
     public void setNullActionIDs(Vector < Integer > elseActionIDs) {
     	this.elseActionIDs = elseActionIDs;
+    	recompile();
     }
      
     public Vector < Integer > getNullActionVariableIDs() {
@@ -463,6 +529,7 @@ public class Behavior {
      
     public void setNullActionVariableIDs(Vector < Integer > elsePropertyIDs) {
     	this.elsePropertyIDs = elsePropertyIDs;
+    	recompile();
     }
      
     public Vector < Float > getNumberBank() {
@@ -486,6 +553,11 @@ public class Behavior {
     }
      
     public void setSubBehaviors(Vector < Behavior > subBehaviors) {
+    	for (int i = 0; i < this.subBehaviors.size(); i++)
+    		this.subBehaviors.get(i).parents.remove(this);
     	this.subBehaviors = subBehaviors;
+    	for (int i = 0; i < subBehaviors.size(); i++)
+    		subBehaviors.get(i).parents.add(this);
+    	recompile();
     }
 }
\ No newline at end of file
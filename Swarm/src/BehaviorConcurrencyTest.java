@@ -0,0 +1,93 @@
+/*
+ *
+ * Checks that Behaviors can be executed on many threads at once, without a display:
+ * 	java BehaviorConcurrencyTest [flock size] [number of flocks] [number of steps] [seed]
+ *
+ * Two worlds are made with the same seed, and every Flock in each of them is given the same
+ * Behavior (one for each world), so all the Boids of all the Flocks share one Behavior; one world
+ * runs its time steps in parallel, on the ForkJoinPool (see ParallelStep), and the other on one
+ * thread; after every time step, every Boid's location, velocity, age, numbers of neighbors and
+ * parameters must be exactly the same in both; the first difference is reported, and the exit
+ * status is 1
+ *
+ * The pool has a worker for each core, so on a machine with only one or two cores, run it with
+ * -XX:ActiveProcessorCount=8 (or so), or the Behaviors are hardly ever executed at the same time
+ *
+ */
+
+public class BehaviorConcurrencyTest {
+
+	public static void main(String[] args) {
+
+		int flockSize = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int numFlocks = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int numSteps = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+		int[] flockSizes = new int[numFlocks+1];
+		for (int flockID = 1; flockID <= numFlocks; flockID++)
+			flockSizes[flockID] = flockSize;
+		SwarmWorld parallel = new SwarmWorld(400, 400, 400, flockSizes, SwarmWorld.DEFAULT_FLOCK, seed);
+		SwarmWorld sequential = new SwarmWorld(400, 400, 400, flockSizes, SwarmWorld.DEFAULT_FLOCK, seed);
+		parallel.setParallelStep(true);
+		sequential.setParallelStep(false);
+
+		// one Behavior for every Boid in each world (the change is made at the next time step)
+		Behavior parallelBehavior = new Behavior();
+		Behavior sequentialBehavior = new Behavior();
+		for (int flockID = 1; flockID <= numFlocks; flockID++) {
+			parallel.getFlock(flockID).setBehavior(parallelBehavior);
+			sequential.getFlock(flockID).setBehavior(sequentialBehavior);
+		}
+
+		long start = System.nanoTime();
+		for (int step = 1; step <= numSteps; step++) {
+
+			parallel.step();
+			sequential.step();
+
+			for (int flockID = 1; flockID <= numFlocks; flockID++) {
+				String difference = compare(parallel.getFlock(flockID).store, sequential.getFlock(flockID).store);
+				if (difference != null) {
+					System.out.printf("time step %d, flock %d: %s\n", step, flockID, difference);
+					System.exit(1);
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d steps of %d flocks of %d boids sharing one behavior, in parallel and on one thread: the same (%.2f s), seed %d\n",
+				numSteps, numFlocks, flockSize, seconds, seed);
+	}
+
+
+	// where the two stores differ (null if they don't)
+	private static String compare(BoidStore a, BoidStore b) {
+
+		if (a.size != b.size)
+			return "the flock has " + a.size + " boids in parallel and " + b.size + " on one thread";
+
+		for (int i = 0; i < a.size; i++) {
+			if (a.x[i] != b.x[i] || a.y[i] != b.y[i] || a.z[i] != b.z[i])
+				return "boid " + i + " is at a different location";
+			if (a.vx[i] != b.vx[i] || a.vy[i] != b.vy[i] || a.vz[i] != b.vz[i])
+				return "boid " + i + " has a different velocity";
+			if (a.age[i] != b.age[i])
+				return "boid " + i + " has a different age";
+			if (a.numNeighborsOwnFlock[i] != b.numNeighborsOwnFlock[i] || a.numNeighborsAllFlocks[i] != b.numNeighborsAllFlocks[i])
+				return "boid " + i + " has a different number of neighbors";
+			if (a.velocityScale.get(i) != b.velocityScale.get(i)
+					|| a.maxSpeed.get(i) != b.maxSpeed.get(i)
+					|| a.normalSpeed.get(i) != b.normalSpeed.get(i)
+					|| a.neighborRadius.get(i) != b.neighborRadius.get(i)
+					|| a.separationWeight.get(i) != b.separationWeight.get(i)
+					|| a.alignmentWeight.get(i) != b.alignmentWeight.get(i)
+					|| a.cohesionWeight.get(i) != b.cohesionWeight.get(i)
+					|| a.pacekeepingWeight.get(i) != b.pacekeepingWeight.get(i)
+					|| a.randomMotionProbability.get(i) != b.randomMotionProbability.get(i)
+					|| a.proximityThreshold.get(i) != b.proximityThreshold.get(i))
+				return "boid " + i + " has different parameters";
+		}
+		return null;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ *
+ * A Behavior (and its sub-behaviors) encoded as a flat program: an int[] of instructions and a
+ * float[] of constants, run by a loop over the instructions, with no objects to follow and no
+ * recursion; the program works on the Boids' entries in their Flock's store, so a whole range
+ * of Boids (e.g. a whole Flock) can be run through the program in one call
+ *
+ * Instructions (each is an opcode followed by its arguments):
+ * 	IF_GREATER a b else		if !(a > b), go to else
+ * 	IF_LESS a b else		if !(a < b), go to else
+ * 	IF_EQUAL a b else		if !(a == b), go to else
+ * 	GOTO target
+ * 	ADD property c			property = property + constants[c]
+ * 	SUBTRACT property c		property = property - constants[c]
+ * 	SET property c			property = constants[c]
+ * 	END
+ * An operand a or b >= 0 is the Boid's value of that property (as in Behavior.varBank);
+ * an operand < 0 is the constant constants[-1 - operand]
+ * Properties are written within the limits that Boid.set keeps them in (see Boid.limit)
+ *
+ * A Behavior is encoded as its comparison, its if actions, a GOTO past its else actions, its else
+ * actions, and then each of its sub-behaviors in turn; as in CompiledBehavior, comparisons that
+ * don't depend on the Boid are done when the program is made, and actions that can't do anything
+ * are left out, so the program does exactly what Behavior.executeInterpreted does
+ *
+ * A program is never changed once it is made, so it can be run on any number of threads at once
+ *
+ */
+
+// for building the program
+import java.util.Arrays;
+import java.util.Vector;
+
+
+public class BehaviorProgram {
+
+	// opcodes
+	static final int END = 0;
+	static final int IF_GREATER = 1;
+	static final int IF_LESS = 2;
+	static final int IF_EQUAL = 3;
+	static final int GOTO = 4;
+	static final int ADD = 5;
+	static final int SUBTRACT = 6;
+	static final int SET = 7;
+
+	// the properties the Boid has (see Behavior.varBank), and how many of them can be read
+	private static final int NUM_PROPERTIES = 11;
+	private static final int NUM_READABLE_PROPERTIES = 10;
+
+	private final int[] code;
+	private final float[] constants;
+
+
+	// make the program for a Behavior (and its sub-behaviors)
+	BehaviorProgram(Behavior behavior) {
+
+		Builder builder = new Builder();
+		builder.add(behavior);
+		builder.emit(END);
+
+		code = Arrays.copyOf(builder.code, builder.codeLength);
+		constants = Arrays.copyOf(builder.constants, builder.numConstants);
+	}
+
+
+	// run the program on the Boids at indices from ... to-1 in the store
+	void execute(BoidStore store, int from, int to) {
+
+		final int[] code = this.code;
+		final float[] constants = this.constants;
+
+		for (int index = from; index < to; index++) {
+			int pc = 0;
+			while (code[pc] != END) {
+				switch (code[pc]) {
+				case IF_GREATER:
+					pc = read(store, index, code[pc+1], constants) > read(store, index, code[pc+2], constants) ? pc + 4 : code[pc+3];
+					break;
+				case IF_LESS:
+					pc = read(store, index, code[pc+1], constants) < read(store, index, code[pc+2], constants) ? pc + 4 : code[pc+3];
+					break;
+				case IF_EQUAL:
+					pc = read(store, index, code[pc+1], constants) == read(store, index, code[pc+2], constants) ? pc + 4 : code[pc+3];
+					break;
+				case GOTO:
+					pc = code[pc+1];
+					break;
+				case ADD:
+					write(store, index, code[pc+1], get(store, index, code[pc+1]) + constants[code[pc+2]]);
+					pc += 3;
+					break;
+				case SUBTRACT:
+					write(store, index, code[pc+1], get(store, index, code[pc+1]) - constants[code[pc+2]]);
+					pc += 3;
+					break;
+				case SET:
+					write(store, index, code[pc+1], constants[code[pc+2]]);
+					pc += 3;
+					break;
+				}
+			}
+		}
+	}
+
+
+	// the length of the program in ints (for printing, and benchmarks)
+	int size() {
+		return code.length;
+	}
+
+
+	// the value of an operand
+	private static float read(BoidStore store, int index, int operand, float[] constants) {
+		return operand >= 0 ? get(store, index, operand) : constants[-1 - operand];
+	}
+
+	// the Boid's value of a readable property
+	private static float get(BoidStore store, int index, int property) {
+
+		switch (property) {
+		case 0: return store.velocityScale.get(index);
+		case 1: return store.maxSpeed.get(index);
+		case 2: return store.normalSpeed.get(index);
+		case 3: return store.neighborRadius.get(index);
+		case 4: return store.separationWeight.get(index);
+		case 5: return store.alignmentWeight.get(index);
+		case 6: return store.cohesionWeight.get(index);
+		case 7: return store.pacekeepingWeight.get(index);
+		case 8: return store.randomMotionProbability.get(index);
+		default: return store.numNeighborsOwnFlock[index];
+		}
+	}
+
+	// set a property of the Boid, within the same limits as Boid.set (see Boid.limit)
+	private static void write(BoidStore store, int index, int property, float val) {
+
+		val = Boid.limit(property, val, store, index);
+		switch (property) {
+		case 0: store.velocityScale.set(index, val); break;
+		case 1: store.maxSpeed.set(index, val); break;
+		case 2: store.normalSpeed.set(index, val); break;
+		case 3: store.neighborRadius.set(index, val); break;
+		case 4: store.separationWeight.set(index, val); break;
+		case 5: store.alignmentWeight.set(index, val); break;
+		case 6: store.cohesionWeight.set(index, val); break;
+		case 7: store.pacekeepingWeight.set(index, val); break;
+		case 8: store.randomMotionProbability.set(index, val); break;
+		case 9: store.numNeighborsOwnFlock[index] = val; break;
+		default: store.numNeighborsAllFlocks[index] = val; break;
+		}
+	}
+
+
+	// puts the program together
+	private static class Builder {
+
+		int[] code = new int[64];
+		int codeLength = 0;
+		float[] constants = new float[16];
+		int numConstants = 0;
+
+		void emit(int value) {
+			if (codeLength == code.length)
+				code = Arrays.copyOf(code, 2 * code.length);
+			code[codeLength++] = value;
+		}
+
+		// the index of a constant (each different value is only kept once)
+		int constant(float value) {
+			for (int c = 0; c < numConstants; c++)
+				if (Float.floatToIntBits(constants[c]) == Float.floatToIntBits(value))
+					return c;
+			if (numConstants == constants.length)
+				constants = Arrays.copyOf(constants, 2 * constants.length);
+			constants[numConstants] = value;
+			return numConstants++;
+		}
+
+		// the operand for varBank(ID, random): a property of the Boid, or a constant
+		int operand(Behavior behavior, int ID, boolean random) {
+			if (!random && ID >= 0 && ID < NUM_READABLE_PROPERTIES)
+				return ID;
+			// varBank doesn't look at the Boid for these
+			return -1 - constant(behavior.varBank(null, ID, random));
+		}
+
+		void add(Behavior behavior) {
+
+			int a = operand(behavior, behavior.getVariableID(), false);
+			int b = operand(behavior, behavior.getNextNumID(), behavior.isRandomPropertyB());
+			int comparatorID = behavior.getComparatorID();
+
+			if (a < 0 && b < 0) {
+				// the comparison always comes out the same way
+				float valueA = constants[-1 - a], valueB = constants[-1 - b];
+				boolean result = comparatorID == 0 ? valueA > valueB
+							   : comparatorID == 1 ? valueA < valueB
+							   : comparatorID == 2 ? valueA == valueB
+							   : false;
+				if (result)
+					addActions(behavior.getActionIDs(), behavior.getActionVariableIDs());
+				else
+					addActions(behavior.getNullActionIDs(), behavior.getNullActionVariableIDs());
+			}
+			else if (comparatorID < 0 || comparatorID > 2) {
+				// an unknown comparator is always false
+				addActions(behavior.getNullActionIDs(), behavior.getNullActionVariableIDs());
+			}
+			else {
+				emit(IF_GREATER + comparatorID);
+				emit(a);
+				emit(b);
+				int elseTarget = codeLength;
+				emit(0);
+				addActions(behavior.getActionIDs(), behavior.getActionVariableIDs());
+				emit(GOTO);
+				int endTarget = codeLength;
+				emit(0);
+				code[elseTarget] = codeLength;
+				addActions(behavior.getNullActionIDs(), behavior.getNullActionVariableIDs());
+				code[endTarget] = codeLength;
+			}
+
+			// the sub-behaviors, inline
+			Vector<Behavior> subBehaviors = behavior.getSubBehaviors();
+			for (int i = 0; i < subBehaviors.size(); i++)
+				add(subBehaviors.get(i));
+		}
+
+		// the same actions as Behavior.actionBank (always with x = 1, as in Behavior.execute)
+		void addActions(Vector<Integer> actionIDs, Vector<Integer> propertyIDs) {
+
+			final float x = 1;
+
+			for (int i = 0; i < actionIDs.size(); i++) {
+				int actionID = actionIDs.get(i);
+				int propertyID = propertyIDs.get(i);
+
+				// Boid.set ignores properties it doesn't have, and actionBank actions it doesn't know
+				if (propertyID < 0 || propertyID >= NUM_PROPERTIES || actionID < 0 || actionID > 2)
+					continue;
+
+				// reading the number of neighbors in all flocks always gives 1 (see Behavior.varBank),
+				// so adding to it or subtracting from it just sets it
+				if (propertyID >= NUM_READABLE_PROPERTIES) {
+					emit(SET);
+					emit(propertyID);
+					emit(constant(actionID == 0 ? 1 + x : actionID == 1 ? 1 - x : x));
+					continue;
+				}
+
+				emit(actionID == 0 ? ADD : actionID == 1 ? SUBTRACT : SET);
+				emit(propertyID);
+				emit(constant(x));
+			}
+		}
+	}
+}
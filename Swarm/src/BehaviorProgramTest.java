@@ -0,0 +1,166 @@
+/*
+ *
+ * Checks that the compiled forms of a Behavior (see CompiledBehavior and BehaviorProgram) do
+ * exactly what Behavior.executeInterpreted does, on randomly made Behaviors, without a display:
+ * 	java BehaviorProgramTest [number of behaviors] [seed]
+ *
+ * Each Behavior gets random comparators, properties, and actions (including IDs that don't mean
+ * anything), and sometimes the default Behavior and its sub-behaviors as a sub-behavior; it is run
+ * a few times on a few Boids with random properties (some of them shared by the Flock, some of
+ * them the Boid's own, some of them at or past their limits), once for each way of running it:
+ * 	- executeInterpreted, one Boid at a time
+ * 	- the compiled tree, one Boid at a time
+ * 	- the program, one Boid at a time
+ * 	- Behavior.execute on all the Boids at once (the way the Flocks run it)
+ * and then every property of every Boid must be exactly the same all four ways; the first
+ * difference is reported, and the exit status is 1
+ *
+ */
+
+// for making the Behaviors
+import java.util.Random;
+import java.util.Vector;
+
+
+public class BehaviorProgramTest {
+
+	private static final int NUM_BOIDS = 8;
+	private static final int REPETITIONS = 5;
+	// the IDs are chosen from a few more than there are, to check the ones that don't mean anything
+	private static final int NUM_IDS = 13;
+	private static final int NUM_COMPARATORS = 4;
+	private static final int NUM_ACTIONS = 4;
+	private static final int MAX_ACTIONS = 8;
+	// the properties (as in Behavior.varBank and Boid.set), and the ways of running the Behavior
+	private static final int NUM_PROPERTIES = 11;
+	private static final String[] WAYS = { "interpreted", "compiled", "program", "range" };
+
+	public static void main(String[] args) {
+
+		int numBehaviors = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+		Random random = new Random(seed);
+		Behavior subBehavior = new Behavior();
+
+		for (int t = 0; t < numBehaviors; t++) {
+
+			Behavior behavior = new Behavior();
+			behavior.setComparatorID(random.nextInt(NUM_COMPARATORS));
+			behavior.setVariableID(random.nextInt(NUM_IDS));
+			behavior.setNextNumID(random.nextInt(NUM_IDS));
+			int numIfActions = random.nextInt(MAX_ACTIONS), numElseActions = random.nextInt(MAX_ACTIONS);
+			behavior.setActionIDs(randomIDs(random, numIfActions, NUM_ACTIONS));
+			behavior.setActionVariableIDs(randomIDs(random, numIfActions, NUM_IDS));
+			behavior.setNullActionIDs(randomIDs(random, numElseActions, NUM_ACTIONS));
+			behavior.setNullActionVariableIDs(randomIDs(random, numElseActions, NUM_IDS));
+			Vector<Behavior> subBehaviors = new Vector<Behavior>();
+			if (random.nextBoolean())
+				subBehaviors.add(subBehavior);
+			behavior.setSubBehaviors(subBehaviors);
+
+			// the same Boids four times
+			BoidStore interpreted = new BoidStore(1, NUM_BOIDS);
+			BoidStore compiled = new BoidStore(1, NUM_BOIDS);
+			BoidStore program = new BoidStore(1, NUM_BOIDS);
+			BoidStore range = new BoidStore(1, NUM_BOIDS);
+			BoidStore[] stores = { interpreted, compiled, program, range };
+			for (int i = 0; i < NUM_BOIDS; i++) {
+				float[] properties = new float[NUM_PROPERTIES];
+				for (int p = 0; p < NUM_PROPERTIES; p++)
+					properties[p] = randomValue(random, p);
+				boolean own = random.nextBoolean();
+				for (BoidStore store : stores)
+					addBoid(store, i, properties, own);
+			}
+
+			Boid[] boids = new Boid[NUM_BOIDS];
+			for (int i = 0; i < NUM_BOIDS; i++)
+				boids[i] = new Boid(interpreted, i, null, null);
+
+			for (int rep = 0; rep < REPETITIONS; rep++) {
+
+				for (int i = 0; i < NUM_BOIDS; i++) {
+					behavior.executeInterpreted(boids[i]);
+					behavior.compiled().execute(compiled, i);
+					behavior.program().execute(program, i, i + 1);
+				}
+				behavior.execute(range, 0, NUM_BOIDS);
+
+				for (int s = 1; s < stores.length; s++) {
+					String difference = compare(interpreted, stores[s]);
+					if (difference != null) {
+						System.out.printf("behavior %d, repetition %d: %s %s\n", t, rep, WAYS[s], difference);
+						System.exit(1);
+					}
+				}
+			}
+		}
+
+		System.out.printf("%d random behaviors on %d boids, %d times: the same all four ways, seed %d\n",
+				numBehaviors, NUM_BOIDS, REPETITIONS, seed);
+	}
+
+
+	private static Vector<Integer> randomIDs(Random random, int n, int numIDs) {
+
+		Vector<Integer> IDs = new Vector<Integer>();
+		for (int i = 0; i < n; i++)
+			IDs.add(random.nextInt(numIDs));
+		return IDs;
+	}
+
+	// mostly anything, but sometimes a small whole number, or one of the property's limits
+	private static float randomValue(Random random, int property) {
+
+		switch (random.nextInt(4)) {
+		case 0: return random.nextInt(5);
+		case 1: return random.nextBoolean() ? Boid.MIN_VALUES[property] : Boid.MAX_VALUES[property];
+		default: return random.nextFloat() * 120 - 10;
+		}
+	}
+
+	// add a Boid with the given properties; the first Boid's parameters are the Flock's shared ones,
+	// and the others have their own, or the shared ones
+	private static void addBoid(BoidStore store, int i, float[] properties, boolean own) {
+
+		store.add(0, 0, 0, 0, 0, 0);
+		for (int p = 0; p < NUM_PROPERTIES - 2; p++) {
+			if (i == 0)
+				parameter(store, p).share(properties[p]);
+			else if (own)
+				parameter(store, p).set(i, properties[p]);
+		}
+		store.numNeighborsOwnFlock[i] = properties[9];
+		store.numNeighborsAllFlocks[i] = properties[10];
+	}
+
+	private static BoidStore.Parameter parameter(BoidStore store, int property) {
+
+		switch (property) {
+		case 0: return store.velocityScale;
+		case 1: return store.maxSpeed;
+		case 2: return store.normalSpeed;
+		case 3: return store.neighborRadius;
+		case 4: return store.separationWeight;
+		case 5: return store.alignmentWeight;
+		case 6: return store.cohesionWeight;
+		case 7: return store.pacekeepingWeight;
+		default: return store.randomMotionProbability;
+		}
+	}
+
+	// where the two stores differ (null if they don't)
+	private static String compare(BoidStore a, BoidStore b) {
+
+		for (int i = 0; i < a.size; i++) {
+			for (int p = 0; p < NUM_PROPERTIES; p++) {
+				float valueA = p < 9 ? parameter(a, p).get(i) : p == 9 ? a.numNeighborsOwnFlock[i] : a.numNeighborsAllFlocks[i];
+				float valueB = p < 9 ? parameter(b, p).get(i) : p == 9 ? b.numNeighborsOwnFlock[i] : b.numNeighborsAllFlocks[i];
+				if (Float.floatToIntBits(valueA) != Float.floatToIntBits(valueB))
+					return "boid " + i + " property " + p + " is " + valueB + " instead of " + valueA;
+			}
+		}
+		return null;
+	}
+}
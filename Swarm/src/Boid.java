@@ -9,298 +9,173 @@
  * be modified on an individual basis.  this seems to be very important from the standpoint 
  * of creating interesting behaviors 
  * 
- * Methods that take care of the motion and rendering of a boid:
+ * The state and parameters of the Boids are kept by the Flock in a BoidStore (one primitive array
+ * per quantity); a Boid object is just a view of one index in that store
+ * 
+ * Methods that take care of the motion of a boid:
  * 	1) calculate the new velocity of a boid
  * 	2) move the boid
- * 	3) render the boid
+ * (the boids are rendered by MusicSwarm, which reads them from the store)
  * 
  * In the process of moving the boids:
  * 	1) "collisions" (when two voids come closer to each other than the "proximityThreshold" may be reported to Max
- * 	2) lines may be drawn between boids in the same flock in the same neighborhood
  * 
  * 
  */
 
+// for the Boid's random numbers
+import java.util.SplittableRandom;
 
-// we use Open Sound Control for communication with Max/MSP
-// http://opensoundcontrol.org/
-
-// Processing classes 
-import processing.core.PApplet;
-import processing.core.PConstants;
-import processing.core.PVector;
-
-// data structure for the flock
-import java.util.List;
 
 public class Boid {
 	// make components of initial velocity very small 
-	private static final float INIT_VELOCITY_DIMENSION_MAGNITUDE = 1.0f;
+	static final float INIT_VELOCITY_DIMENSION_MAGNITUDE = 1.0f;
 	// if a random component is added to the motion, keep it small
 	private static final float RANDOM_MOTION_DIMENSION_MAGNITUDE = 1.0f;
 	// how close to the boundary does a Boid need to be before it "bounces back"?
 	private static final int BOUDARY_SENSING_THRESHOLD = 5;
 
-	// IDs for Boid and Flock
-	private int flockID;
-	private int boidID;
-
-	// Boid parameters
-	private float velocityScale;           // not sure what this is for; have to ask Frank...
-	private float maxSpeed;                // speed limit
-	private float normalSpeed;             // pacekeeping (see below), when used, tries to keep boid to this speed
-	private float neighborRadius;          // determines which other Boids are neighbors of a given Boid    
-	private float separationWeight;        // how strongly do Boids move away from every neighbor: range = [0.0, 100.0]
-	private float alignmentWeight;         // how strongly do Boids align match average velocity of their neighbors: range = [0.0, 1.0]
-	private float cohesionWeight;          // how strongly do Boids move toward the average position of their neighbors: range = [0.0, 1.0]
-	private float pacekeepingWeight;       // how strongly do Boids stick to the normalSpeed: range = [0.0, 1.0]
-	private float randomMotionProbability; // probability that a small random component is introduced into the motion (see Boid class for more info)
-	private float proximityThreshold;      // distance defining a "collision" between two Boids
-	private float numNeighborsOwnFlock = 0;
-	private float numNeighborsAllFlocks = 0;
-
-	private int age;                       // for purposes of removing boid if mortality being used
-	
-	// boid's behavior pattern
-	private Behavior b;
-	// boid's location and velocity
-	private PVector location;  
-	private PVector velocity;
-	private PVector nextVelocity;  
+	// the limits set keeps the properties in, by ID (as in Behavior.varBank); the normal speed is
+	// also kept at or below the Boid's maxSpeed, and the numbers of neighbors aren't limited
+	// (CompiledBehavior and BehaviorProgram set the properties within the same limits; see limit)
+	static final float[] MIN_VALUES = { 0, 2, 1, 10, 0, 0, 0, 0, 0, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+	static final float[] MAX_VALUES = { 0.1f, 10, Float.POSITIVE_INFINITY, 100, 100, 1, 1, 1, 0.5f, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
 
-	// needed for access to rendering methods
-	private PApplet parent;
+	// where the Boid's state and parameters are kept, and the Boid's index there;
+	// the index is kept up to date by the Flock when Boids are removed
+	final BoidStore store;
+	int index;
+
+	// ID for Flock
+	private final int flockID;
+
+	// the world the Boid is in (for the size of the space and the wind)
+	private final SwarmWorld world;
+
+	// the Boid's own random numbers (see SwarmWorld.rand)
+	private final SplittableRandom random;
 
 	// for fooling around with various types of motion (not all of which are actually predator/prey)  ;-)
+	// the prey is kept by its Flock and its handle there (see BoidStore.handle), so it is found
+	// without looking through the Boids, and it is known when the prey is gone (see findPrey)
 	private int myPreyID = 0;
-	private Boid preyBoid = null;
-	
+	private Flock preyFlock = null;
+	private long preyHandle = BoidStore.NO_HANDLE;
+
 	// constructor
-	public Boid(int flockID, int boidID, PVector location, float velocityScale, 
-			float maxSpeed, float normalSpeed, float neighborRadius, float separationWeight, float alignWeight, 
-			float cohesionWeight, float pacekeepingWeight, float randomMotionProbability, float proximityThreshold,
-			Behavior b, PApplet parent) {
-
-		this.flockID = flockID;
-		this.boidID = boidID;
-		this.location = location.get();         // make a copy
-		this.velocityScale = velocityScale;
-		this.maxSpeed = maxSpeed;
-		this.normalSpeed= normalSpeed;
-		this.neighborRadius = neighborRadius;
-		this.separationWeight = separationWeight;
-		this.alignmentWeight = alignWeight;
-		this.cohesionWeight = cohesionWeight;
-		this.pacekeepingWeight = pacekeepingWeight;
-		this.randomMotionProbability = randomMotionProbability;
-		this.proximityThreshold = proximityThreshold;
-		this.age = 0;
-		this.b = b;
-		// start with small random velocity
-		velocity = new PVector(MusicSwarm.rand.nextFloat() * (2.0f * INIT_VELOCITY_DIMENSION_MAGNITUDE) - INIT_VELOCITY_DIMENSION_MAGNITUDE, 
-				MusicSwarm.rand.nextFloat() * (2.0f * INIT_VELOCITY_DIMENSION_MAGNITUDE) - INIT_VELOCITY_DIMENSION_MAGNITUDE,
-				MusicSwarm.rand.nextFloat() * (2.0f * INIT_VELOCITY_DIMENSION_MAGNITUDE) - INIT_VELOCITY_DIMENSION_MAGNITUDE);
-		nextVelocity = velocity.get();  
-
-		myPreyID = 0; 
-
-		// for rendering
-		this.parent = parent;
-	}
+	// the Boid must already have been added to the store (see Flock)
+	public Boid(BoidStore store, int index, SwarmWorld world, SplittableRandom random) {
 
+		this.store = store;
+		this.index = index;
+		this.flockID = store.flockID;
 
-	// calculate the new velocity, move, and render
-	void run(Flock[] allFlocks) {
-
-		// getting older....
-		++age;
-
-		// all of the other flavors of calcNewVelocity are experiments and can be ignored
-		// (although calcNewVelocityNiceBehaviorFromWorkshop, which was created at the
-		// Performamatics workshop, is quite nice...)
-//		calcNewVelocityStandard(allFlocks);
-		calcNewVelocityNiceBehaviorFromWorkshop(allFlocks);
-//		calcNewVelocityPlayful(allFlocks);       
-//		calcNewVelocityPredatorPrey(allFlocks);
-//		calcNewVelocityFishSchools(allFlocks);
-//		calcNewVelocityGreenSnake(allFlocks);
-
-		// we want to be able to create a collection of behaviors and change the behaviors in response
-		// to external stimuli, rather than making changes at the parameter level; 
-		// this is a handcrafted test of stringing defined behaviors together
-		//				if (MusicSwarm.timeStep <= 10) {
-		//					neighborRadius = 950;
-		//					cohesionWeight = 0.2f;
-		//					separationWeight = 80;
-		//					normalSpeed = 6;
-		//					maxSpeed = 6;
-		//				}
-		//				else if (MusicSwarm.timeStep <= 20) {
-		//					neighborRadius = 200;
-		//					cohesionWeight = 0.05f;
-		//					separationWeight = 100;
-		//					normalSpeed = 12;
-		//					maxSpeed = 10;
-		//				}
-		//				else if (MusicSwarm.timeStep <= 600) {
-		//					calcNewVelocityNiceBehaviorFromWorkshop(allFlocks);
-		//				}
-		//				else if (MusicSwarm.timeStep >= 602 && MusicSwarm.timeStep <= 1000) {
-		//					calcNewVelocityPredatorPrey(allFlocks);
-		//				}
-		//				else if (MusicSwarm.timeStep >= 1002) {
-		//					calcNewVelocityNiceBehaviorFromWorkshop(allFlocks);
-		//				}
-		//		
-		//				else if (MusicSwarm.timeStep  == 601 || MusicSwarm.timeStep == 1001){
-		//					neighborRadius = 0;
-		//					maxSpeed = 4.0f;
-		//					normalSpeed = 4.0f;
-		//					pacekeepingWeight = 1.0f;
-		//					calcNewVelocityStandard(allFlocks);
-		//				}
-
-
-		// reset the Boid's velocity and move the Boid
-		velocity.set(nextVelocity.x, nextVelocity.y, nextVelocity.z);
-		location.add(velocity);
-
-		// render the Boid graphically
-		render();
+		myPreyID = 0;
 
+		this.world = world;
+		this.random = random;
 	}
 
 
-	
-	// calculate the new velocity of the Boid;
-	// also detects and reports proximity events, but this has not been used for quite a while (as of 5/15/13)
-	void calcNewVelocityStandard(Flock[] allFlocks) {
+	// make this view the view of a new Boid at the given index in the store
+	// (the Boid keeps its random stream)
+	void reuse(int index) {
 
-		// the new acceleration
-		PVector acceleration = new PVector(0.0f,0.0f,0.0f);
+		this.index = index;
+		myPreyID = 0;
+		preyFlock = null;
+		preyHandle = BoidStore.NO_HANDLE;
+	}
 
-		// need sum of locations of Boids in the neighborhood for acceleration due to cohesion,
-		// since cohesion = acceleration toward the average location of Boids in the neighborhood
-		PVector sumNeighborLocations = new PVector(0.0f,0.0f,0.0f);
-		
-		// need sum of velocities of Boids in the neighborhood for acceleration due to alignment,
-		// since alignment = acceleration toward the average velocity of Boids in the neighborhood
-		PVector sumNeighborVelocities = new PVector(0.0f,0.0f,0.0f);
 
-		int numNeighbors = 0;
+	// the velocity rules (see VelocityRule) call one of the calcNewVelocity methods below for each
+	// Boid in a Flock; all of the other flavors of calcNewVelocity are experiments and can be ignored
+	// (although calcNewVelocityNiceBehaviorFromWorkshop, which was created at the
+	// Performamatics workshop, is quite nice...)
+	// NOTE: these only read the other Boids through the grid (or their current locations), and
+	// only write to this Boid's entries in the store, so they can be called for different Boids
+	// on different threads, and the order in which the Boids are done doesn't matter
+
+	// we want to be able to create a collection of behaviors and change the behaviors in response
+	// to external stimuli, rather than making changes at the parameter level;
+	// this is a handcrafted test of stringing defined behaviors together
+	//				if (MusicSwarm.timeStep <= 10) {
+	//					neighborRadius = 950;
+	//					cohesionWeight = 0.2f;
+	//					separationWeight = 80;
+	//					normalSpeed = 6;
+	//					maxSpeed = 6;
+	//				}
+	//				else if (MusicSwarm.timeStep <= 20) {
+	//					neighborRadius = 200;
+	//					cohesionWeight = 0.05f;
+	//					separationWeight = 100;
+	//					normalSpeed = 12;
+	//					maxSpeed = 10;
+	//				}
+	//				else if (MusicSwarm.timeStep <= 600) {
+	//					calcNewVelocityNiceBehaviorFromWorkshop(allFlocks, neighborhood, b);
+	//				}
+	//				else if (MusicSwarm.timeStep >= 602 && MusicSwarm.timeStep <= 1000) {
+	//					calcNewVelocityPredatorPrey(allFlocks, neighborhood);
+	//				}
+	//				else if (MusicSwarm.timeStep >= 1002) {
+	//					calcNewVelocityNiceBehaviorFromWorkshop(allFlocks, neighborhood, b);
+	//				}
+	//
+	//				else if (MusicSwarm.timeStep  == 601 || MusicSwarm.timeStep == 1001){
+	//					neighborRadius = 0;
+	//					maxSpeed = 4.0f;
+	//					normalSpeed = 4.0f;
+	//					pacekeepingWeight = 1.0f;
+	//					calcNewVelocityStandard(allFlocks, neighborhood);
+	//				}
 
-		// need to get info on all Boids in all Flocks in the neighborhood
-		for (int nextFlockID = 1 ; nextFlockID < allFlocks.length ; nextFlockID++) {
-
-			synchronized(allFlocks[nextFlockID].boids) {
-
-				// go to next iteration of the loop if this flock is empty
-				if (allFlocks[nextFlockID].flockEmpty())
-					continue;
-
-				List<Boid> boids = allFlocks[nextFlockID].boids;
-
-				// get info for all Boids in this Flock
-				for (int i = 0 ; i < boids.size(); i++) {
-
-					Boid otherBoid = (Boid) boids.get(i);
-					float dist = location.dist(otherBoid.location);
-
-					// dist > 0 so that a Boid does not count itself as a Boid in the neighborhood
-					if (dist > 0 && dist <= neighborRadius) {
-
-						// keep count of neighbors 
-						++numNeighbors;
-
-						// sum locations for cohesion calculation after all neighbors have been processed
-						sumNeighborLocations.add(otherBoid.location); 
-
-						// sum velocities for alignment calculation after all neighbors have been processed
-						sumNeighborVelocities.add(otherBoid.velocity);
-
-						// for separation:
-						// calculate and weight vector pointing away from neighbor; add to acceleration
-						PVector vectorToThisBoid = PVector.sub(location, otherBoid.location);
-						// separation force is inversely proportional to the square of the distance
-						vectorToThisBoid.div(dist*dist);  
-						// but some experiments indicate to me that we might want to consider reducing the
-						// denominator to dist^1.5, or possibly even dist. using dist^2 seems to weaken the 
-						// separation force to an extent that makes it very difficult for separation to have 
-						// any impact when the cohesion is at its max; I would think that even when cohesion 
-						// is high, if the separation weight is >50, it should loosen tight clusters significantly,
-						// which ddoes not happen currently 
-//						vectorToThisBoid.div((float) Math.pow(dist, 1.5));  
-//						vectorToThisBoid.div(dist);  
-						vectorToThisBoid.mult(separationWeight);
-						acceleration.add(vectorToThisBoid);  
-
-						// draw lines between Boids from the same flock in the same neighborhood
-						if (flockID == nextFlockID)
-							connectBoids(otherBoid);
-					}
-				} 
-			}
-		}
 
-		if (numNeighbors > 0) {
-			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocations, (float) numNeighbors);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(cohesionWeight);
-			acceleration.add(cohesionVector);
 
-			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocities, (float) numNeighbors);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(alignmentWeight);
-			acceleration.add(alignmentVector);
-		}
 
+	// calculate the new velocity of the Boid;
+	// also detects and reports proximity events, but this has not been used for quite a while (as of 5/15/13)
+	void calcNewVelocityStandard(Flock[] allFlocks, Neighborhood neighborhood) {
 
-		// with the probability specified by the parameter randomMotionProbability, introduce a small
-		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each 
-		// acceleration component
-		if (MusicSwarm.rand.nextFloat() < randomMotionProbability) {
-			acceleration.add(new PVector(MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE, 
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE));
-		} 
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
 
-		// update velocity
-		nextVelocity.add(acceleration);
+		// need to get info on all Boids in all Flocks in the neighborhood
+		neighborhood.gather(flockID, index, x, y, z, store.neighborRadius.get(index));
 
-		// add wind
-		nextVelocity.add(MusicSwarm.windVector);
+		// the new acceleration
+		Vector3 acceleration = zero(neighborhood.acceleration);
+
+		// for separation:
+		// vector pointing away from each neighbor; add to acceleration
+		// separation force is inversely proportional to the square of the distance
+		// but some experiments indicate to me that we might want to consider reducing the
+		// denominator to dist^1.5, or possibly even dist. using dist^2 seems to weaken the
+		// separation force to an extent that makes it very difficult for separation to have
+		// any impact when the cohesion is at its max; I would think that even when cohesion
+		// is high, if the separation weight is >50, it should loosen tight clusters significantly,
+		// which ddoes not happen currently
+		addWeighted(acceleration, neighborhood.separation, store.separationWeight.get(index));
+
+		// cohesion = acceleration toward the average location of Boids in the neighborhood,
+		// alignment = acceleration toward the average velocity of Boids in the neighborhood
+		int numNeighbors = neighborhood.numNeighborsAllFlocks;
+		if (numNeighbors > 0) {
+			// cohesion steering: steer in the direction of the average location of your neighbors
+			addSteering(acceleration, neighborhood.locationsAllFlocks, numNeighbors, x, y, z, store.cohesionWeight.get(index));
 
-		// make sure we don't exceed maxSpeed
-		if (nextVelocity.mag() > maxSpeed) {
-			nextVelocity.mult(maxSpeed / nextVelocity.mag());
+			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
+			addSteering(acceleration, neighborhood.velocitiesAllFlocks, numNeighbors,
+					store.vx[index], store.vy[index], store.vz[index], store.alignmentWeight.get(index));
 		}
 
-		// pacekeeping (stick to normalSpeed to the extent indicated by pacekeepingWeight)
-		PVector pacekeeping = 
-			PVector.mult(nextVelocity, ((normalSpeed - nextVelocity.mag()) / nextVelocity.mag() * pacekeepingWeight));
-		nextVelocity.add(pacekeeping);
-
-		// bounce back from the boundaries of the space
-		PVector boundaryAcc = new PVector(0,0,0);
-		if (location.x < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)         
-			boundaryAcc.x = maxSpeed;	
-		else if (location.x > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.x = -maxSpeed;
-		if (location.y < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.y = maxSpeed;	
-		else if (location.y > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.y = -maxSpeed;	  
-		if (location.z < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.z = maxSpeed;	
-		else if (location.z > MusicSwarm.WINDOW_DEPTH/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.z = -maxSpeed;	     
-		nextVelocity.add(boundaryAcc);     
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
 
 		// velocity scale from Max
 		// not sure why we have this....
-		nextVelocity.mult(velocityScale);     
+		scaleNextVelocity(store.velocityScale.get(index));
 
 	}
 
@@ -309,270 +184,137 @@ public class Boid {
 
 	// nice behavior handcrafted at PERFORMAMATICS Workshop (January, 2013)
 	// to calculate motions of Boids and detect proximity events
-	void calcNewVelocityNiceBehaviorFromWorkshop(Flock[] allFlocks) {
-		// the new acceleration
-		PVector acceleration = new PVector(0.0f,0.0f,0.0f);
-
-		// need sum of locations of Boids in the neighborhood for acceleration due to cohesion,
-		// since cohesion = acceleration toward the average location of Boids in the neighborhood,
-		// but for this behavior a Boid only coheres with Boids in its own flock
-		PVector sumNeighborLocationsOwnFlock = new PVector(0,0,0);   
-		
-		// need sum of velocities of Boids in the neighborhood for acceleration due to alignment,
-		// since alignment = acceleration toward the average velocity of Boids in the neighborhood,
-		// but for this behavior a Boid only aligns with Boids in its own flock
-		PVector sumNeighborVelocitiesOwnFlock = new PVector(0.0f,0.0f,0.0f);
-
-		// so we need to count boids in the boid's own flock as well as boids in all the flocks 
-		// (in the neighborhood)
-		numNeighborsOwnFlock = 0;
-		numNeighborsAllFlocks = 0;
-
-		// need to get info on all Boids in all Flocks in the neighborhood
-		for (int nextFlockID = 1 ; nextFlockID < allFlocks.length ; nextFlockID++) {
-
-			synchronized(allFlocks[nextFlockID].boids) {
-
-				// go to next iteration of the loop if this flock is empty
-				if (allFlocks[nextFlockID].flockEmpty())
-					continue;
-
-				List<Boid> boids = allFlocks[nextFlockID].boids;
-
-				// get info for all Boids in this Flock
-				for (int i = 0 ; i < boids.size(); i++) {
+	// this is the first half, up to the Flock's Behavior: the acceleration is kept in the next
+	// velocity, while the Behavior runs on all the Boids in the range at once (see
+	// VelocityRule.NICE_BEHAVIOR_FROM_WORKSHOP), and then finishNewVelocity does the rest
+	void calcNewVelocityNiceBehaviorFromWorkshop(Flock[] allFlocks, Neighborhood neighborhood) {
 
-					Boid otherBoid = (Boid) boids.get(i);
-					float dist = location.dist(otherBoid.location);
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
 
-					// dist > 0 so that a Boid does not count itself as a Boid in the neighborhood
-					if (dist > 0 && dist <= neighborRadius) {
-
-						// for cohesion and alignment, but only for boids in the same flock
-						if (nextFlockID == flockID) {
-							sumNeighborLocationsOwnFlock.add(otherBoid.location); 
-							sumNeighborVelocitiesOwnFlock.add(otherBoid.velocity);
-						}
+		// need to get info on all Boids in all Flocks in the neighborhood
+		neighborhood.gather(flockID, index, x, y, z, store.neighborRadius.get(index));
 
-						// calculate and weight vector pointing away from a neighbor in any flock
-						PVector vectorToThisBoid = PVector.sub(location, otherBoid.location);
-						vectorToThisBoid.div(dist*dist);  
-						vectorToThisBoid.mult(separationWeight);
-						acceleration.add(vectorToThisBoid);  
+		// the new acceleration
+		Vector3 acceleration = zero(neighborhood.acceleration);
 
-						// keep count of neighbors in the same flock
-						if (nextFlockID == flockID)
-							++numNeighborsOwnFlock; 
+		// separation from neighbors in any flock
+		addWeighted(acceleration, neighborhood.separation, store.separationWeight.get(index));
 
-						// also keep count of neighbors in all flocks
-						++numNeighborsAllFlocks;
+		// the Behavior can look at the neighbor counts, in the boid's own flock as well as in all the flocks
+		int numNeighborsOwnFlock = neighborhood.numNeighborsOwnFlock;
+		store.numNeighborsOwnFlock[index] = numNeighborsOwnFlock;
+		store.numNeighborsAllFlocks[index] = neighborhood.numNeighborsAllFlocks;
 
-						// draw lines between Boids from the same flock in the same neighborhood
-						if (flockID == nextFlockID)
-							connectBoids(otherBoid);
-					}
-				} 
-			}
-		}
-		
-		// a boid coheres and aligns with others ONLY IN ITS OWN FLOCK 
+		// a boid coheres and aligns with others ONLY IN ITS OWN FLOCK
 		if (numNeighborsOwnFlock > 0) {
 			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocationsOwnFlock, (float) numNeighborsOwnFlock);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(cohesionWeight);
-			acceleration.add(cohesionVector);
+			addSteering(acceleration, neighborhood.locationsOwnFlock, numNeighborsOwnFlock, x, y, z, store.cohesionWeight.get(index));
 
 			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocitiesOwnFlock, (float) numNeighborsOwnFlock);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(alignmentWeight);
-			acceleration.add(alignmentVector);
+			addSteering(acceleration, neighborhood.velocitiesOwnFlock, numNeighborsOwnFlock,
+					store.vx[index], store.vy[index], store.vz[index], store.alignmentWeight.get(index));
 		}
 
 		// handcrafted rules to obtain "interesting behavior found at PERFORMAMATICS Workshop (January, 2013)
 
-		
+
 //		Vector<Integer> actionVarsIDs = new Vector<Integer>();
 //		actionVarsIDs.add(3);
 //		actionVarsIDs.add(6);
 //		actionVarsIDs.add(2);
 //		actionVarsIDs.add(1);
-//		
+//
 //		Vector<Integer> actionIDs = new Vector<Integer>();
 //		actionIDs.add(0);
 //		actionIDs.add(2);
 //		actionIDs.add(2);
 //		actionIDs.add(2);
-//		
+//
 //		Vector<Integer> nullActionIDs = new Vector<Integer>();
 //		nullActionIDs.add(1);
 //		nullActionIDs.add(2);
 //		nullActionIDs.add(2);
 //		nullActionIDs.add(2);
-//		
+//
 //		Vector<Float> numBank = new Vector<Float>();
 //		numBank.add(1f);
 //		numBank.add(0.9f);
 //		numBank.add(6f);
 //		numBank.add(6f);
-//		
+//
 //		Vector<Float> nullNumBank = new Vector<Float>();
 //		nullNumBank.add(1f);
 //		nullNumBank.add(0.1f);
 //		nullNumBank.add(24f);
 //		nullNumBank.add(24f);
-//		
+//
 //		Behavior b = new Behavior(this, 1, 10, 20, actionIDs, actionVarsIDs, nullActionIDs, actionVarsIDs, numBank, nullNumBank);
 //		b.execute();
-		
-		
-		b.execute(this);
 
-		// with the probability specified by the parameter randomMotionProbability, introduce a small
-		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each 
-		// acceleration component
-		if (MusicSwarm.rand.nextFloat() < randomMotionProbability) {
-			acceleration.add(new PVector(MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE, 
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE));
-		} 
-
-		// update velocity
-		nextVelocity.add(acceleration);
 
-		// add wind
-		nextVelocity.add(MusicSwarm.windVector);
-
-		// make sure we don't exceed maxSpeed
-		if (nextVelocity.mag() > maxSpeed) {
-			float normalizationFactor = maxSpeed / nextVelocity.mag();
-			nextVelocity.mult(normalizationFactor);
-		}
+		// the Behavior runs next (it can change the parameters used below, but not the ones used above)
+		store.nextVx[index] = acceleration.x;
+		store.nextVy[index] = acceleration.y;
+		store.nextVz[index] = acceleration.z;
+	}
 
-		// pacekeeping (stick to normalSpeed to the extent indicated by pacekeepingWeight)
-		PVector pacekeeping = 
-			PVector.mult(nextVelocity, ((normalSpeed - nextVelocity.mag()) / nextVelocity.mag() * pacekeepingWeight));
-		nextVelocity.add(pacekeeping);
+	// the second half of calcNewVelocityNiceBehaviorFromWorkshop, once the Behavior has run
+	void finishNewVelocity(Vector3 acceleration) {
 
-		// bounce back from the boundaries of the space
-		PVector boundaryAcc = new PVector(0,0,0);
-		if (location.x < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)         
-			boundaryAcc.x = maxSpeed;	
-		else if (location.x > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.x = -maxSpeed;
-		if (location.y < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.y = maxSpeed;	
-		else if (location.y > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.y = -maxSpeed;	  
-		if (location.z < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.z = maxSpeed;	
-		else if (location.z > MusicSwarm.WINDOW_DEPTH/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.z = -maxSpeed;	     
-		nextVelocity.add(boundaryAcc);     
+		acceleration.set(store.nextVx[index], store.nextVy[index], store.nextVz[index]);
 
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
 	}
 
 
 
 
-	// this seems like a less successful version of the nice 
+	// this seems like a less successful version of the nice
 	// behavior handcrafted at PERFORMAMATICS Workshop (January, 2013);
-	void calcNewVelocityPlayful(Flock[] allFlocks) {
-
-		// the new acceleration
-		PVector acceleration = new PVector(0.0f,0.0f,0.0f);
-
-		// need sum of locations of Boids in the neighborhood for acceleration due to cohesion,
-		// since cohesion = acceleration toward the average location of Boids in the neighborhood,
-		// but for this behavior a Boid only coheres with Boids in its own flock
-		PVector sumNeighborLocationsOwnFlock = new PVector(0,0,0);   
-		
-		// need sum of velocities of Boids in the neighborhood for acceleration due to alignment,
-		// since alignment = acceleration toward the average velocity of Boids in the neighborhood,
-		// but for this behavior a Boid only aligns with Boids in its own flock
-		PVector sumNeighborVelocitiesOwnFlock = new PVector(0.0f,0.0f,0.0f);
-
-		// so we need to count boids in the boid's own flock as well as boids in all the flocks 
-		// (in the neighborhood)
-		int numNeighborsOwnFlock = 0;
-//		int numNeighborsAllFlocks = 0;
-
-		// need to get info on all Boids in all Flocks
-		for (int nextFlockID = 1 ; nextFlockID < allFlocks.length ; nextFlockID++) {
-
-			synchronized(allFlocks[nextFlockID].boids) {
-
-				// go to next iteration of the loop if this flock is empty
-				if (allFlocks[nextFlockID].flockEmpty())
-					continue;
-
-				List<Boid> boids = allFlocks[nextFlockID].boids;
-
-				// get info for all Boids in this Flock
-				for (int i = 0 ; i < boids.size(); i++) {
+	void calcNewVelocityPlayful(Flock[] allFlocks, Neighborhood neighborhood) {
 
-					Boid otherBoid = (Boid) boids.get(i);
-					float dist = location.dist(otherBoid.location);
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
 
-					// dist > 0 so that a boid does not count itself as another boid in the neighborhood
-					if (dist > 0 && dist <= neighborRadius) {
-
-						// for cohesion and alignment, but only for boids in the same flock
-						if (nextFlockID == flockID) {
-							sumNeighborLocationsOwnFlock.add(otherBoid.location); 
-							sumNeighborVelocitiesOwnFlock.add(otherBoid.velocity);
-						}
-
-						// calculate and weight vector pointing away from neighbor, for all boids in all flocks
-						PVector vectorToThisBoid = PVector.sub(location, otherBoid.location);
-						vectorToThisBoid.div(dist*dist);  
-						vectorToThisBoid.mult(separationWeight);
-						acceleration.add(vectorToThisBoid);  
+		// need to get info on all Boids in all Flocks in the neighborhood
+		neighborhood.gather(flockID, index, x, y, z, store.neighborRadius.get(index));
 
-						// keep count of boids in the same flock
-						if (nextFlockID == flockID)
-							++numNeighborsOwnFlock; 
+		// the new acceleration
+		Vector3 acceleration = zero(neighborhood.acceleration);
 
-						// also keep count of neighbors in all flocks
-						++numNeighborsAllFlocks;
+		// vector pointing away from neighbor, for all boids in all flocks
+		addWeighted(acceleration, neighborhood.separation, store.separationWeight.get(index));
 
-						// draw connected components
-						if (flockID == nextFlockID)
-							connectBoids(otherBoid);
-					}
-				} 
-			}
-		}
+		// so we need to count boids in the boid's own flock as well as boids in all the flocks
+		// (in the neighborhood)
+		int numNeighborsOwnFlock = neighborhood.numNeighborsOwnFlock;
+		store.numNeighborsAllFlocks[index] += neighborhood.numNeighborsAllFlocks;
 
-		// a boid coheres and aligns with others ONLY IN ITS OWN FLOCK 
+		// a boid coheres and aligns with others ONLY IN ITS OWN FLOCK
 		if (numNeighborsOwnFlock > 0) {
 			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocationsOwnFlock, (float) numNeighborsOwnFlock);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(cohesionWeight);
-			acceleration.add(cohesionVector);
+			addSteering(acceleration, neighborhood.locationsOwnFlock, numNeighborsOwnFlock, x, y, z, store.cohesionWeight.get(index));
 
 			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocitiesOwnFlock, (float) numNeighborsOwnFlock);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(alignmentWeight);
-			acceleration.add(alignmentVector);
+			addSteering(acceleration, neighborhood.velocitiesOwnFlock, numNeighborsOwnFlock,
+					store.vx[index], store.vy[index], store.vz[index], store.alignmentWeight.get(index));
 		}
 
 		// behavior mechanism
-		if (MusicSwarm.timeStep % 100 == 0) {
+		if (world.getTimeStep() % 100 == 0) {
 			if (numNeighborsOwnFlock < 5) {
-				neighborRadius += 10;
-				if (neighborRadius > 500)
-					neighborRadius = 500;
-				cohesionWeight = 0.9f;
+				store.neighborRadius.set(index, store.neighborRadius.get(index) + 10);
+				if (store.neighborRadius.get(index) > 500)
+					store.neighborRadius.set(index, 500);
+				store.cohesionWeight.set(index, 0.9f);
 			}
 			else {
-				neighborRadius -= 10;			
-				if (neighborRadius < 0)
-					neighborRadius = 0;
-				cohesionWeight = 0.1f;
+				store.neighborRadius.set(index, store.neighborRadius.get(index) - 10);
+				if (store.neighborRadius.get(index) < 0)
+					store.neighborRadius.set(index, 0);
+				store.cohesionWeight.set(index, 0.1f);
 			}
 			//			if (numNeighborsAllFlocks < 2) {
 			//				flock.addNewBoid(location.x, location.y, location.z, 1);
@@ -583,667 +325,479 @@ public class Boid {
 		}
 
 
-
-		// with the probability specified by the parameter randomMotionProbability, introduce a small
-		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each 
-		// acceleration component
-		if (MusicSwarm.rand.nextFloat() < randomMotionProbability) {
-			acceleration.add(new PVector(MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE, 
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE));
-		} 
-
-		// update velocity
-		nextVelocity.add(acceleration);
-
-		// add wind
-		nextVelocity.add(MusicSwarm.windVector);
-
-		// make sure we don't exceed maxSpeed
-		if (nextVelocity.mag() > maxSpeed) {
-			float normalizationFactor = maxSpeed / nextVelocity.mag();
-			nextVelocity.mult(normalizationFactor);
-		}
-
-		// pacekeeping (stick to normalSpeed to the extent indicated by pacekeepingWeight)
-		PVector pacekeeping = 
-			PVector.mult(nextVelocity, ((normalSpeed - nextVelocity.mag()) / nextVelocity.mag() * pacekeepingWeight));
-		nextVelocity.add(pacekeeping);
-
-		// bounce back from the boundaries of the space
-		PVector boundaryAcc = new PVector(0,0,0);
-		if (location.x < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)         
-			boundaryAcc.x = maxSpeed;	
-		else if (location.x > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.x = -maxSpeed;
-		if (location.y < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.y = maxSpeed;	
-		else if (location.y > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.y = -maxSpeed;	  
-		if (location.z < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.z = maxSpeed;	
-		else if (location.z > MusicSwarm.WINDOW_DEPTH/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.z = -maxSpeed;	     
-		nextVelocity.add(boundaryAcc);     
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
 
 		// velocity scale from Max
-		nextVelocity.mult(velocityScale);     
+		scaleNextVelocity(store.velocityScale.get(index));
 
 	}
 
 
 
-	
+
 	// there is a single flock
 	// the single prey is boid 0;
 	// the rest of the boids are the predators
 	// to calculate motions of Boids and detect proximity events
-	void calcNewVelocityPredatorPrey(Flock[] allFlocks) {
+	void calcNewVelocityPredatorPrey(Flock[] allFlocks, Neighborhood neighborhood) {
 
 		// we want these parameters to have these values regardless of how they started out
-		maxSpeed = 20.0f;              
-		normalSpeed = 18.0f;
-		pacekeepingWeight = 1.0f;//1.0f;//0.5f;
+		store.maxSpeed.set(index, 20.0f);
+		store.normalSpeed.set(index, 18.0f);
+		store.pacekeepingWeight.set(index, 1.0f);//1.0f;//0.5f;
 
-		// the new acceleration
-		PVector acceleration = new PVector(0.0f,0.0f,0.0f);
-
-		// need sum of locations of Boids in the neighborhood for acceleration due to cohesion,
-		// since cohesion = acceleration toward the average location of Boids in the neighborhood,
-		// but for this behavior a Boid only coheres with Boids in its own flock
-		PVector sumNeighborLocationsOwnFlock = new PVector(0,0,0);   
-		
-		// need sum of velocities of Boids in the neighborhood for acceleration due to alignment,
-		// since alignment = acceleration toward the average velocity of Boids in the neighborhood,
-		// but for this behavior a Boid only aligns with Boids in its own flock
-		PVector sumNeighborVelocitiesOwnFlock = new PVector(0.0f,0.0f,0.0f);
-
-		// so we need to count boids in the boid's own flock as well as boids in all the flocks 
-		// (in the neighborhood)
-		int numNeighborsOwnFlock = 0;
-//		int numNeighborsAllFlocks = 0;
-
-		// will need this later to create a vector toward the prey for all the predators
-		Boid preyBoid = null;
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
 
+		// will need this later to create a vector toward the prey for all the predators;
+		// the prey is boid 0 in the (last non-empty) Flock, which can be anywhere,
+		// so it is found by its ID rather than among the neighbors
+		// NOTE: every Flock in allFlocks has Boids (see FlockRegistry)
+		BoidStore preyStore = allFlocks[allFlocks.length - 1].store;
+		int preyIndex = preyStore.indexOfID(0);
 
 		// need to get info on all Boids in all Flocks in the neighborhood
-		for (int nextFlockID = 1 ; nextFlockID < allFlocks.length ; nextFlockID++) {
-
-			synchronized(allFlocks[nextFlockID].boids) {
-
-				// go to next iteration of the loop if this flock is empty
-				if (allFlocks[nextFlockID].flockEmpty())
-					continue;
-
-				List<Boid> boids = allFlocks[nextFlockID].boids;
-
-				// get info for all Boids in this Flock
-				for (int i = 0 ; i < boids.size(); i++) {
+		neighborhood.gather(flockID, index, x, y, z, store.neighborRadius.get(index));
 
-					Boid otherBoid = (Boid) boids.get(i);
-					float dist = location.dist(otherBoid.location);
-
-					// save a reference to the prey
-					if (i == 0)
-						preyBoid = otherBoid;
-
-					// dist > 0 so that a boid does not count itself as another boid in the neighborhood
-					if (dist > 0 && dist <= neighborRadius) {
-
-						// for cohesion and alignment, but only for boids in the same flock
-						if (nextFlockID == flockID) {
-							sumNeighborLocationsOwnFlock.add(otherBoid.location); 
-							sumNeighborVelocitiesOwnFlock.add(otherBoid.velocity);
-						}
-
-						// calculate and weight vector pointing away from neighbor, for all boids in all flocks
-						PVector vectorToThisBoid = PVector.sub(location, otherBoid.location);
-						vectorToThisBoid.div(dist*dist);  
-						// prey boid (boid 0) should separate as strongly as possible from all other boids
-						//					if (boidID == 0)
-						//						vectorToThisBoid.mult(10.0f);
-						//					else
-						vectorToThisBoid.mult(separationWeight);
-						acceleration.add(vectorToThisBoid);  
-
-						// keep count of boids in the same flock
-						if (nextFlockID == flockID)
-							++numNeighborsOwnFlock; 
-
-						// also keep count of neighbors in all flocks
-						++numNeighborsAllFlocks;
+		// the new acceleration
+		Vector3 acceleration = zero(neighborhood.acceleration);
 
-						// draw lines between Boids from the same flock in the same neighborhood
-						if (flockID == nextFlockID)
-							connectBoids(otherBoid);
-					}
+		// vector pointing away from neighbor, for all boids in all flocks
+		// prey boid (boid 0) should separate as strongly as possible from all other boids
+		//					if (boidID == 0)
+		//						separation = 10.0f / distSquared;
+		//					else
+		addWeighted(acceleration, neighborhood.separation, store.separationWeight.get(index));
 
-				}
-			}
-		}
+		// so we need to count boids in the boid's own flock as well as boids in all the flocks
+		// (in the neighborhood)
+		int numNeighborsOwnFlock = neighborhood.numNeighborsOwnFlock;
+		store.numNeighborsAllFlocks[index] += neighborhood.numNeighborsAllFlocks;
 
 		// only for predators:
-		if (boidID != 0) {
+		if (store.boidID[index] != 0) {
 
-			// only predators cohere and align
+			// only predators cohere and align, and only with boids in their own flock
 			if (numNeighborsOwnFlock > 0) {
 				// cohesion steering: steer in the direction of the average location of your neighbors
-				PVector cohesionVector = PVector.div(sumNeighborLocationsOwnFlock, (float) numNeighborsOwnFlock);        
-				cohesionVector.sub(location);
-				cohesionVector.mult(cohesionWeight);
-				acceleration.add(cohesionVector);
+				addSteering(acceleration, neighborhood.locationsOwnFlock, numNeighborsOwnFlock, x, y, z, store.cohesionWeight.get(index));
 
 				// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-				PVector alignmentVector = PVector.div(sumNeighborVelocitiesOwnFlock, (float) numNeighborsOwnFlock);
-				alignmentVector.sub(velocity);
-				alignmentVector.mult(alignmentWeight);
-				acceleration.add(alignmentVector);
+				addSteering(acceleration, neighborhood.velocitiesOwnFlock, numNeighborsOwnFlock,
+						store.vx[index], store.vy[index], store.vz[index], store.alignmentWeight.get(index));
 			}
 
 			// add a vector to the predators that accelerates them toward the prey (boid 0)
-			// preyBoid was found in the loop above that goes through all the boids
+			// the prey was found above (there is none if boid 0 has died)
 			//
 			// turns out to be really important to make this vector have a *very* small
 			// magnitude; otherwise the predators are drawn so strongly to the prey
 			// that they end up forming a tight clump that follows the prey even if
 			// they have max separation and no cohesion or alignment with each other
-			PVector toPrey = PVector.sub(preyBoid.location, location);
-			toPrey.mult(0.001f);
-			acceleration.add(toPrey);
-
-		}
-
-
-		// with the probability specified by the parameter randomMotionProbability, introduce a small
-		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each 
-		// acceleration component
-		if (MusicSwarm.rand.nextFloat() < randomMotionProbability) {
-			acceleration.add(new PVector(MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE, 
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE));
-		} 
-
-		// update velocity
-		nextVelocity.add(acceleration);
-
-		// add wind
-		nextVelocity.add(MusicSwarm.windVector);
+			if (preyIndex >= 0)
+				addToward(acceleration, preyStore, preyIndex, x, y, z, 0.001f);
 
-		// make sure we don't exceed maxSpeed
-		if (nextVelocity.mag() > maxSpeed) {
-			float normalizationFactor = maxSpeed / nextVelocity.mag();
-			nextVelocity.mult(normalizationFactor);
 		}
 
-		// pacekeeping (stick to normalSpeed to the extent indicated by pacekeepingWeight)
-		PVector pacekeeping = 
-			PVector.mult(nextVelocity, ((normalSpeed - nextVelocity.mag()) / nextVelocity.mag() * pacekeepingWeight));
-		nextVelocity.add(pacekeeping);
 
-		// bounce back from the boundaries of the space
-		PVector boundaryAcc = new PVector(0,0,0);
-		if (location.x < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)         
-			boundaryAcc.x = maxSpeed;	
-		else if (location.x > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.x = -maxSpeed;
-		if (location.y < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.y = maxSpeed;	
-		else if (location.y > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.y = -maxSpeed;	  
-		if (location.z < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.z = maxSpeed;	
-		else if (location.z > MusicSwarm.WINDOW_DEPTH/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.z = -maxSpeed;	     
-		nextVelocity.add(boundaryAcc);     
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
 
 		// velocity scale from Max
 		// scale up leader boid velocity
-		if (boidID == 0)
-			nextVelocity.mult(2.0f);     
+		if (store.boidID[index] == 0)
+			scaleNextVelocity(2.0f);
 		else
-			nextVelocity.mult(velocityScale);     
+			scaleNextVelocity(store.velocityScale.get(index));
 
 	}
 
 
 
-	
+
 	// with 50 boids per flock (2 flocks), the green flock behavior is sometimes very interesting --
 	// clusters of green boids "roll over each other in a ball" like fish schooling
 	// found this while trying to make calcNewVelocityPredatorPreyWholeFlocks work
 	//	// default characteristics of flock
-	//	float velocityScale = 1.0f;         
-	//	float maxSpeed = 12.0f;              
+	//	float velocityScale = 1.0f;
+	//	float maxSpeed = 12.0f;
 	//	float normalSpeed = 10.0f;
-	//	float neighborRadius = 100.0f;        
+	//	float neighborRadius = 100.0f;
 	//	float separationWeight = 100f;
 	//	float alignWeight = 1.0f;//0.25f;
 	//	float cohesionWeight = 0.05f;//0.25f;
 	//	float pacekeepingWeight = 1.0f;//1.0f;//0.5f;
-	//	float randomMotionProbability = 1.0f;//0.2f;  
+	//	float randomMotionProbability = 1.0f;//0.2f;
 	//	float proximityThreshold = 10.0f;
 	//
-	// NOTE: this was developed from the predator/prey behavior and there are still 
+	// NOTE: this was developed from the predator/prey behavior and there are still
 	//       references to predator and prey
-	void calcNewVelocityFishSchools(Flock[] allFlocks) {
+	void calcNewVelocityFishSchools(Flock[] allFlocks, Neighborhood neighborhood) {
 
 		// we want these parameters to have these values regardless of how they started out
-		maxSpeed = 20.0f;              
-		normalSpeed = 18.0f;
-		pacekeepingWeight = 1.0f;//1.0f;//0.5f;
+		store.maxSpeed.set(index, 20.0f);
+		store.normalSpeed.set(index, 18.0f);
+		store.pacekeepingWeight.set(index, 1.0f);//1.0f;//0.5f;
+
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
+
+		// find prey boid (it can be anywhere, so it is not found among the neighbors)
+		int preyIndex = findPrey(allFlocks);
+
+		// need to get info on all Boids in all Flocks in the neighborhood;
+		// for this behavior we need the sums for the boids in the same flock and in all the flocks
+		neighborhood.gather(flockID, index, x, y, z, store.neighborRadius.get(index));
+		int numNeighborsOwnFlock = neighborhood.numNeighborsOwnFlock;
+		int numNeighborsAllFlocks = neighborhood.numNeighborsAllFlocks;
 
 		// the new acceleration
-		PVector acceleration = new PVector(0.0f,0.0f,0.0f);
-
-		// need sum of locations of Boids in the neighborhood for acceleration due to cohesion,
-		// since cohesion = acceleration toward the average location of Boids in the neighborhood,
-		// but for this behavior a Boid only coheres with Boids in its own flock
-		PVector sumNeighborLocationsOwnFlock = new PVector(0,0,0);   
-		
-		// need sum of velocities of Boids in the neighborhood for acceleration due to alignment,
-		// since alignment = acceleration toward the average velocity of Boids in the neighborhood,
-		// but for this behavior a Boid only aligns with Boids in its own flock
-		PVector sumNeighborVelocitiesOwnFlock = new PVector(0.0f,0.0f,0.0f);
-
-		// but we also need these for boids in all the flocks (in the neighborhood)
-		// for cohesion
-		PVector sumNeighborLocationsAllFlocks = new PVector(0,0,0);   
-		// for alignment
-		PVector sumNeighborVelocitiesAllFlocks = new PVector(0.0f,0.0f,0.0f);
-
-		int numNeighborsOwnFlock = 0;
-		int numNeighborsAllFlocks = 0;
+		Vector3 acceleration = zero(neighborhood.acceleration);
 
-		// need to get info on all Boids in all Flocks in the neighborhood
-		for (int nextFlockID = 1 ; nextFlockID < allFlocks.length ; nextFlockID++) {
-
-			synchronized(allFlocks[nextFlockID].boids) {
-
-				// go to next iteration of the loop if this flock is empty
-				if (allFlocks[nextFlockID].flockEmpty())
-					continue;
-
-				List<Boid> boids = allFlocks[nextFlockID].boids;
-
-				// get info for all Boids in this Flock
-				for (int i = 0 ; i < boids.size(); i++) {
-
-					Boid otherBoid = (Boid) boids.get(i);
-					float dist = location.dist(otherBoid.location);
-
-					// find prey boid
-					if (otherBoid.boidID == myPreyID)
-						preyBoid = otherBoid;
-
-					// dist > 0 so that a boid does not count itself as another boid in the neighborhood
-					if (dist > 0 && dist <= neighborRadius) {
-
-						// for cohesion and alignment with boids in the same flock
-						if (nextFlockID == flockID) {
-							sumNeighborLocationsOwnFlock.add(otherBoid.location); 
-							sumNeighborVelocitiesOwnFlock.add(otherBoid.velocity);
-						}
-						
-						// for cohesion and alignment with all boids 
-						sumNeighborLocationsAllFlocks.add(otherBoid.location); 
-						sumNeighborVelocitiesAllFlocks.add(otherBoid.velocity);						
-
-						// calculate and weight vector pointing away from neighbor, for all boids in all flocks,
-						// but weight it differently for certain pairs of boids
-						PVector vectorToThisBoid = PVector.sub(location, otherBoid.location);
-						vectorToThisBoid.div(dist*dist);  
-						if (flockID == 1 && nextFlockID == 2) {
-							vectorToThisBoid.mult(50);  //100
-							acceleration.add(vectorToThisBoid);  
-						}
-						else {
-							vectorToThisBoid.mult(50);
-							acceleration.add(vectorToThisBoid);  
-						}
-
-						// keep count of boids in the same flock
-						if (nextFlockID == flockID)
-							++numNeighborsOwnFlock; 
-
-						// also keep count of neighbors in all flocks
-						++numNeighborsAllFlocks;
-
-						// draw lines between Boids from the same flock in the same neighborhood
-						if (flockID == nextFlockID)
-							connectBoids(otherBoid);
-					}
-
-				}
-			}
-		}
+		// vector pointing away from neighbor, for all boids in all flocks
+		// (at one point this was weighted differently for flock 1 boids near flock 2 boids: 100)
+		addWeighted(acceleration, neighborhood.separation, 50);
 
 		// cohesion and alignment for flock 1
 		if (numNeighborsOwnFlock > 0 && flockID == 1) {
 			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocationsOwnFlock, (float) numNeighborsOwnFlock);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(0.1f);
-			acceleration.add(cohesionVector);
+			addSteering(acceleration, neighborhood.locationsOwnFlock, numNeighborsOwnFlock, x, y, z, 0.1f);
 
 			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocitiesOwnFlock, (float) numNeighborsOwnFlock);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(0.1f);
-			acceleration.add(alignmentVector);
+			addSteering(acceleration, neighborhood.velocitiesOwnFlock, numNeighborsOwnFlock,
+					store.vx[index], store.vy[index], store.vz[index], 0.1f);
 		}
 
 		// cohesion and alignment for flock 2
 		else if (numNeighborsOwnFlock > 0 && flockID == 2) {
 			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocationsAllFlocks, (float) numNeighborsAllFlocks);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(0.1f);
-			acceleration.add(cohesionVector);
+			addSteering(acceleration, neighborhood.locationsAllFlocks, numNeighborsAllFlocks, x, y, z, 0.1f);
 
 			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocitiesAllFlocks, (float) numNeighborsAllFlocks);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(0.5f);
-			acceleration.add(alignmentVector);
+			addSteering(acceleration, neighborhood.velocitiesAllFlocks, numNeighborsAllFlocks,
+					store.vx[index], store.vy[index], store.vz[index], 0.5f);
 		}
 
-		// add a vector to the boids in flcok 2 that accelerates them toward the  
-		// preyBoid that was found in the loop above that goes through all the boids
+		// add a vector to the boids in flcok 2 that accelerates them toward the
+		// prey that was found above
 		if (flockID == 2) {
-			if (preyBoid != null) {
-				PVector toPrey = PVector.sub(preyBoid.location, location);
-				toPrey.mult(0.1f);
-				acceleration.add(toPrey);
+			if (preyIndex >= 0) {
+				addToward(acceleration, preyFlock.store, preyIndex, x, y, z, 0.1f);
 			}
 		}
 
 
-		// with the probability specified by the parameter randomMotionProbability, introduce a small
-		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each 
-		// acceleration component
-		if (MusicSwarm.rand.nextFloat() < randomMotionProbability) {
-			acceleration.add(new PVector(MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE, 
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE));
-		} 
-
-		// update velocity
-		nextVelocity.add(acceleration);
-
-		// add wind
-		nextVelocity.add(MusicSwarm.windVector);
-
-		// make sure we don't exceed maxSpeed
-		if (nextVelocity.mag() > maxSpeed) {
-			float normalizationFactor = maxSpeed / nextVelocity.mag();
-			nextVelocity.mult(normalizationFactor);
-		}
-
-		// pacekeeping (stick to normalSpeed to the extent indicated by pacekeepingWeight)
-		PVector pacekeeping = 
-			PVector.mult(nextVelocity, ((normalSpeed - nextVelocity.mag()) / nextVelocity.mag() * pacekeepingWeight));
-		nextVelocity.add(pacekeeping);
-
-		// bounce back from the boundaries of the space
-		PVector boundaryAcc = new PVector(0,0,0);
-		if (location.x < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)         
-			boundaryAcc.x = maxSpeed;	
-		else if (location.x > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.x = -maxSpeed;
-		if (location.y < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.y = maxSpeed;	
-		else if (location.y > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.y = -maxSpeed;	  
-		if (location.z < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.z = maxSpeed;	
-		else if (location.z > MusicSwarm.WINDOW_DEPTH/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.z = -maxSpeed;	     
-		nextVelocity.add(boundaryAcc);     
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
 
 		// velocity scale from Max
 		// scale up leader boid velocity
 		//		if (MusicSwarm.timeStep > startStep && MusicSwarm.timeStep < endStep && boidID == 0)
-		//			nextVelocity.mult(2.0f);     
+		//			scaleNextVelocity(2.0f);
 		//		else
-		nextVelocity.mult(0.5f);     
+		scaleNextVelocity(0.5f);
 
 	}
 
-	
 
-	
+
+
 	// with 50 boids per flock (2 flocks), the green boids become a snake-like cluster
 	// found this while trying to make calcNewVelocityPredatorPreyWholeFlocks work
 	//	// default characteristics of flock
-	//	float velocityScale = 1.0f;         
-	//	float maxSpeed = 12.0f;              
+	//	float velocityScale = 1.0f;
+	//	float maxSpeed = 12.0f;
 	//	float normalSpeed = 10.0f;
-	//	float neighborRadius = 100.0f;        
+	//	float neighborRadius = 100.0f;
 	//	float separationWeight = 100f;
 	//	float alignWeight = 1.0f;//0.25f;
 	//	float cohesionWeight = 0.05f;//0.25f;
 	//	float pacekeepingWeight = 1.0f;//1.0f;//0.5f;
-	//	float randomMotionProbability = 1.0f;//0.2f;  
+	//	float randomMotionProbability = 1.0f;//0.2f;
 	//	float proximityThreshold = 10.0f;
 	//
-	// NOTE: this was developed from the predator/prey behavior and there are still 
+	// NOTE: this was developed from the predator/prey behavior and there are still
 	//       references to predator and prey
-	void calcNewVelocityGreenSnake(Flock[] allFlocks) {
+	void calcNewVelocityGreenSnake(Flock[] allFlocks, Neighborhood neighborhood) {
 
 		// we want these parameters to have these values regardless of how they started out;
 		// at one point, they were different for the two flocks....
 		if (flockID == 1) {
-			maxSpeed = 20.0f;              
-			normalSpeed = 18.0f;
-			pacekeepingWeight = 1.0f;//1.0f;//0.5f;			
+			store.maxSpeed.set(index, 20.0f);
+			store.normalSpeed.set(index, 18.0f);
+			store.pacekeepingWeight.set(index, 1.0f);//1.0f;//0.5f;
 		}
 		else if (flockID == 2) {
-			maxSpeed = 20.0f;              
-			normalSpeed = 18.0f;
-			pacekeepingWeight = 1.0f;//1.0f;//0.5f;			
+			store.maxSpeed.set(index, 20.0f);
+			store.normalSpeed.set(index, 18.0f);
+			store.pacekeepingWeight.set(index, 1.0f);//1.0f;//0.5f;
 		}
 
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
+
+		// find prey boid (it can be anywhere, so it is not found among the neighbors)
+		int preyIndex = -1;
+		if (flockID == 2)
+			preyIndex = findPrey(allFlocks);
+
+		// need to get info on all Boids in all Flocks in the neighborhood;
+		// for this behavior we need the sums for the boids in the same flock and in all the flocks
+		neighborhood.gather(flockID, index, x, y, z, store.neighborRadius.get(index));
+		int numNeighborsOwnFlock = neighborhood.numNeighborsOwnFlock;
+		int numNeighborsAllFlocks = neighborhood.numNeighborsAllFlocks;
+
 		// the new acceleration
-		PVector acceleration = new PVector(0.0f,0.0f,0.0f);
-
-		// need sum of locations of Boids in the neighborhood for acceleration due to cohesion,
-		// since cohesion = acceleration toward the average location of Boids in the neighborhood,
-		// but for this behavior a Boid only coheres with Boids in its own flock
-		PVector sumNeighborLocationsOwnFlock = new PVector(0,0,0);   
-		
-		// need sum of velocities of Boids in the neighborhood for acceleration due to alignment,
-		// since alignment = acceleration toward the average velocity of Boids in the neighborhood,
-		// but for this behavior a Boid only aligns with Boids in its own flock
-		PVector sumNeighborVelocitiesOwnFlock = new PVector(0.0f,0.0f,0.0f);
-
-		// but we also need these for boids in all the flocks (in the neighborhood)
-		// for cohesion
-		PVector sumNeighborLocationsAllFlocks = new PVector(0,0,0);   
-		// for alignment
-		PVector sumNeighborVelocitiesAllFlocks = new PVector(0.0f,0.0f,0.0f);
-
-		int numNeighborsOwnFlock = 0;
-		int numNeighborsAllFlocks = 0;
+		Vector3 acceleration = zero(neighborhood.acceleration);
 
-		// need to get info on all Boids in all Flocks in the neighborhood
-		for (int nextFlockID = 1 ; nextFlockID < allFlocks.length ; nextFlockID++) {
-
-			synchronized(allFlocks[nextFlockID].boids) {
-
-				// go to next iteration of the loop if this flock is empty
-				if (allFlocks[nextFlockID].flockEmpty())
-					continue;
-
-				List<Boid> boids = allFlocks[nextFlockID].boids;
-
-				// get info for all Boids in this Flock
-				for (int i = 0 ; i < boids.size(); i++) {
-
-					Boid otherBoid = (Boid) boids.get(i);
-					float dist = location.dist(otherBoid.location);
-
-					// find prey boid
-					if (flockID == 2 && otherBoid.boidID == myPreyID)
-						preyBoid = otherBoid;
-
-					// dist > 0 so that a boid does not count itself as another boid in the neighborhood
-					if (dist > 0 && dist <= neighborRadius) {
-
-						// for cohesion and alignment with boids in the same flock
-						if (nextFlockID == flockID) {
-							sumNeighborLocationsOwnFlock.add(otherBoid.location); 
-							sumNeighborVelocitiesOwnFlock.add(otherBoid.velocity);
-						}
-						
-						// for cohesion and alignment with all boids 
-						sumNeighborLocationsAllFlocks.add(otherBoid.location); 
-						sumNeighborVelocitiesAllFlocks.add(otherBoid.velocity);						
-
-						// calculate and weight vector pointing away from neighbor, for all boids in all flocks,
-						// but weight it differently for certain pairs of boids
-						PVector vectorToThisBoid = PVector.sub(location, otherBoid.location);
-						vectorToThisBoid.div(dist*dist);  
-						if (flockID == 1 && nextFlockID == 2) {
-							vectorToThisBoid.mult(100);
-							acceleration.add(vectorToThisBoid);  
-						}
-						else {
-							vectorToThisBoid.mult(80);
-							acceleration.add(vectorToThisBoid);  
-						}
-
-						// keep count of boids in the same flock
-						if (nextFlockID == flockID)
-							++numNeighborsOwnFlock; 
-
-						// also keep count of neighbors in all flocks
-						++numNeighborsAllFlocks;
-
-						// draw lines between Boids from the same flock in the same neighborhood
-						if (flockID == nextFlockID)
-							connectBoids(otherBoid);
-					}
-
-				}
-			}
-		}
+		// vector pointing away from neighbor, for all boids in all flocks,
+		// but weighted differently for certain pairs of boids: flock 1 boids separate more strongly
+		// from boids in the other flock (i.e. flock 2, since this was done with 2 flocks)
+		addWeighted(acceleration, neighborhood.separation, 80);
+		if (flockID == 1)
+			addWeighted(acceleration, neighborhood.separationOtherFlocks, 100 - 80);
 
 
 		// cohesion and alignment for flock 1
 		if (numNeighborsOwnFlock > 0 && flockID == 1) {
 			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocationsOwnFlock, (float) numNeighborsOwnFlock);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(0.1f);
-			acceleration.add(cohesionVector);
+			addSteering(acceleration, neighborhood.locationsOwnFlock, numNeighborsOwnFlock, x, y, z, 0.1f);
 
 			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocitiesOwnFlock, (float) numNeighborsOwnFlock);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(0.1f);
-			acceleration.add(alignmentVector);
+			addSteering(acceleration, neighborhood.velocitiesOwnFlock, numNeighborsOwnFlock,
+					store.vx[index], store.vy[index], store.vz[index], 0.1f);
 		}
-		
+
 		// cohesion and alignment for flock 2
 		else if (numNeighborsOwnFlock > 0 && flockID == 2) {
 			// cohesion steering: steer in the direction of the average location of your neighbors
-			PVector cohesionVector = PVector.div(sumNeighborLocationsAllFlocks, (float) numNeighborsAllFlocks);        
-			cohesionVector.sub(location);
-			cohesionVector.mult(0.1f);
-			acceleration.add(cohesionVector);
+			addSteering(acceleration, neighborhood.locationsAllFlocks, numNeighborsAllFlocks, x, y, z, 0.1f);
 
 			// alignment steering: steer so as to align your velocity with the average velocity of your neighbors
-			PVector alignmentVector = PVector.div(sumNeighborVelocitiesAllFlocks, (float) numNeighborsAllFlocks);
-			alignmentVector.sub(velocity);
-			alignmentVector.mult(0.5f);
-			acceleration.add(alignmentVector);
+			addSteering(acceleration, neighborhood.velocitiesAllFlocks, numNeighborsAllFlocks,
+					store.vx[index], store.vy[index], store.vz[index], 0.5f);
 		}
 
-		// add a vector to the boids in flock 2 that accelerates them toward the 
-		// preyBoid was found in the loop above that goes through all the boids
+		// add a vector to the boids in flock 2 that accelerates them toward the
+		// prey was found above
 		// NOTE: the vector must be quite large
 		if (flockID == 2) {
-			if (preyBoid != null) {
-				PVector toPrey = PVector.sub(preyBoid.location, location);
-				toPrey.mult(10.0f);
-				acceleration.add(toPrey);
+			if (preyIndex >= 0) {
+				addToward(acceleration, preyFlock.store, preyIndex, x, y, z, 10.0f);
 			}
 		}
 
 
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
+
+		// velocity scale from Max
+		// scale up leader boid velocity
+		//		if (MusicSwarm.timeStep > startStep && MusicSwarm.timeStep < endStep && boidID == 0)
+		//			scaleNextVelocity(2.0f);
+		//		else
+		scaleNextVelocity(0.5f);
+
+	}
+
+
+	// the standard rules, but how strongly the Boid separates from, coheres with, and aligns with
+	// each neighbor, and how far away a neighbor can be, depend on the pair of Flocks (see
+	// FlockInteractions); with the default entries (all 1), the same as calcNewVelocityStandard
+	void calcNewVelocityInteractions(Flock[] allFlocks, Neighborhood neighborhood) {
+
+		// this Boid's location
+		float x = store.x[index], y = store.y[index], z = store.z[index];
+
+		// the neighbors in all the Flocks, weighted by how this Boid's Flock reacts to theirs
+		neighborhood.gatherInteractions(flockID, index, x, y, z, store.neighborRadius.get(index), world.interactions);
+
+		// the new acceleration
+		Vector3 acceleration = zero(neighborhood.acceleration);
+
+		// separation
+		addWeighted(acceleration, neighborhood.weightedSeparation, store.separationWeight.get(index));
+
+		// cohesion and alignment, over the neighbors in the Flocks this Boid's Flock coheres (aligns) with
+		if (neighborhood.numCohesionNeighbors > 0)
+			addWeightedSteering(acceleration, neighborhood.weightedLocations, neighborhood.cohesionWeights,
+					neighborhood.numCohesionNeighbors, x, y, z, store.cohesionWeight.get(index));
+		if (neighborhood.numAlignmentNeighbors > 0)
+			addWeightedSteering(acceleration, neighborhood.weightedVelocities, neighborhood.alignmentWeights,
+					neighborhood.numAlignmentNeighbors, store.vx[index], store.vy[index], store.vz[index],
+					store.alignmentWeight.get(index));
+
+		// random motion, speed limits, pacekeeping, and boundaries
+		updateNextVelocity(acceleration);
+
+		// velocity scale from Max
+		scaleNextVelocity(store.velocityScale.get(index));
+	}
+
+
+	// reset the scratch vector for the acceleration
+	private static Vector3 zero(Vector3 v) {
+		v.set(0.0f, 0.0f, 0.0f);
+		return v;
+	}
+
+	// add weight * vector to the acceleration
+	private static void addWeighted(Vector3 acceleration, Vector3 vector, float weight) {
+
+		acceleration.add(vector.x * weight, vector.y * weight, vector.z * weight);
+	}
+
+	// steering used for cohesion and alignment: accelerate toward the average of the neighbors'
+	// locations (or velocities), i.e. add weight * (sum / numNeighbors - own) to the acceleration
+	private static void addSteering(Vector3 acceleration, Vector3 sum, int numNeighbors,
+			float ownX, float ownY, float ownZ, float weight) {
+
+		acceleration.add((sum.x / numNeighbors - ownX) * weight,
+				(sum.y / numNeighbors - ownY) * weight,
+				(sum.z / numNeighbors - ownZ) * weight);
+	}
+
+	// steering with weighted neighbors: the average of (neighbor weight * (neighbor - own)), i.e.
+	// (weighted sum - own * sum of the weights) / numNeighbors, times weight
+	// (the same as addSteering when every neighbor weight is 1)
+	private static void addWeightedSteering(Vector3 acceleration, Vector3 weightedSum, float sumOfWeights,
+			float numNeighbors, float ownX, float ownY, float ownZ, float weight) {
+
+		float ownWeight = sumOfWeights / numNeighbors;
+		acceleration.add((weightedSum.x / numNeighbors - ownX * ownWeight) * weight,
+				(weightedSum.y / numNeighbors - ownY * ownWeight) * weight,
+				(weightedSum.z / numNeighbors - ownZ * ownWeight) * weight);
+	}
+
+	// a random float in [0, 1) from the Boid's own stream
+	private float nextFloat() {
+		return SwarmWorld.nextFloat(random);
+	}
+
+
+	// accelerate toward the location of another Boid
+	private void addToward(Vector3 acceleration, BoidStore targetStore, int targetIndex, float x, float y, float z, float weight) {
+
+		acceleration.add((targetStore.x[targetIndex] - x) * weight,
+				(targetStore.y[targetIndex] - y) * weight,
+				(targetStore.z[targetIndex] - z) * weight);
+	}
+
+
+	// the part of the velocity update that is the same for every flavor of calcNewVelocity:
+	// add the acceleration (and possibly a random component) and wind to the next velocity,
+	// then apply the speed limit, pacekeeping, and bouncing back from the boundaries
+	private void updateNextVelocity(Vector3 acceleration) {
+
+		float maxSpeed = store.maxSpeed.get(index);
+		float normalSpeed = store.normalSpeed.get(index);
+		float pacekeepingWeight = store.pacekeepingWeight.get(index);
+
 		// with the probability specified by the parameter randomMotionProbability, introduce a small
-		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each 
+		// random perturbation (magnitude defined by RANDOM_MOTION_DIMENSION_MAGNITUDE) into each
 		// acceleration component
-		if (MusicSwarm.rand.nextFloat() < randomMotionProbability) {
-			acceleration.add(new PVector(MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE, 
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
-					MusicSwarm.rand.nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE));
-		} 
+		if (nextFloat() < store.randomMotionProbability.get(index)) {
+			acceleration.add(nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
+					nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE,
+					nextFloat() * (2.0f * RANDOM_MOTION_DIMENSION_MAGNITUDE) - RANDOM_MOTION_DIMENSION_MAGNITUDE);
+		}
 
 		// update velocity
-		nextVelocity.add(acceleration);
+		float nextVx = store.vx[index] + acceleration.x;
+		float nextVy = store.vy[index] + acceleration.y;
+		float nextVz = store.vz[index] + acceleration.z;
 
 		// add wind
-		nextVelocity.add(MusicSwarm.windVector);
+		nextVx += world.windX;
+		nextVy += world.windY;
+		nextVz += world.windZ;
 
 		// make sure we don't exceed maxSpeed
-		if (nextVelocity.mag() > maxSpeed) {
-			float normalizationFactor = maxSpeed / nextVelocity.mag();
-			nextVelocity.mult(normalizationFactor);
+		float speed = (float) Math.sqrt(nextVx*nextVx + nextVy*nextVy + nextVz*nextVz);
+		if (speed > maxSpeed) {
+			float normalizationFactor = maxSpeed / speed;
+			nextVx *= normalizationFactor;
+			nextVy *= normalizationFactor;
+			nextVz *= normalizationFactor;
+			speed = (float) Math.sqrt(nextVx*nextVx + nextVy*nextVy + nextVz*nextVz);
 		}
 
 		// pacekeeping (stick to normalSpeed to the extent indicated by pacekeepingWeight)
-		PVector pacekeeping = 
-			PVector.mult(nextVelocity, ((normalSpeed - nextVelocity.mag()) / nextVelocity.mag() * pacekeepingWeight));
-		nextVelocity.add(pacekeeping);
+		float pacekeeping = (normalSpeed - speed) / speed * pacekeepingWeight;
+		nextVx += nextVx * pacekeeping;
+		nextVy += nextVy * pacekeeping;
+		nextVz += nextVz * pacekeeping;
 
 		// bounce back from the boundaries of the space
-		PVector boundaryAcc = new PVector(0,0,0);
-		if (location.x < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)         
-			boundaryAcc.x = maxSpeed;	
-		else if (location.x > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.x = -maxSpeed;
-		if (location.y < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.y = maxSpeed;	
-		else if (location.y > MusicSwarm.WINDOW_HEIGHT/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.y = -maxSpeed;	  
-		if (location.z < (-MusicSwarm.WINDOW_HEIGHT/2) + BOUDARY_SENSING_THRESHOLD)
-			boundaryAcc.z = maxSpeed;	
-		else if (location.z > MusicSwarm.WINDOW_DEPTH/2 - BOUDARY_SENSING_THRESHOLD) 
-			boundaryAcc.z = -maxSpeed;	     
-		nextVelocity.add(boundaryAcc);     
-
-		// velocity scale from Max
-		// scale up leader boid velocity
-		//		if (MusicSwarm.timeStep > startStep && MusicSwarm.timeStep < endStep && boidID == 0)
-		//			nextVelocity.mult(2.0f);     
-		//		else
-		nextVelocity.mult(0.5f);     
+		float x = store.x[index], y = store.y[index], z = store.z[index];
+		if (x < (-world.width/2) + BOUDARY_SENSING_THRESHOLD)
+			nextVx += maxSpeed;
+		else if (x > world.width/2 - BOUDARY_SENSING_THRESHOLD)
+			nextVx += -maxSpeed;
+		if (y < (-world.height/2) + BOUDARY_SENSING_THRESHOLD)
+			nextVy += maxSpeed;
+		else if (y > world.height/2 - BOUDARY_SENSING_THRESHOLD)
+			nextVy += -maxSpeed;
+		if (z < (-world.depth/2) + BOUDARY_SENSING_THRESHOLD)
+			nextVz += maxSpeed;
+		else if (z > world.depth/2 - BOUDARY_SENSING_THRESHOLD)
+			nextVz += -maxSpeed;
+
+		store.nextVx[index] = nextVx;
+		store.nextVy[index] = nextVy;
+		store.nextVz[index] = nextVz;
+	}
 
+	private void scaleNextVelocity(float scale) {
+		store.nextVx[index] *= scale;
+		store.nextVy[index] *= scale;
+		store.nextVz[index] *= scale;
 	}
 
-	// draw a line between two boids;
-	// the method is called in the calcNewVelocity method(s),
-	// but only if the two boids are in the same neighborhood and in ths same flock
-	void connectBoids(Boid otherBoid) {
-
-		PVector otherBoidLocation;
-		if (MusicSwarm.CONNECTED_COMPONENTS) {
-			otherBoidLocation = otherBoid.location;
-			if (MusicSwarm.renderMethod == MusicSwarm.RENDER_3D) {
-				parent.line(location.x,location.y, location.z, otherBoidLocation.x,otherBoidLocation.y, otherBoidLocation.z);
-				parent.stroke(MusicSwarm.FLOCKCOLOR[flockID][0],MusicSwarm.FLOCKCOLOR[flockID][1],MusicSwarm.FLOCKCOLOR[flockID][2]);	
-			}
-			if (MusicSwarm.renderMethod == MusicSwarm.RENDER_2D) {
-				parent.line(location.x,location.y, otherBoidLocation.x,otherBoidLocation.y);
-				parent.stroke(MusicSwarm.FLOCKCOLOR[flockID][0],MusicSwarm.FLOCKCOLOR[flockID][1],MusicSwarm.FLOCKCOLOR[flockID][2]);	
-			}
+
+	// find this Boid's prey, and return its index in the store of preyFlock (-1 if there is no prey);
+	// the Boid keeps the same prey for as long as the prey is there, and only looks for a new one
+	// when the prey is gone (it was removed, or its Flock was destroyed): the Boid with ID myPreyID
+	// (in the Flock with the highest ID that has one); if no Flock has that Boid, there is no prey
+	private int findPrey(Flock[] allFlocks) {
+
+		// the prey from before, if it is still there (its Flock is still in this time step)
+		if (preyFlock != null && isTakingPart(preyFlock, allFlocks)) {
+			int preyIndex = preyFlock.store.indexOf(preyHandle);
+			if (preyIndex >= 0)
+				return preyIndex;
+		}
+
+		// the Boid with ID myPreyID
+		for (int nextFlock = allFlocks.length - 1 ; nextFlock >= 0 ; nextFlock--) {
+			int preyIndex = allFlocks[nextFlock].store.indexOfID(myPreyID);
+			if (preyIndex >= 0)
+				return keepPrey(allFlocks[nextFlock], preyIndex);
 		}
+
+		preyFlock = null;
+		preyHandle = BoidStore.NO_HANDLE;
+		return -1;
 	}
 
+	// is the given Flock one of the Flocks of this time step? (a Flock that has been destroyed
+	// isn't, even if its Boids are still in its store)
+	private static boolean isTakingPart(Flock flock, Flock[] allFlocks) {
 
+		for (int nextFlock = 0 ; nextFlock < allFlocks.length ; nextFlock++) {
+			if (allFlocks[nextFlock] == flock)
+				return true;
+		}
+		return false;
+	}
 
+	private int keepPrey(Flock flock, int preyIndex) {
+
+		preyFlock = flock;
+		preyHandle = flock.store.handle(preyIndex);
+		return preyIndex;
+	}
 
 //	// analyze flock statistics; has been moved to Flock class (05/20/13)
 //	void flockAnalysis(Flock thisFlock){
@@ -1343,232 +897,179 @@ public class Boid {
 
 
 
-	// redraw the boid
-	void render() {
-
-		if (MusicSwarm.renderMethod == MusicSwarm.RENDER_2D) {
-			// Draw a triangle rotated in the direction of velocity
-			float theta = velocity.heading2D() + (float) Math.PI/2;
-			parent.noStroke();
-			parent.fill(MusicSwarm.FLOCKCOLOR[flockID][0], MusicSwarm.FLOCKCOLOR[flockID][1], MusicSwarm.FLOCKCOLOR[flockID][2], MusicSwarm.B_ALPHA);
-			parent.pushMatrix();
-			parent.translate(location.x, location.y);
-			parent.rotate(theta);
-			parent.beginShape(PConstants.TRIANGLES);
-			parent.vertex(0, -MusicSwarm.BOID_SIZE*2);
-			parent.vertex(-MusicSwarm.BOID_SIZE, MusicSwarm.BOID_SIZE*2);
-			parent.vertex(MusicSwarm.BOID_SIZE, MusicSwarm.BOID_SIZE*2);
-			parent.endShape();
-			parent.popMatrix();
-		}
-
-		//3d render
-		else if (MusicSwarm.renderMethod == MusicSwarm.RENDER_3D) {
-			parent.pushMatrix();
-			parent.translate(location.x,location.y,location.z);
-			parent.rotateY(PApplet.atan2(-velocity.z,velocity.x));
-			parent.rotateZ(PApplet.asin(velocity.y/velocity.mag()));
-			parent.noStroke();
-			parent.fill(MusicSwarm.FLOCKCOLOR[flockID][0], MusicSwarm.FLOCKCOLOR[flockID][1], MusicSwarm.FLOCKCOLOR[flockID][2], MusicSwarm.B_ALPHA);
-
-			//drawing boids
-			parent.beginShape(PConstants.TRIANGLES);
-
-			parent.vertex(3*MusicSwarm.BOID_SIZE,0,0);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,2*MusicSwarm.BOID_SIZE,0);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,-2*MusicSwarm.BOID_SIZE,0);
-
-			parent.vertex(3*MusicSwarm.BOID_SIZE,0,0);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,2*MusicSwarm.BOID_SIZE,0);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,0,2*MusicSwarm.BOID_SIZE);
-
-			parent.vertex(3*MusicSwarm.BOID_SIZE,0,0);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,0,2*MusicSwarm.BOID_SIZE);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,-2*MusicSwarm.BOID_SIZE,0);
-
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,0,2*MusicSwarm.BOID_SIZE);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,2*MusicSwarm.BOID_SIZE,0);
-			parent.vertex(-3*MusicSwarm.BOID_SIZE,-2*MusicSwarm.BOID_SIZE,0);
-
-			parent.endShape();
-			parent.popMatrix();
-		}
-
-	}
-
-	
 	// print current parameters of this boid
 	public void printParameters() {
 
 		System.out.printf("               ms = %4.1f ns = %4.1f nr = %5.1f se = %5.1f al = %3.1f  co = %3.1f pk = %3.1f rm = %3.1f\n", 
-				maxSpeed,             
-				normalSpeed,
-				neighborRadius,        
-				separationWeight,
-				alignmentWeight,
-				cohesionWeight,
-				pacekeepingWeight,
-				randomMotionProbability);
+				store.maxSpeed.get(index),             
+				store.normalSpeed.get(index),
+				store.neighborRadius.get(index),        
+				store.separationWeight.get(index),
+				store.alignmentWeight.get(index),
+				store.cohesionWeight.get(index),
+				store.pacekeepingWeight.get(index),
+				store.randomMotionProbability.get(index));
 
 	}
 
 
 	// getters
 	
-	public PVector getLocation() {
-		return location;
+	// NOTE: the location and velocity are copies; use setLocation to move the Boid
+	public Vector3 getLocation() {
+		return new Vector3(store.x[index], store.y[index], store.z[index]);
 	}
 
-	public PVector getVelocity() {
-		return velocity;
+	public Vector3 getVelocity() {
+		return new Vector3(store.vx[index], store.vy[index], store.vz[index]);
 	}
 	
 	public int getAge() {
-		return age;
+		return store.age[index];
+	}
+
+	public int getBoidID() {
+		return store.boidID[index];
+	}
+
+	public int getFlockID() {
+		return flockID;
 	}
 
 	// setters
 	
 	void set(int ID, float val) {
+		if (ID < 0 || ID >= MIN_VALUES.length)
+			return;
+		val = limit(ID, val, store, index);
 		switch(ID) {
 		case 0:
-			if(val > 0.1) this.velocityScale = 0.1f;
-			else if(val < 0) this.velocityScale = 0f;
-			else this.velocityScale = val;
+			store.velocityScale.set(index, val);
 			break;
 		case 1:
-			if(val > 10) this.maxSpeed = 10;
-			else if( val < 2) this.maxSpeed = 2;
-			else this.maxSpeed = val;
+			store.maxSpeed.set(index, val);
 			break;
 		case 2:
-			if(val > maxSpeed) this.normalSpeed = maxSpeed;
-			else if (val < 1) this.normalSpeed = 1;
-			else this.normalSpeed = val;
+			store.normalSpeed.set(index, val);
 			break;
 		case 3:
-			if(val > 100) this.neighborRadius = 100;
-			else if(val < 10) this.neighborRadius = 10;
-			else this.neighborRadius = val;
+			store.neighborRadius.set(index, val);
 			break;
 		case 4:
-			if(val > 100) this.separationWeight = 100;
-			else if(val < 0) this.separationWeight = 0;
-			else this.separationWeight = val;
+			store.separationWeight.set(index, val);
 			break;
 		case 5:
-			if(val > 1) this.alignmentWeight = 1;
-			else if (val < 0) this.alignmentWeight = 0;
-			else this.alignmentWeight = val;
+			store.alignmentWeight.set(index, val);
 			break;
 		case 6:
-			if(val > 1) this.cohesionWeight = 1;
-			else if(val < 0) this.cohesionWeight = 0;
-			else this.cohesionWeight = val;
+			store.cohesionWeight.set(index, val);
 			break;
 		case 7:
-			if(val > 1) this.pacekeepingWeight = 1;
-			else if(val < 0) this.pacekeepingWeight = 0;
-			else this.pacekeepingWeight = val;
+			store.pacekeepingWeight.set(index, val);
 			break;
 		case 8:
-			if(val > 0.5) this.randomMotionProbability = 0.5f;
-			else if(val < 0) this.randomMotionProbability = 0;
-			else this.randomMotionProbability = val;
+			store.randomMotionProbability.set(index, val);
 			break;
 		case 9:
-			this.numNeighborsOwnFlock = val;
+			store.numNeighborsOwnFlock[index] = val;
 			break;
 		case 10:
-			this.numNeighborsAllFlocks = val;
+			store.numNeighborsAllFlocks[index] = val;
 			break;
 		}
 	}
+
+	// the value the property with the given ID is set to, for the Boid at the given index: val, within
+	// the property's limits (see MIN_VALUES and MAX_VALUES)
+	static float limit(int ID, float val, BoidStore store, int index) {
+		float max = (ID == 2) ? Math.min(MAX_VALUES[2], store.maxSpeed.get(index)) : MAX_VALUES[ID];
+		if (val > max) return max;
+		else if (val < MIN_VALUES[ID]) return MIN_VALUES[ID];
+		else return val;
+	}
 	
-	void setLocation(PVector location){   
-		this.location = location.get();
+	void setLocation(Vector3 location){   
+		store.x[index] = location.x;
+		store.y[index] = location.y;
+		store.z[index] = location.z;
 	}
 	
 	public float getMaxSpeed() {
-		return maxSpeed;
+		return store.maxSpeed.get(index);
 	}
 	public float getNormalSpeed() {
-		return normalSpeed;
+		return store.normalSpeed.get(index);
 	}
 	public float getNeighborRadius() {
-		return neighborRadius;
+		return store.neighborRadius.get(index);
 	}
 	public float getCohesionWeight() {
-		return cohesionWeight;
+		return store.cohesionWeight.get(index);
 	}
 	public float getVelocityScale() {
-		return velocityScale;
+		return store.velocityScale.get(index);
 	}
 	public float getSeparationWeight() {
-		return separationWeight;
+		return store.separationWeight.get(index);
 	}
 	public float getAlignmentWeight() {
-		return alignmentWeight;
+		return store.alignmentWeight.get(index);
 	}
 	public float getPacekeepingWeight() {
-		return pacekeepingWeight;
+		return store.pacekeepingWeight.get(index);
 	}
 	public float getRandomMotionProbability() {
-		return randomMotionProbability;
+		return store.randomMotionProbability.get(index);
 	}
 	public float getProximityThreshold() {
-		return proximityThreshold;
+		return store.proximityThreshold.get(index);
 	}
 	public float getNumNeighborsOwnFlock() {
-		return numNeighborsOwnFlock;
+		return store.numNeighborsOwnFlock[index];
 	}
 	public float getNumNeighborsAllFlock() {
-		return numNeighborsAllFlocks;
+		return store.numNeighborsAllFlocks[index];
 	}
 	
 	// setters
-	void setBehavior(Behavior b){    
-		this.b = b;
-	}
-	
 	void setVelocityScale(float velocityScale){    
-		this.velocityScale = velocityScale;
+		store.velocityScale.set(index, velocityScale);
 	}
 
 	void setMaxSpeed(float maxSpeed){    
-		this.maxSpeed = maxSpeed;  
+		store.maxSpeed.set(index, maxSpeed);  
 	}  
 
 	void setNormalSpeed(float normalSpeed){    
-		this.normalSpeed = normalSpeed;  
+		store.normalSpeed.set(index, normalSpeed);  
 	}
 
 	void setNeighborRadius(float neighborRadius){   
-		this.neighborRadius = neighborRadius;
+		store.neighborRadius.set(index, neighborRadius);
 	}
 
 	void setSeparationWeight(float separationWeight){    
-		this.separationWeight = separationWeight;
+		store.separationWeight.set(index, separationWeight);
 	}
 
 	void setAlignWeight(float alignWeight){    
-		this.alignmentWeight = alignWeight;
+		store.alignmentWeight.set(index, alignWeight);
 	}
 
 	void setCohesionWeight(float cohesionWeight){    
-		this.cohesionWeight = cohesionWeight;
+		store.cohesionWeight.set(index, cohesionWeight);
 	}
 
 	void setPacekeepingWeight(float pacekeepingWeight){    
-		this.pacekeepingWeight = pacekeepingWeight;
+		store.pacekeepingWeight.set(index, pacekeepingWeight);
 	}
 
 	void setRandomMotionProbability(float randomMotionProbability){    
-		this.randomMotionProbability = randomMotionProbability;
+		store.randomMotionProbability.set(index, randomMotionProbability);
 	}
 
 	void setProximityThresehold(int proximityThreshold){
-		this.proximityThreshold = proximityThreshold;
+		store.proximityThreshold.set(index, proximityThreshold);
 	}
 	
 }
@@ -0,0 +1,400 @@
+/*
+ *
+ * Storage for the Boids in a Flock, as a structure of arrays:
+ * the state of the Boid at index i is x[i], y[i], z[i], vx[i], ...
+ *
+ * Keeping each quantity in its own primitive array (rather than in a Boid object with three
+ * PVectors) means that the loops over all the Boids in a Flock, and over all the neighbors of
+ * a Boid, read memory sequentially instead of following pointers to objects all over the heap
+ *
+ * A Boid object is just a view of one index in the store (see Boid)
+ *
+ * A Boid's index changes when another Boid is removed (the last Boid takes its place), but its ID
+ * doesn't: the store hands out the IDs (an ID that was given up is given out again before a new
+ * one, so the IDs stay small), and keeps the index of the Boid with each ID, so a Boid can be found
+ * by its ID without looking through the Boids; a handle (the ID and how many Boids have had the ID
+ * before) stands for one particular Boid, so anything that keeps a Boid (e.g. a predator and its
+ * prey) can tell when that Boid is gone, even if another Boid has the ID by then
+ *
+ * The parameters of the Boids (maxSpeed, ...) are kept differently (see Parameter): the Flock
+ * has one value of each parameter that all of its Boids share, and a Boid only gets a value of its
+ * own when something (e.g. a Behavior) sets that parameter for just that Boid; when the Flock's
+ * value is changed (e.g. by Max), it replaces the values that were set for single Boids before
+ * then, as it did when it was written into every Boid, but without going through the Boids
+ *
+ */
+
+// data structures for the store
+import java.util.Arrays;
+
+
+public class BoidStore {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// a handle that stands for no Boid
+	static final long NO_HANDLE = -1L;
+
+	// the Flock these Boids belong to
+	final int flockID;
+
+	// number of Boids in the store; entries at index >= size are unused
+	int size = 0;
+
+	// number of times a Boid has been added or removed, so anything that keeps Boids by
+	// index can tell when the indices might have changed (see NeighborLists)
+	int modifications = 0;
+
+	// the current time step (set by the Flock at the start of every time step), so the
+	// parameters can tell which values were set last (see Parameter)
+	int timeStep = 0;
+
+	// IDs and ages of the Boids
+	int[] boidID;
+	int[] age;
+
+	// by ID: the index of the Boid with the ID (-1 if no Boid has it), and how many Boids have had
+	// the ID and been removed (the generation of the ID)
+	private int[] indexOfID = new int[0];
+	private int[] generationOfID = new int[0];
+	// the IDs that have been given up, to be given out again (the last one first); and the
+	// lowest ID that has never been given out
+	private int[] freeIDs = new int[0];
+	private int numFreeIDs = 0;
+	private int nextID = 0;
+	// a number no other Boid in the world has had (see SwarmWorld.newBoidSerial), so a Boid can be
+	// told apart from a Boid that later gets its index or its ID (set by the Flock when it adds the Boid)
+	int[] serial;
+
+	// location and velocity of the Boids at the start of the current time step
+	float[] x;
+	float[] y;
+	float[] z;
+	float[] vx;
+	float[] vy;
+	float[] vz;
+
+	// location and velocity of the Boids at the start of the next time step; these are
+	// calculated from the arrays above (which aren't changed while that's being done),
+	// and swapped with them once every Boid's next location and velocity is known;
+	// so between time steps, these are where the Boids were (and how they were moving)
+	// before they last moved, which the renderer uses to draw the Boids between the two
+	float[] nextX;
+	float[] nextY;
+	float[] nextZ;
+	float[] nextVx;
+	float[] nextVy;
+	float[] nextVz;
+
+	// Boid parameters (see Flock for what they do)
+	final Parameter velocityScale = new Parameter();
+	final Parameter maxSpeed = new Parameter();
+	final Parameter normalSpeed = new Parameter();
+	final Parameter neighborRadius = new Parameter();
+	final Parameter separationWeight = new Parameter();
+	final Parameter alignmentWeight = new Parameter();
+	final Parameter cohesionWeight = new Parameter();
+	final Parameter pacekeepingWeight = new Parameter();
+	final Parameter randomMotionProbability = new Parameter();
+	final Parameter proximityThreshold = new Parameter();
+
+	// what the Boids saw in the last time step
+	float[] numNeighborsOwnFlock;
+	float[] numNeighborsAllFlocks;
+
+
+	// constructor
+	BoidStore(int flockID, int capacity) {
+
+		this.flockID = flockID;
+		allocate(Math.max(capacity, INITIAL_CAPACITY));
+	}
+
+
+	// add a Boid at the end of the store, with the Flock's parameters and an ID that no other Boid
+	// in the store has; returns its index
+	int add(float locationX, float locationY, float locationZ,
+			float velocityX, float velocityY, float velocityZ) {
+
+		if (size == x.length)
+			allocate(2 * x.length);
+
+		int i = size++;
+		++modifications;
+		int id = newID();
+		this.boidID[i] = id;
+		indexOfID[id] = i;
+		this.age[i] = 0;
+		this.x[i] = locationX;
+		this.y[i] = locationY;
+		this.z[i] = locationZ;
+		this.vx[i] = velocityX;
+		this.vy[i] = velocityY;
+		this.vz[i] = velocityZ;
+		this.nextX[i] = locationX;
+		this.nextY[i] = locationY;
+		this.nextZ[i] = locationZ;
+		this.nextVx[i] = velocityX;
+		this.nextVy[i] = velocityY;
+		this.nextVz[i] = velocityZ;
+		velocityScale.clear(i);
+		maxSpeed.clear(i);
+		normalSpeed.clear(i);
+		neighborRadius.clear(i);
+		separationWeight.clear(i);
+		alignmentWeight.clear(i);
+		cohesionWeight.clear(i);
+		pacekeepingWeight.clear(i);
+		randomMotionProbability.clear(i);
+		proximityThreshold.clear(i);
+		this.numNeighborsOwnFlock[i] = 0;
+		this.numNeighborsAllFlocks[i] = 0;
+		return i;
+	}
+
+
+	// remove the Boid at the given index; the last Boid moves into its place (so removing a Boid
+	// takes the same time however many Boids there are, and nothing else moves)
+	void remove(int index) {
+
+		int last = size - 1;
+		freeID(boidID[index]);
+		if (index != last) {
+			boidID[index] = boidID[last];
+			indexOfID[boidID[index]] = index;
+			age[index] = age[last];
+			serial[index] = serial[last];
+			x[index] = x[last];
+			y[index] = y[last];
+			z[index] = z[last];
+			vx[index] = vx[last];
+			vy[index] = vy[last];
+			vz[index] = vz[last];
+			nextX[index] = nextX[last];
+			nextY[index] = nextY[last];
+			nextZ[index] = nextZ[last];
+			nextVx[index] = nextVx[last];
+			nextVy[index] = nextVy[last];
+			nextVz[index] = nextVz[last];
+			numNeighborsOwnFlock[index] = numNeighborsOwnFlock[last];
+			velocityScale.move(last, index);
+			maxSpeed.move(last, index);
+			normalSpeed.move(last, index);
+			neighborRadius.move(last, index);
+			separationWeight.move(last, index);
+			alignmentWeight.move(last, index);
+			cohesionWeight.move(last, index);
+			pacekeepingWeight.move(last, index);
+			randomMotionProbability.move(last, index);
+			proximityThreshold.move(last, index);
+			numNeighborsAllFlocks[index] = numNeighborsAllFlocks[last];
+		}
+		--size;
+		++modifications;
+	}
+
+
+	// the index of the Boid with the given ID, or -1 if no Boid has it
+	int indexOfID(int id) {
+		return id >= 0 && id < nextID ? indexOfID[id] : -1;
+	}
+
+	// the handle of the Boid at the given index: its ID (low 32 bits) and the generation of the ID
+	long handle(int index) {
+
+		int id = boidID[index];
+		return ((long) generationOfID[id] << 32) | id;
+	}
+
+	// the index of the Boid with the given handle, or -1 if the Boid is gone (it has been removed,
+	// even if another Boid has its ID now)
+	int indexOf(long handle) {
+
+		if (handle == NO_HANDLE)
+			return -1;
+		int id = (int) handle;
+		if (id < 0 || id >= nextID || generationOfID[id] != (int) (handle >>> 32))
+			return -1;
+		return indexOfID[id];
+	}
+
+
+	// an ID for a new Boid: the last one that was given up, or else a new one
+	private int newID() {
+
+		if (numFreeIDs > 0)
+			return freeIDs[--numFreeIDs];
+
+		if (nextID == indexOfID.length) {
+			int newLength = Math.max(2 * nextID, INITIAL_CAPACITY);
+			indexOfID = Arrays.copyOf(indexOfID, newLength);
+			generationOfID = Arrays.copyOf(generationOfID, newLength);
+			freeIDs = Arrays.copyOf(freeIDs, newLength);
+		}
+		return nextID++;
+	}
+
+	// the Boid with the given ID has been removed; the ID can be given out again, in its next generation
+	private void freeID(int id) {
+
+		indexOfID[id] = -1;
+		++generationOfID[id];
+		freeIDs[numFreeIDs++] = id;
+	}
+
+
+	// the next locations and velocities become the current ones (for every Boid at once);
+	// the old current arrays are reused for the locations and velocities after that
+	void swapBuffers() {
+
+		float[] swap;
+		swap = x; x = nextX; nextX = swap;
+		swap = y; y = nextY; nextY = swap;
+		swap = z; z = nextZ; nextZ = swap;
+		swap = vx; vx = nextVx; nextVx = swap;
+		swap = vy; vy = nextVy; nextVy = swap;
+		swap = vz; vz = nextVz; nextVz = swap;
+	}
+
+
+	// (re)allocate all the arrays with the given capacity, keeping the current Boids
+	private void allocate(int capacity) {
+
+		boidID = grow(boidID, capacity);
+		age = grow(age, capacity);
+		serial = grow(serial, capacity);
+		x = grow(x, capacity);
+		y = grow(y, capacity);
+		z = grow(z, capacity);
+		vx = grow(vx, capacity);
+		vy = grow(vy, capacity);
+		vz = grow(vz, capacity);
+		nextX = grow(nextX, capacity);
+		nextY = grow(nextY, capacity);
+		nextZ = grow(nextZ, capacity);
+		nextVx = grow(nextVx, capacity);
+		nextVy = grow(nextVy, capacity);
+		nextVz = grow(nextVz, capacity);
+		numNeighborsOwnFlock = grow(numNeighborsOwnFlock, capacity);
+		numNeighborsAllFlocks = grow(numNeighborsAllFlocks, capacity);
+		velocityScale.grow(capacity);
+		maxSpeed.grow(capacity);
+		normalSpeed.grow(capacity);
+		neighborRadius.grow(capacity);
+		separationWeight.grow(capacity);
+		alignmentWeight.grow(capacity);
+		cohesionWeight.grow(capacity);
+		pacekeepingWeight.grow(capacity);
+		randomMotionProbability.grow(capacity);
+		proximityThreshold.grow(capacity);
+	}
+
+	// a parameter of the Boids: the value the Flock's Boids share, and the values that have been
+	// set for single Boids (if any); a value set for a single Boid is its value until the shared
+	// value is changed, and the time steps when they were set tell which was set last
+	// NOTE: the shared value is only changed between time steps, on the thread that runs them,
+	// and so are the Boids that are in the store; during a time step, the value of each Boid is
+	// only set by the thread that runs that Boid, so nothing needs to be locked, except when the
+	// first value is set for a single Boid (see set)
+	class Parameter {
+
+		// the Flock's value, and the time step when it was set
+		private float shared;
+		private int sharedStep = 0;
+
+		// the values set for single Boids, or null if none have been set
+		private Overrides overrides = null;
+
+		// the value for the Boid at the given index
+		float get(int index) {
+			Overrides o = overrides;
+			return o != null && o.steps[index] >= sharedStep ? o.values[index] : shared;
+		}
+
+		// set the value for the Boid at the given index only
+		void set(int index, float value) {
+			Overrides o = overrides;
+			if (o == null)
+				o = createOverrides();
+			o.values[index] = value;
+			o.steps[index] = timeStep;
+		}
+
+		// the Flock's value
+		float getShared() {
+			return shared;
+		}
+
+		// set the Flock's value, which all the Boids then have
+		void share(float value) {
+			shared = value;
+			sharedStep = timeStep;
+		}
+
+		// does any Boid have a value of its own (other than the Flock's)?
+		boolean anyOverridden() {
+			Overrides o = overrides;
+			if (o != null) {
+				for (int i = 0; i < size; i++) {
+					if (o.steps[i] >= sharedStep && o.values[i] != shared)
+						return true;
+				}
+			}
+			return false;
+		}
+
+		// the Boid at the given index has the Flock's value (e.g. because it was just added)
+		private void clear(int index) {
+			Overrides o = overrides;
+			if (o != null)
+				o.steps[index] = Overrides.NONE;
+		}
+
+		// the Boid at index from moves to index to
+		private void move(int from, int to) {
+			Overrides o = overrides;
+			if (o != null) {
+				o.values[to] = o.values[from];
+				o.steps[to] = o.steps[from];
+			}
+		}
+
+		private void grow(int capacity) {
+			Overrides o = overrides;
+			if (o != null)
+				overrides = new Overrides(o, capacity);
+		}
+
+		// the first value set for a single Boid; more than one thread can get here at the same time
+		private synchronized Overrides createOverrides() {
+			if (overrides == null)
+				overrides = new Overrides(null, x.length);
+			return overrides;
+		}
+	}
+
+	// the values of a parameter that were set for single Boids, and the time steps when they were
+	// set; the arrays are never replaced, so a thread that sees an Overrides sees both of them
+	private static class Overrides {
+
+		static final int NONE = Integer.MIN_VALUE;
+
+		final float[] values;
+		final int[] steps;
+
+		Overrides(Overrides old, int capacity) {
+			values = old == null ? new float[capacity] : Arrays.copyOf(old.values, capacity);
+			steps = old == null ? new int[capacity] : Arrays.copyOf(old.steps, capacity);
+			Arrays.fill(steps, old == null ? 0 : old.steps.length, capacity, NONE);
+		}
+	}
+
+
+	private static float[] grow(float[] array, int capacity) {
+		return array == null ? new float[capacity] : Arrays.copyOf(array, capacity);
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+	}
+}
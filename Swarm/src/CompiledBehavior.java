@@ -0,0 +1,367 @@
+/*
+ *
+ * A Behavior compiled into a tree of small objects that do exactly what the Behavior does, with
+ * everything that doesn't depend on the Boid worked out once, when the Behavior is compiled:
+ * 	- which property each ID refers to (no switch in varBank or Boid.set)
+ * 	- the constants the properties are compared to (including the Behavior's random values)
+ * 	- comparisons of two constants, which always come out the same way (only one branch is kept)
+ * 	- actions that can't do anything (e.g. on a property the Boid doesn't have), which are dropped
+ * 	- the IDs in the Vectors (no unboxing)
+ * Executing it is then just a comparison, and a sequence of reads and (clamped) writes of the
+ * Boid's entries in its Flock's store, for the Behavior and each of its sub-behaviors in turn
+ *
+ * The compiled form does the same as Behavior.compare/varBank/actionBank and Boid.set, including
+ * their quirks: an action always adds, subtracts, or sets 1 (the number banks aren't used), and
+ * reading property 10 (the number of neighbors in all flocks) gives 1
+ *
+ * Nothing in here keeps any state while it runs, so one CompiledBehavior can be executed for
+ * different Boids on different threads at the same time
+ *
+ */
+
+// for the IDs in the Behavior
+import java.util.Vector;
+
+
+public abstract class CompiledBehavior {
+
+	// execute the Behavior on the Boid at the given index in the store
+	abstract void execute(BoidStore store, int index);
+
+
+	// compile a Behavior (and its sub-behaviors)
+	static CompiledBehavior compile(Behavior behavior) {
+
+		Vector<Behavior> subBehaviors = behavior.getSubBehaviors();
+		CompiledBehavior[] compiledSubBehaviors = new CompiledBehavior[subBehaviors.size()];
+		for (int i = 0; i < compiledSubBehaviors.length; i++)
+			compiledSubBehaviors[i] = compile(subBehaviors.get(i));
+
+		Action[] ifActions = compileActions(behavior.getActionIDs(), behavior.getActionVariableIDs());
+		Action[] elseActions = compileActions(behavior.getNullActionIDs(), behavior.getNullActionVariableIDs());
+
+		// the comparison is between the Boid's value of propertyA, and either the Boid's value of
+		// propertyB or the Behavior's random value for it
+		Operand a = operand(behavior, behavior.getVariableID(), false);
+		Operand b = operand(behavior, behavior.getNextNumID(), behavior.isRandomPropertyB());
+		int comparatorID = behavior.getComparatorID();
+
+		// if neither side depends on the Boid, the comparison always comes out the same way
+		if (a instanceof Constant && b instanceof Constant) {
+			boolean result = compare(comparatorID, ((Constant) a).value, ((Constant) b).value);
+			return new Unconditional(result ? ifActions : elseActions, compiledSubBehaviors);
+		}
+
+		switch (comparatorID) {
+		case 0:
+			return new Conditional(ifActions, elseActions, compiledSubBehaviors, a, b) {
+				boolean test(BoidStore store, int index) {
+					return a.get(store, index) > b.get(store, index);
+				}
+			};
+		case 1:
+			return new Conditional(ifActions, elseActions, compiledSubBehaviors, a, b) {
+				boolean test(BoidStore store, int index) {
+					return a.get(store, index) < b.get(store, index);
+				}
+			};
+		case 2:
+			return new Conditional(ifActions, elseActions, compiledSubBehaviors, a, b) {
+				boolean test(BoidStore store, int index) {
+					return a.get(store, index) == b.get(store, index);
+				}
+			};
+		default:
+			// an unknown comparator is always false
+			return new Unconditional(elseActions, compiledSubBehaviors);
+		}
+	}
+
+
+	// the same comparisons as Behavior.compare
+	private static boolean compare(int comparatorID, float a, float b) {
+
+		switch (comparatorID) {
+		case 0: return a > b;
+		case 1: return a < b;
+		case 2: return a == b;
+		default: return false;
+		}
+	}
+
+
+	// the value of varBank(ID, random): a property of the Boid, or a constant
+	private static Operand operand(Behavior behavior, int ID, boolean random) {
+
+		if (!random && ID >= 0 && ID < NUM_READABLE_PROPERTIES)
+			return PROPERTIES[ID];
+		// varBank doesn't look at the Boid for these
+		return new Constant(behavior.varBank(null, ID, random));
+	}
+
+
+	// the same actions as Behavior.actionBank (always with x = 1, as in Behavior.execute)
+	private static Action[] compileActions(Vector<Integer> actionIDs, Vector<Integer> propertyIDs) {
+
+		final float x = 1;
+		Vector<Action> actions = new Vector<Action>();
+
+		for (int i = 0; i < actionIDs.size(); i++) {
+			int actionID = actionIDs.get(i);
+			int propertyID = propertyIDs.get(i);
+
+			// Boid.set ignores properties it doesn't have
+			if (propertyID < 0 || propertyID >= PROPERTIES.length)
+				continue;
+			final Property property = PROPERTIES[propertyID];
+
+			// reading the number of neighbors in all flocks always gives 1 (see Behavior.varBank),
+			// so adding to it or subtracting from it just sets it
+			if (propertyID >= NUM_READABLE_PROPERTIES) {
+				if (actionID == 0)
+					actions.add(new SetAction(property, 1 + x));
+				else if (actionID == 1)
+					actions.add(new SetAction(property, 1 - x));
+				else if (actionID == 2)
+					actions.add(new SetAction(property, x));
+				continue;
+			}
+
+			switch (actionID) {
+			case 0:
+				actions.add(new Action() {
+					void execute(BoidStore store, int index) {
+						property.set(store, index, property.get(store, index) + x);
+					}
+				});
+				break;
+			case 1:
+				actions.add(new Action() {
+					void execute(BoidStore store, int index) {
+						property.set(store, index, property.get(store, index) - x);
+					}
+				});
+				break;
+			case 2:
+				actions.add(new SetAction(property, x));
+				break;
+			}
+		}
+		return actions.toArray(new Action[actions.size()]);
+	}
+
+
+	// run a list of actions, then the sub-behaviors
+	private static void run(Action[] actions, CompiledBehavior[] subBehaviors, BoidStore store, int index) {
+
+		for (int i = 0; i < actions.length; i++)
+			actions[i].execute(store, index);
+		for (int i = 0; i < subBehaviors.length; i++)
+			subBehaviors[i].execute(store, index);
+	}
+
+
+	// a Behavior whose comparison depends on the Boid
+	private static abstract class Conditional extends CompiledBehavior {
+
+		private final Action[] ifActions;
+		private final Action[] elseActions;
+		private final CompiledBehavior[] subBehaviors;
+		final Operand a;
+		final Operand b;
+
+		Conditional(Action[] ifActions, Action[] elseActions, CompiledBehavior[] subBehaviors, Operand a, Operand b) {
+			this.ifActions = ifActions;
+			this.elseActions = elseActions;
+			this.subBehaviors = subBehaviors;
+			this.a = a;
+			this.b = b;
+		}
+
+		abstract boolean test(BoidStore store, int index);
+
+		void execute(BoidStore store, int index) {
+			run(test(store, index) ? ifActions : elseActions, subBehaviors, store, index);
+		}
+	}
+
+
+	// a Behavior whose comparison always comes out the same way
+	private static class Unconditional extends CompiledBehavior {
+
+		private final Action[] actions;
+		private final CompiledBehavior[] subBehaviors;
+
+		Unconditional(Action[] actions, CompiledBehavior[] subBehaviors) {
+			this.actions = actions;
+			this.subBehaviors = subBehaviors;
+		}
+
+		void execute(BoidStore store, int index) {
+			run(actions, subBehaviors, store, index);
+		}
+	}
+
+
+	// one side of a comparison
+	private static abstract class Operand {
+		abstract float get(BoidStore store, int index);
+	}
+
+	private static class Constant extends Operand {
+
+		final float value;
+
+		Constant(float value) {
+			this.value = value;
+		}
+
+		float get(BoidStore store, int index) {
+			return value;
+		}
+	}
+
+
+	// a change to one of the Boid's properties
+	private static abstract class Action {
+		abstract void execute(BoidStore store, int index);
+	}
+
+	private static class SetAction extends Action {
+
+		private final Property property;
+		private final float value;
+
+		SetAction(Property property, float value) {
+			this.property = property;
+			this.value = value;
+		}
+
+		void execute(BoidStore store, int index) {
+			property.set(store, index, value);
+		}
+	}
+
+
+	// a property of the Boid, which is read from the store, and written to the store within the
+	// limits that Boid.set keeps it in (see Boid.limit)
+	private static abstract class Property extends Operand {
+
+		private final int ID;
+
+		Property(int ID) {
+			this.ID = ID;
+		}
+
+		abstract void put(BoidStore store, int index, float value);
+
+		final void set(BoidStore store, int index, float value) {
+			put(store, index, Boid.limit(ID, value, store, index));
+		}
+	}
+
+	// the properties, by ID (as in Behavior.varBank and Boid.set); only the first
+	// NUM_READABLE_PROPERTIES can be read, i.e. varBank gives their values
+	private static final int NUM_READABLE_PROPERTIES = 10;
+	private static final Property[] PROPERTIES = {
+		// 0
+		new Property(0) {
+			float get(BoidStore store, int index) {
+				return store.velocityScale.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.velocityScale.set(index, val);
+			}
+		},
+		// 1
+		new Property(1) {
+			float get(BoidStore store, int index) {
+				return store.maxSpeed.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.maxSpeed.set(index, val);
+			}
+		},
+		// 2
+		new Property(2) {
+			float get(BoidStore store, int index) {
+				return store.normalSpeed.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.normalSpeed.set(index, val);
+			}
+		},
+		// 3
+		new Property(3) {
+			float get(BoidStore store, int index) {
+				return store.neighborRadius.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.neighborRadius.set(index, val);
+			}
+		},
+		// 4
+		new Property(4) {
+			float get(BoidStore store, int index) {
+				return store.separationWeight.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.separationWeight.set(index, val);
+			}
+		},
+		// 5
+		new Property(5) {
+			float get(BoidStore store, int index) {
+				return store.alignmentWeight.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.alignmentWeight.set(index, val);
+			}
+		},
+		// 6
+		new Property(6) {
+			float get(BoidStore store, int index) {
+				return store.cohesionWeight.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.cohesionWeight.set(index, val);
+			}
+		},
+		// 7
+		new Property(7) {
+			float get(BoidStore store, int index) {
+				return store.pacekeepingWeight.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.pacekeepingWeight.set(index, val);
+			}
+		},
+		// 8
+		new Property(8) {
+			float get(BoidStore store, int index) {
+				return store.randomMotionProbability.get(index);
+			}
+			void put(BoidStore store, int index, float val) {
+				store.randomMotionProbability.set(index, val);
+			}
+		},
+		// 9
+		new Property(9) {
+			float get(BoidStore store, int index) {
+				return store.numNeighborsOwnFlock[index];
+			}
+			void put(BoidStore store, int index, float val) {
+				store.numNeighborsOwnFlock[index] = val;
+			}
+		},
+		// 10 (can only be written)
+		new Property(10) {
+			float get(BoidStore store, int index) {
+				return store.numNeighborsAllFlocks[index];
+			}
+			void put(BoidStore store, int index, float val) {
+				store.numNeighborsAllFlocks[index] = val;
+			}
+		},
+	};
+}
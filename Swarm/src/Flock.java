@@ -7,8 +7,14 @@
  * Each flock is created with either default parameters or randomly generated parameters;
  * note that these parameters can be changed at the individual Boid level, if desired
  * 
+ * The state and parameters of the Boids are kept in a BoidStore (one primitive array per quantity);
+ * the Boid objects in the boids list are views of the entries in the store, in the same order;
+ * when a Boid is removed, the last Boid takes its place (in the store and in the list), and its
+ * view is kept for the next Boid that is created, so Boids can come and go (e.g. with mortality)
+ * without anything being moved around or thrown away
+ * 
  * Methods in this class:
- * 	1) call run method in Boid class to run each boid (update velocity and position, and render)
+ * 	1) run each boid: calculate the next states of all the boids, then move them
  * 	2) change the flock size, when necessary, including removing dead boids (if mortality is being used)
  * 	3) calculate some statistics for the flock and send them to Max
  * 		- calculates mean location and velocity for each flock
@@ -17,25 +23,22 @@
  * 
  */
 
-// Processing classes 
-import processing.core.PApplet;
-import processing.core.PVector;
-
 // data structures for the flock
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Collections;
+// for the changes that Max asks for (from another thread)
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 public class Flock {
 
-	// make the Flock a synchronizedList so we can use this as a way to limit access to the Flocks; 
-	// see the code in the Flock constructor to see how this is done
-	// this is necessary so that the program doesn't crash when Max changes a Flock size in the 
-	// middle of Processing doing something to every Boid in a Flock in a for-loop;
-	// the underlying data structure that actually holds the Boids is an ArrayList
-	private ArrayList<Boid> backingBoids;  
-	public List<Boid> boids;
+	// the Boid views; the Boids' state is in the store (boids.get(i) is the view of index i in the store)
+	// NOTE: the Boids are only ever changed on the thread that runs the time steps, so nothing needs to be locked
+	// while they are run; changes from Max arrive on another thread, so they are queued and made
+	// at the start of the next time step (see applyChanges())
+	private ArrayList<Boid> boids;
+	BoidStore store;
+	// views of Boids that were removed, to be reused for new Boids
+	private final ArrayList<Boid> freeBoids = new ArrayList<Boid>();
 	private int flockID = 0;
 
 	// default flock characteristics 
@@ -54,373 +57,478 @@ public class Flock {
 	private static boolean boidMortality = false;
 	private static final int BOID_LIFESPAN = 200;
 
-	// there can be a wind that affects the Boids' movements
-	PVector wind; 
-
-	// not needed in this class, but must be sent to the Boid
-	// constructor; needed for rendering calls in that class
-	private PApplet parent;
+	// the world the Flock is in; must be sent to the Boid constructor, because the
+	// Boids need the size of the space, the wind, and the random numbers
+	private final SwarmWorld world;
 
 	private Behavior behavior;
+
+	// how the Boids in this Flock calculate their new velocities
+	private VelocityRule velocityRule = VelocityRule.DEFAULT;
+
+	// for finding the neighbors of the Boids in this Flock in the spatial grid
+	private Neighborhood neighborhood;
+
+	// statistics of the Flock after the last time step (null if it had no Boids); each time step is
+	// measured into the record that isn't the latest, so the records are reused (see FlockStats)
+	private volatile FlockStats stats = null;
+	private final FlockStats[] statsRecords = { new FlockStats(), new FlockStats() };
+
+	// changes from Max that haven't been made yet, in the order they arrived
+	private final ConcurrentLinkedQueue<Runnable> changes = new ConcurrentLinkedQueue<Runnable>();
 	
 	// osc communication objects (communication with Max)
 
 	// constructor
-	Flock (int flockID, int numBoids, int flockType, PApplet parent, Behavior behavior) {
-
-		// make the Boids a synchronizedList so we can use this as a way to limit access to the Flocks; 
-		// this is necessary so that the program doesn't crash when Max changes a Flock size in the 
-		// middle of Processing doing something to every Boid in a Flock in a for-loop;
-		// the underlying data structure that actually holds the Boids is an ArrayList
-		backingBoids = new ArrayList<Boid>(numBoids);  
-		boids = Collections.synchronizedList(backingBoids);
+	Flock (int flockID, int numBoids, int flockType, SwarmWorld world, Behavior behavior) {
+
+		boids = new ArrayList<Boid>(numBoids);  
+		store = new BoidStore(flockID, numBoids);
 		this.behavior = behavior;
-		
+
+		// need to save the world to send to the Boid constructor if we create new Boids later 
+		this.world = world;
+		this.flockID = flockID;
+
+		initialize(numBoids, flockType);
+	}
+
+
+	// a Flock with no Boids yet, with the default parameters; populate() queues the Boids
+	// NOTE: unlike the constructor above, this doesn't draw any random numbers, so it can be
+	// called on any thread (see SwarmWorld.createFlock)
+	Flock (int flockID, SwarmWorld world, Behavior behavior) {
+
+		this(flockID, 0, SwarmWorld.DEFAULT_FLOCK, world, behavior);
+	}
+
+
+	// give the Flock its parameters (random ones, if so indicated), and create its Boids
+	private void initialize(int numBoids, int flockType) {
+
 		// generate random flock if so indicated
 		// BUT NOT proximityThreshold. which is set above
-		if (flockType == MusicSwarm.RANDOM_FLOCK) {   
-			velocityScale = Math.max(MusicSwarm.rand.nextFloat(), 0.1f);            // range = [0.0, 0.1]
-			maxSpeed = Math.max(MusicSwarm.rand.nextFloat() * 10.0f, 2.0f);         // range = [2.0, 10.0]
-			normalSpeed = Math.max(MusicSwarm.rand.nextFloat() * maxSpeed, 1.0f);   // range = [1.0, maxSpeed]
-			neighborRadius = MusicSwarm.rand.nextInt(91) + 10;                      // range = [10.0, 100.0]
-			separationWeight = MusicSwarm.rand.nextFloat() * 100.0f;                // range = [0.0, 100.0]
-			alignmentWeight = MusicSwarm.rand.nextFloat();                          // range = [0.0, 1.0]
-			cohesionWeight = MusicSwarm.rand.nextFloat();                           // range = [0.0, 1.0]
-			pacekeepingWeight = MusicSwarm.rand.nextFloat();                        // range = [0.0, 1.0]
-			randomMotionProbability = MusicSwarm.rand.nextFloat() / 2.0f;           // range = [0.0, 0.5]
+		if (flockType == SwarmWorld.RANDOM_FLOCK) {   
+			velocityScale = Math.max(world.nextFloat(), 0.1f);            // range = [0.0, 0.1]
+			maxSpeed = Math.max(world.nextFloat() * 10.0f, 2.0f);         // range = [2.0, 10.0]
+			normalSpeed = Math.max(world.nextFloat() * maxSpeed, 1.0f);   // range = [1.0, maxSpeed]
+			neighborRadius = world.rand.nextInt(91) + 10;                      // range = [10.0, 100.0]
+			separationWeight = world.nextFloat() * 100.0f;                // range = [0.0, 100.0]
+			alignmentWeight = world.nextFloat();                          // range = [0.0, 1.0]
+			cohesionWeight = world.nextFloat();                           // range = [0.0, 1.0]
+			pacekeepingWeight = world.nextFloat();                        // range = [0.0, 1.0]
+			randomMotionProbability = world.nextFloat() / 2.0f;           // range = [0.0, 0.5]
 		}
 
+		// the parameters are shared by all the Boids, until a Boid's Behavior changes its own (see BoidStore)
+		store.velocityScale.share(velocityScale);
+		store.maxSpeed.share(maxSpeed);
+		store.normalSpeed.share(normalSpeed);
+		store.neighborRadius.share(neighborRadius);
+		store.separationWeight.share(separationWeight);
+		store.alignmentWeight.share(alignmentWeight);
+		store.cohesionWeight.share(cohesionWeight);
+		store.pacekeepingWeight.share(pacekeepingWeight);
+		store.randomMotionProbability.share(randomMotionProbability);
+		store.proximityThreshold.share(proximityThreshold);
+
 		// create the Boids
-		for (int boidID = 0 ; boidID < numBoids; boidID++) {
-
-			PVector boidLocation = new PVector(MusicSwarm.rand.nextInt(MusicSwarm.WINDOW_WIDTH+1) - MusicSwarm.WINDOW_WIDTH/2, 
-											   MusicSwarm.rand.nextInt(MusicSwarm.WINDOW_HEIGHT+1) - MusicSwarm.WINDOW_HEIGHT/2, 
-											   MusicSwarm.rand.nextInt(MusicSwarm.WINDOW_DEPTH+1) - MusicSwarm.WINDOW_DEPTH/2);
-			Boid boid = new Boid(flockID, boidID, boidLocation, velocityScale, maxSpeed, normalSpeed, neighborRadius, 
-					separationWeight, alignmentWeight, cohesionWeight, pacekeepingWeight, randomMotionProbability, proximityThreshold, 
-					behavior, parent);
-			backingBoids.add(boid); 
+		Vector3 boidLocation = new Vector3();
+		for (int i = 0 ; i < numBoids; i++) {
+
+			world.randomLocation(boidLocation);
+			createBoid(boidLocation.x, boidLocation.y, boidLocation.z);
 		}
+	}
 
-		// need to save the parent and communication (with Max) information 
-		// to send to the Boid constructor if we create new Boids later 
-		this.parent = parent;
-		this.flockID = flockID;
+
+	// give a new Flock (with no Boids) its parameters and Boids at the start of the next time step,
+	// before any other change to it
+	void populate(final int numBoids, final int flockType) {
+
+		changes.add(new Runnable() {
+			public void run() {
+				initialize(numBoids, flockType);
+			}
+		});
 	}
 
 
-	// update the velocity and location of each boid in the flock;
+	// add a Boid at the given location (with the Flock's current parameters) to the store, which
+	// gives it an ID (see BoidStore), and add a view of it (a new one, if there is no free one)
+	// to the list of Boids
+	private void createBoid(float x, float y, float z) {
+
+		// start with small random velocity
+		float m = Boid.INIT_VELOCITY_DIMENSION_MAGNITUDE;
+		float velocityX = world.nextFloat() * (2.0f * m) - m;
+		float velocityY = world.nextFloat() * (2.0f * m) - m;
+		float velocityZ = world.nextFloat() * (2.0f * m) - m;
+
+		int index = store.add(x, y, z, velocityX, velocityY, velocityZ);
+		store.serial[index] = world.newBoidSerial();
+		if (freeBoids.isEmpty()) {
+			boids.add(new Boid(store, index, world, world.rand.split()));
+		}
+		else {
+			Boid boid = freeBoids.remove(freeBoids.size() - 1);
+			boid.reuse(index);
+			boids.add(boid);
+		}
+	}
+
+
+	// remove the Boid at the given index from the store and the list of Boids; the last Boid
+	// moves into its place, and the view of the removed Boid is kept for reuse
+	private void removeBoid(int index) {
+
+		int last = boids.size() - 1;
+		Boid removed = boids.get(index);
+
+		store.remove(index);
+		if (index != last) {
+			Boid moved = boids.get(last);
+			moved.index = index;
+			boids.set(index, moved);
+		}
+		boids.remove(last);
+		freeBoids.add(removed);
+	}
+
+
+	// phase one of a time step: calculate the next location and velocity of each boid in the flock
+	// from the current ones (the Boids don't move until phase two; see commit())
+	// NOTE: the grid (and the neighbor lists, if they are being used) must have been updated for this time step
+	void computeNextStates(Flock[] allFlocks, SpatialGrid grid, NeighborLists neighborLists) {
+
+		if (neighborhood == null)
+			neighborhood = new Neighborhood(grid, neighborLists);
+
+		// need to send all the flocks and the grid to the boids,
+		// so we can calculate all the boids in every boid's neighborhood
+		computeNextStates(allFlocks, neighborhood, 0, store.size);
+	}
+
+
+	// calculate the next locations and velocities of the Boids at indices from ... to-1;
+	// different ranges of Boids can be done at the same time on different threads (see ParallelStep)
+	// NOTE: the new velocities only depend on the current states, which don't change until every
+	// Boid has been done (see BoidStore.swapBuffers()), so the order doesn't matter
+	void computeNextStates(Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+
+		// getting older....
+		for (int i = from; i < to; i++)
+			++store.age[i];
+
+		// the velocity rule does the whole range of Boids at once
+		velocityRule.calcNewVelocities(this, allFlocks, neighborhood, from, to);
+
+		// where the Boids will be at the next time step
+		for (int i = from; i < to; i++) {
+			store.nextX[i] = store.x[i] + store.nextVx[i];
+			store.nextY[i] = store.y[i] + store.nextVy[i];
+			store.nextZ[i] = store.z[i] + store.nextVz[i];
+		}
+	}
+
+
+	// phase two of a time step: once the next states of the boids in every flock have been calculated,
+	// they become the current states (i.e. the Boids move);
 	// calculate some flock statistics and send them to Max
-	void run(Flock[] allFlocks) {
+	void commit() {
+
+		if (flockEmpty()) {
+			stats = null;
+			return;
+		}
+
+		store.swapBuffers();
+
+		// measure the flock for the renderer and Max
+		FlockStats next = (stats == statsRecords[0]) ? statsRecords[1] : statsRecords[0];
+		next.measure(store, world.getTimeStep());
+		stats = next;
+	}
 
-		synchronized(boids) {
 
-			if (flockEmpty())
-				return;
+	// make the changes that Max has asked for since the last time step;
+	// the SwarmWorld calls this at the start of every time step, on the thread that runs the steps
+	void applyChanges() {
 
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
+		// parameters shared by the changes win over Boids' own values from before this time step
+		store.timeStep = world.getTimeStep();
 
-				// need to send all the flocks to the run method in the boid class, 
-				// so we can calculate all the boids in every boid's neighborhood
-				b.run(allFlocks);
+		Runnable change;
+		while ((change = changes.poll()) != null)
+			change.run();
 
+		// a Flock that has no Boids left isn't run (see FlockRegistry), so it has no statistics
+		if (flockEmpty())
+			stats = null;
+	}
+
+
+	// Max calls the methods below (on its own thread); they queue the change for the next time step
+
+	void setBehavior(final Behavior behavior) {
+		//change behavior for every boid in flock
+		changes.add(new Runnable() {
+			public void run() {
+				Flock.this.behavior = behavior;
 			}
-			
-			//report stats for this flock to Max
-			flockAnalysis();
-			
-		}
+		});
 	}
+
 	
-	void setBehavior(Behavior behavior) {
-		//change behavior in each boid in flock
-		for (int i = 0; i < backingBoids.size(); i++) {
-			Boid b = (Boid) backingBoids.get(i);  
-			b.setBehavior(behavior);
-		}
+	void setVelocityRule(final VelocityRule velocityRule) {
+		//change the velocity rule for every boid in flock
+		changes.add(new Runnable() {
+			public void run() {
+				Flock.this.velocityRule = velocityRule;
+			}
+		});
 	}
 
 	
 	// sets the flock size; can be larger or smaller than current size
-	void setFlockSize(int newSize) {
+	void setFlockSize(final int newSize) {
 
-		synchronized(boids) {
+		changes.add(new Runnable() {
+			public void run() {
 
-			if (newSize == backingBoids.size())
-				return;
+				if (newSize == boids.size())
+					return;
 
-			int oldSize = backingBoids.size();
+				int oldSize = boids.size();
 
-			// add boids, if necessary
-			if (newSize > oldSize) {
-				int numNewBoids = newSize - oldSize;
-				for (int i = 1 ; i <= numNewBoids ; i++) {
-					PVector location = new PVector(MusicSwarm.rand.nextInt(MusicSwarm.WINDOW_WIDTH+1) - MusicSwarm.WINDOW_WIDTH/2, 
-												   MusicSwarm.rand.nextInt(MusicSwarm.WINDOW_HEIGHT+1) - MusicSwarm.WINDOW_HEIGHT/2, 
-												   MusicSwarm.rand.nextInt(MusicSwarm.WINDOW_DEPTH+1) - MusicSwarm.WINDOW_DEPTH/2);
-					addNewBoid(location);
+				// add boids, if necessary
+				if (newSize > oldSize) {
+					int numNewBoids = newSize - oldSize;
+					Vector3 location = new Vector3();
+					for (int i = 1 ; i <= numNewBoids ; i++) {
+						world.randomLocation(location);
+						createBoid(location.x, location.y, location.z);
+					}
 				}
-			}
 
-			// remove boids, if necessary
-			else if (newSize < oldSize) {
-				int numBoidsDestroyed = oldSize - newSize;
-				for(int i = 1 ; i <= numBoidsDestroyed ; ++i) {
-					// remove the one with the highest index
-					backingBoids.remove(backingBoids.size() - 1);
-				}
-			}     
-		}
+				// remove boids, if necessary
+				else if (newSize < oldSize) {
+					int numBoidsDestroyed = oldSize - newSize;
+					for(int i = 1 ; i <= numBoidsDestroyed ; ++i) {
+						// remove the one with the highest index
+						removeBoid(store.size - 1);
+					}
+				}     
+			}
+		});
 	}
 
 
 	// create a new Boid at the specified location
-	void addNewBoid(PVector location) {
-
-		synchronized(boids) {
-			
-			backingBoids.ensureCapacity(backingBoids.size() + 1); 
-			Boid boid = new Boid(flockID, backingBoids.size(), location, velocityScale, maxSpeed,  normalSpeed,  neighborRadius, 
-					separationWeight, alignmentWeight, cohesionWeight, pacekeepingWeight, randomMotionProbability, proximityThreshold, 
-					behavior, parent);
-			backingBoids.add(boid); 
-		}
+	void addNewBoid(final float x, final float y, final float z) {
+
+		changes.add(new Runnable() {
+			public void run() {
+				createBoid(x, y, z);
+			}
+		});
 	}
 
 
 	// test age of Boids and remove dead boids from arraylist
+	// (called by the SwarmWorld at the start of every time step, before the changes are made)
 	void removeDeadBoids() {
 
 		// Boids might not have a fixed lifespan
 		if (!boidMortality)
 			return;
 
-		synchronized(boids) {
+		// a Boid that is removed is replaced by the last Boid, which needs to be tested too
+		int i = 0;
+		while (i < store.size) {
+			if (store.age[i] > BOID_LIFESPAN)
+				removeBoid(i);
+			else
+				i++;
+		}
+	}
 
-			for (int i = 0; i < backingBoids.size(); i++) {				
-				Boid b = (Boid) backingBoids.get(i);  
-				if (b.getAge() > BOID_LIFESPAN)
-					backingBoids.remove(i);
-			}
-		}		
+
+	// getters
+	
+	public boolean flockEmpty() {
+		return store.size == 0;
 	}
 
+	// the number of Boids in the Flock that have the given neighborhood radius
+	// (not all of them, once a Behavior has changed the radius of some of them)
+	int numWithNeighborRadius(float radius) {
 
-	// analyze flock statistics
-	void flockAnalysis(){
+		if (!store.neighborRadius.anyOverridden())
+			return store.neighborRadius.getShared() == radius ? store.size : 0;
+		int n = 0;
+		for (int i = 0; i < store.size; i++) {
+			if (store.neighborRadius.get(i) == radius)
+				++n;
+		}
+		return n;
+	}
 
-		PVector velocitySum = new PVector(0.0f, 0.0f, 0.0f);
-		PVector locationSum = new PVector(0.0f, 0.0f, 0.0f);
-		float velocityMagnitudeSum = 0.0f;
+	// the statistics of the Flock after the last time step (null if the Flock had no Boids)
+	// NOTE: only read them on the thread that runs the time steps, between time steps (the
+	// record is measured into again two time steps later); other threads use the method below
+	FlockStats getStats() {
+		return stats;
+	}
 
-		synchronized(this.boids) {
+	// copy the statistics of the Flock after the last time step into the given record; false (and
+	// nothing is copied) if the Flock had no Boids; can be called from any thread
+	boolean getStats(FlockStats copy) {
 
-			List<Boid> boids = this.boids;
-			int boidsSize = boids.size();
+		FlockStats latest = stats;
+		if (latest == null)
+			return false;
+		latest.copyTo(copy);
+		return true;
+	}
 
-			for (int i = 0 ; i < boidsSize; i++) {
-				Boid boid = (Boid) boids.get(i);
-				locationSum.add(boid.getLocation());
-				velocitySum.add(boid.getVelocity());
-				velocityMagnitudeSum = velocityMagnitudeSum + boid.getVelocity().mag();	
-			}
+	// the Boid at the given index
+	Boid getBoid(int index) {
+		return boids.get(index);
+	}
 
-			PVector locationMean = new PVector(0.0f, 0.0f, 0.0f);
-			PVector locationAveDeviation = new PVector(0.0f, 0.0f, 0.0f);
-			float locationDeviationX = 0.0f;
-			float locationDeviationY = 0.0f;
-			float locationDeviationZ = 0.0f;
-
-			PVector velocityMean = new PVector(0.0f, 0.0f, 0.0f);
-			PVector velocityAveDeviation = new PVector(0.0f, 0.0f, 0.0f); 
-			float velocityDeviationX = 0.0f;
-			float velocityDeviationY = 0.0f;
-			float velocityDeviationZ = 0.0f;
-			float velocityMagnitudeMean = 0.0f;
-			float velocityMagnitudeDeviation = 0.0f;
-
-			// find mean location and mean velocity for the flock
-			locationMean = locationSum;
-			locationMean.div(boidsSize);
-
-			velocityMean = velocitySum;
-			velocityMean.div(boidsSize);
-			velocityMagnitudeMean = velocityMagnitudeSum / boidsSize;
-
-			// find average deviation from mean location and velocity
-			for (int i = 0 ; i < boidsSize; i++) {
-				Boid boid = (Boid) boids.get(i);
-				//accumulate sum of deviations in this loop
-				locationDeviationX += PApplet.abs(boid.getLocation().x - locationMean.x);
-				locationDeviationY += PApplet.abs(boid.getLocation().y - locationMean.y);
-				locationDeviationZ += PApplet.abs(boid.getLocation().z - locationMean.z);
-
-				velocityDeviationX += PApplet.abs(boid.getVelocity().x - velocityMean.x);
-				velocityDeviationY += PApplet.abs(boid.getVelocity().y - velocityMean.y);
-				velocityDeviationZ += PApplet.abs(boid.getVelocity().z - velocityMean.z);
-				velocityMagnitudeDeviation += PApplet.abs(boid.getVelocity().mag() - velocityMagnitudeMean);
-			}
+	Behavior getBehavior() {
+		return behavior;
+	}
 
-			//divide by boidSize - number of boids in flock - to get the average deviation
-			locationDeviationX /= boidsSize;
-			locationDeviationY /= boidsSize;
-			locationDeviationZ /= boidsSize;
-			locationAveDeviation.set(locationDeviationX, locationDeviationY, locationDeviationZ); 
-
-			velocityDeviationX /= boidsSize;
-			velocityDeviationY /= boidsSize;
-			velocityDeviationZ /= boidsSize;
-			velocityAveDeviation.set(velocityDeviationX, velocityDeviationY, velocityDeviationY);
-			velocityMagnitudeDeviation /= boidsSize;
-		}
+	VelocityRule getVelocityRule() {
+		return velocityRule;
+	}
+
+	// the first Boid in the Flock, or null if the Flock is empty
+	Boid getFirstBoid() {
 
+		return flockEmpty() ? null : boids.get(0);
 	}
 
+	// the Boid with the given ID, or null if there is none
+	Boid findBoid(int boidID) {
 
-	
-	// getters
-	
-	public boolean flockEmpty() {
-		return backingBoids.size() == 0;
+		int index = store.indexOfID(boidID);
+		return index >= 0 ? boids.get(index) : null;
 	}
 
 	
 	// setters
 
-	public void setVelocityScale(float vscale){
+	public void setVelocityScale(final float vscale){
 
-		synchronized(boids) {
-			velocityScale = vscale;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setVelocityScale(vscale);
+		changes.add(new Runnable() {
+			public void run() {
+				store.velocityScale.share(vscale);
 			}
-		}
+		});
 	}
 
 
-	void setMaxSpeed(int maxSpeed){
+	void setMaxSpeed(final int maxSpeed){
 
-		synchronized(boids) {
-			this.maxSpeed = maxSpeed;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setMaxSpeed(maxSpeed);
+		changes.add(new Runnable() {
+			public void run() {
+				store.maxSpeed.share(maxSpeed);
 			}
-		}
+		});
 	}
 
 
-	void setNormalSpeed(int normalSpeed){
-
-		synchronized(boids) {
+	void setNormalSpeed(final int normalSpeed){
 
-			this.normalSpeed = normalSpeed;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setNormalSpeed(normalSpeed);
+		changes.add(new Runnable() {
+			public void run() {
+				store.normalSpeed.share(normalSpeed);
 			}
-		}
+		});
 	}
 
 	
-	void setNeighborRadius(float neighborRadius){
-
-		synchronized(boids) {
+	void setNeighborRadius(final float neighborRadius){
 
-			this.neighborRadius = neighborRadius;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setNeighborRadius(neighborRadius);
+		changes.add(new Runnable() {
+			public void run() {
+				store.neighborRadius.share(neighborRadius);
 			}
-		}
+		});
 	}
 
 
 
-	void setSeparationWeight(float separationWeight){
+	void setSeparationWeight(final float separationWeight){
 
-		synchronized(boids) {
-
-			this.separationWeight = separationWeight;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setSeparationWeight(separationWeight);
+		changes.add(new Runnable() {
+			public void run() {
+				store.separationWeight.share(separationWeight);
 			}
-		}
+		});
 	}
 
 
-	void setAlignWeight(float alignmentWeight){
+	void setAlignWeight(final float alignmentWeight){
 
-		synchronized(boids) {
-
-			this.alignmentWeight = alignmentWeight;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setAlignWeight(alignmentWeight);
+		changes.add(new Runnable() {
+			public void run() {
+				store.alignmentWeight.share(alignmentWeight);
 			}
-		}
+		});
 	}
 
 
-	void setCohesionWeight(float cohesionWeight){
+	void setCohesionWeight(final float cohesionWeight){
 
-		synchronized(boids) {
-
-			this.cohesionWeight = cohesionWeight;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setCohesionWeight(cohesionWeight);
+		changes.add(new Runnable() {
+			public void run() {
+				store.cohesionWeight.share(cohesionWeight);
 			}
-		}
+		});
 	}
 
 
 
-	void setPacekeepingWeight(float pacekeepingWeight){
-
-		synchronized(boids) {
+	void setPacekeepingWeight(final float pacekeepingWeight){
 
-			this.pacekeepingWeight = pacekeepingWeight;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setPacekeepingWeight(pacekeepingWeight);
+		changes.add(new Runnable() {
+			public void run() {
+				store.pacekeepingWeight.share(pacekeepingWeight);
 			}
-		}
+		});
 	}
 
 
-	void setRandomMotionProbability(float randomMotionProbability){
+	void setRandomMotionProbability(final float randomMotionProbability){
 
-		synchronized(boids) {
-			
-			this.randomMotionProbability = randomMotionProbability;
-			for (int i = 0; i < backingBoids.size(); i++) {
-				Boid b = (Boid) backingBoids.get(i);  
-				b.setRandomMotionProbability(randomMotionProbability);
+		changes.add(new Runnable() {
+			public void run() {
+				store.randomMotionProbability.share(randomMotionProbability);
 			}
-		}
+		});
 	}
 
-	void setMortality(boolean boidMortality){
-		synchronized(boids) {
-			this.boidMortality = boidMortality;
-		}
-	}
+	void setMortality(final boolean boidMortality){
 
+		changes.add(new Runnable() {
+			public void run() {
+				Flock.boidMortality = boidMortality;
+			}
+		});
+	}
 
-	void setProximityThreshold(int proximityThreshold){
 
-		synchronized(boids) {
+	void setProximityThreshold(final int proximityThreshold){
 
-			this.proximityThreshold = proximityThreshold;
-			for (int i = 0; i < backingBoids.size(); i++){
-				Boid b = (Boid) backingBoids.get(i);
-				b.setProximityThresehold(proximityThreshold);
+		changes.add(new Runnable() {
+			public void run() {
+				store.proximityThreshold.share(proximityThreshold);
 			}
-		}
+		});
 	}
 
 
@@ -0,0 +1,302 @@
+/*
+ *
+ * The clusters ("connected components") of each Flock: two Boids of the same Flock are connected
+ * when they are within the neighborhood radius of either of them, and a cluster is a group of
+ * Boids that are connected to each other, directly or through other Boids of the cluster; so a
+ * Flock that splits up has more clusters, and clusters that come together merge into one
+ *
+ * The clusters are found in the grid (so where the Boids were at the start of the last time step),
+ * with union-find: every Boid starts out as a cluster of its own, and each connection that is found
+ * joins the clusters of its two Boids (if they aren't already the same one); each Boid only looks
+ * at the Boids in the cells around it, and each pair of Boids is only looked at once, and joining
+ * costs next to nothing (union by size, and halving the paths), so the cost is about linear in the
+ * number of Boids
+ *
+ * For each Flock, there are:
+ * 	- its clusters, largest first: how many Boids are in each, and where its center is
+ * 	- how many more (or fewer) clusters it has than the last time they were found, i.e. whether it
+ * 	  has split up or merged
+ * 	- the connections that joined two clusters, as lines for drawing: they connect all the Boids of
+ * 	  each cluster (a spanning tree of it), with fewer lines than there are Boids
+ *
+ * The clusters are only found when something asks for them (see SwarmWorld.findClusters), and
+ * can be read until the next time step
+ *
+ */
+
+// data structures for the clusters
+import java.util.Arrays;
+
+
+public class FlockClusters {
+
+	private final SpatialGrid grid;
+	private final SpatialGrid.Query query;
+
+	// the time step the clusters were found in
+	private int foundAt = -1;
+
+	// union-find, by Boid number (see SpatialGrid.boidNumber): a Boid whose parent is itself stands
+	// for its cluster, and size is the number of Boids in the cluster (for the Boids that stand for one)
+	private int[] parent = new int[0];
+	private int[] size = new int[0];
+	// the number of the cluster of each Boid that stands for one (-1 until it has been numbered)
+	private int[] clusterOf = new int[0];
+
+	// the Flocks (the ones that had Boids), by their place in the array of Flocks the grid was built from
+	int numFlocks = 0;
+	int[] flockID = new int[0];
+	// the clusters of the Flock at place f are clusterStart[f] ... clusterStart[f+1]-1, largest first
+	int[] clusterStart = new int[1];
+	// how many more clusters the Flock at place f has than the last time (fewer, if negative)
+	int[] clusterChange = new int[0];
+	// the number of clusters in the Flock with each ID, the last time (0 if it had no Boids)
+	private int[] lastNumClustersByID = new int[0];
+
+	// the number of Boids in each cluster, and its center
+	int numClusters = 0;
+	int[] clusterSize = new int[0];
+	float[] clusterX = new float[0];
+	float[] clusterY = new float[0];
+	float[] clusterZ = new float[0];
+
+	// the same, in the order the clusters were numbered in (before sorting), and the keys to sort them by
+	private int[] numberedSize = new int[0];
+	private float[] numberedX = new float[0];
+	private float[] numberedY = new float[0];
+	private float[] numberedZ = new float[0];
+	private long[] sortKeys = new long[0];
+
+	// the lines of the Flock at place f are lines lineStart[f] ... lineStart[f+1]-1; line l goes from
+	// (lines[6*l], lines[6*l+1], lines[6*l+2]) to (lines[6*l+3], lines[6*l+4], lines[6*l+5])
+	int[] lineStart = new int[1];
+	float[] lines = new float[0];
+	private int numLines = 0;
+
+
+	// constructor
+	FlockClusters(SpatialGrid grid) {
+
+		this.grid = grid;
+		query = grid.newQuery();
+	}
+
+
+	// find the clusters of the given Flocks (the Flocks the grid was built from), unless they
+	// have already been found in this time step
+	// NOTE: the grid must have been built in the given time step, and the Boids must not have
+	// been added or removed since
+	void find(Flock[] allFlocks, int timeStep) {
+
+		if (timeStep == foundAt)
+			return;
+		foundAt = timeStep;
+
+		int numBoids = grid.getNumBoids();
+		if (parent.length < numBoids) {
+			parent = new int[numBoids];
+			size = new int[numBoids];
+			clusterOf = new int[numBoids];
+		}
+		for (int b = 0; b < numBoids; b++) {
+			parent[b] = b;
+			size[b] = 1;
+			clusterOf[b] = -1;
+		}
+
+		numFlocks = allFlocks.length;
+		if (flockID.length < numFlocks) {
+			flockID = new int[numFlocks];
+			clusterChange = new int[numFlocks];
+			clusterStart = new int[numFlocks + 1];
+			lineStart = new int[numFlocks + 1];
+		}
+
+		// join the clusters of every two connected Boids of the same Flock
+		numLines = 0;
+		for (int f = 0; f < numFlocks; f++) {
+			BoidStore store = allFlocks[f].store;
+			flockID[f] = store.flockID;
+			lineStart[f] = numLines;
+			joinNeighbors(store);
+		}
+		lineStart[numFlocks] = numLines;
+
+		// number the clusters, Flock by Flock (the Boid numbers go Flock by Flock), and add up their Boids
+		numClusters = 0;
+		for (int f = 0; f < numFlocks; f++) {
+			BoidStore store = allFlocks[f].store;
+			clusterStart[f] = numClusters;
+			for (int i = 0; i < store.size; i++) {
+				int b = grid.boidNumber(store.flockID, i);
+				int root = root(b);
+				if (clusterOf[root] < 0) {
+					ensureClusters(numClusters + 1);
+					clusterOf[root] = numClusters;
+					numberedSize[numClusters] = size[root];
+					numberedX[numClusters] = numberedY[numClusters] = numberedZ[numClusters] = 0.0f;
+					++numClusters;
+				}
+				int c = clusterOf[root];
+				int p = grid.positionOfBoid(b);
+				numberedX[c] += grid.x[p];
+				numberedY[c] += grid.y[p];
+				numberedZ[c] += grid.z[p];
+			}
+
+			// how many more clusters than last time
+			int flockNumClusters = numClusters - clusterStart[f];
+			if (lastNumClustersByID.length <= store.flockID)
+				lastNumClustersByID = Arrays.copyOf(lastNumClustersByID, Math.max(store.flockID + 1, 2 * lastNumClustersByID.length));
+			clusterChange[f] = flockNumClusters - lastNumClustersByID[store.flockID];
+		}
+		clusterStart[numFlocks] = numClusters;
+
+		// a Flock that has no Boids now has no clusters (the Flocks are in ID order)
+		int f = 0;
+		for (int id = 1; id < lastNumClustersByID.length; id++) {
+			if (f < numFlocks && flockID[f] == id)
+				lastNumClustersByID[id] = clusterStart[f + 1] - clusterStart[f++];
+			else
+				lastNumClustersByID[id] = 0;
+		}
+
+		sortClusters();
+	}
+
+
+	// the time step the clusters were last found in
+	int getFoundAt() {
+		return foundAt;
+	}
+
+
+	// join the clusters of the Boids in the given store that are within the neighborhood radius
+	// of either of them, and keep a line for each connection that joined two clusters
+	private void joinNeighbors(BoidStore store) {
+
+		int storeFlockID = store.flockID;
+
+		// the search radius: the largest neighborhood radius in the Flock
+		float maxRadius = store.neighborRadius.getShared();
+		if (store.neighborRadius.anyOverridden()) {
+			maxRadius = 0.0f;
+			for (int i = 0; i < store.size; i++)
+				maxRadius = Math.max(maxRadius, store.neighborRadius.get(i));
+		}
+		float maxRadiusSquared = maxRadius * maxRadius;
+
+		for (int i = 0; i < store.size; i++) {
+
+			int b = grid.boidNumber(storeFlockID, i);
+			int p = grid.positionOfBoid(b);
+			float x = grid.x[p], y = grid.y[p], z = grid.z[p];
+			float radius = store.neighborRadius.get(i);
+
+			query.gather(x, y, z, maxRadius);
+			for (int r = 0; r < query.numRuns; r++) {
+
+				// only the Boids after this one in the grid; the ones before it have already looked at it
+				for (int j = Math.max(query.runStart[r], p + 1); j < query.runEnd[r]; j++) {
+
+					if (grid.flockID[j] != storeFlockID)
+						continue;
+					float dx = x - grid.x[j], dy = y - grid.y[j], dz = z - grid.z[j];
+					float distSquared = dx*dx + dy*dy + dz*dz;
+					if (distSquared > maxRadiusSquared)
+						continue;
+
+					int other = grid.boidAt(j);
+					float connectRadius = Math.max(radius, store.neighborRadius.get(grid.indexOfBoid(other)));
+					if (distSquared <= connectRadius * connectRadius && join(b, other))
+						addLine(x, y, z, grid.x[j], grid.y[j], grid.z[j]);
+				}
+			}
+		}
+	}
+
+
+	// the Boid that stands for the cluster of the given Boid; on the way, every other Boid on the
+	// path points to the one two steps up, so the paths stay short
+	private int root(int b) {
+
+		while (parent[b] != b) {
+			parent[b] = parent[parent[b]];
+			b = parent[b];
+		}
+		return b;
+	}
+
+	// join the clusters of the two Boids (the smaller one becomes part of the larger one);
+	// false if they already were the same cluster
+	private boolean join(int a, int b) {
+
+		a = root(a);
+		b = root(b);
+		if (a == b)
+			return false;
+
+		if (size[a] < size[b]) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		parent[b] = a;
+		size[a] += size[b];
+		return true;
+	}
+
+
+	// put the clusters of each Flock in order, largest first (in the order they were numbered, if
+	// they are the same size), and turn the sums of the locations into centers
+	private void sortClusters() {
+
+		if (clusterSize.length < numClusters) {
+			clusterSize = new int[numberedSize.length];
+			clusterX = new float[numberedSize.length];
+			clusterY = new float[numberedSize.length];
+			clusterZ = new float[numberedSize.length];
+			sortKeys = new long[numberedSize.length];
+		}
+
+		for (int c = 0; c < numClusters; c++)
+			sortKeys[c] = ((long) (Integer.MAX_VALUE - numberedSize[c]) << 32) | c;
+		for (int f = 0; f < numFlocks; f++)
+			Arrays.sort(sortKeys, clusterStart[f], clusterStart[f + 1]);
+
+		for (int s = 0; s < numClusters; s++) {
+			int c = (int) sortKeys[s];
+			int clusterNumBoids = numberedSize[c];
+			clusterSize[s] = clusterNumBoids;
+			clusterX[s] = numberedX[c] / clusterNumBoids;
+			clusterY[s] = numberedY[c] / clusterNumBoids;
+			clusterZ[s] = numberedZ[c] / clusterNumBoids;
+		}
+	}
+
+
+	private void addLine(float x1, float y1, float z1, float x2, float y2, float z2) {
+
+		int l = 6 * numLines;
+		if (l + 6 > lines.length)
+			lines = Arrays.copyOf(lines, Math.max(2 * lines.length, 6 * 1024));
+		lines[l] = x1;
+		lines[l + 1] = y1;
+		lines[l + 2] = z1;
+		lines[l + 3] = x2;
+		lines[l + 4] = y2;
+		lines[l + 5] = z2;
+		++numLines;
+	}
+
+	private void ensureClusters(int capacity) {
+
+		if (capacity > numberedSize.length) {
+			int newLength = Math.max(capacity, Math.max(2 * numberedSize.length, 16));
+			numberedSize = Arrays.copyOf(numberedSize, newLength);
+			numberedX = Arrays.copyOf(numberedX, newLength);
+			numberedY = Arrays.copyOf(numberedY, newLength);
+			numberedZ = Arrays.copyOf(numberedZ, newLength);
+		}
+	}
+}
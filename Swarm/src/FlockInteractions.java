@@ -0,0 +1,123 @@
+/*
+ *
+ * How the Boids of each Flock react to the Boids of each Flock (including their own): for every
+ * ordered pair of Flocks (the Boid's Flock, the neighbor's Flock), how strongly the Boid separates
+ * from, coheres with, and aligns with the neighbor, and how far away the neighbor can be
+ *
+ * The entries scale the Boid's own parameters, so the Flocks' parameters (from Max) and the
+ * Behaviors still work as usual:
+ * 	- separation: the neighbor's separation vector is multiplied by separation * separationWeight
+ * 	- cohesion, alignment: the Boid steers toward the average of (cohesion * neighbor location),
+ * 	  over the neighbors whose cohesion is not 0, times cohesionWeight (and the same for alignment)
+ * 	- radius: the neighbor is a neighbor if it is within radius * neighborRadius
+ * With every entry 1 (the default), this is the STANDARD velocity rule; with cohesion and alignment
+ * only within a Flock (see ownFlockOnly), it is how the other rules cohere and align; and e.g.
+ * the separation of GREEN_SNAKE (with the default separationWeight of 100) is 0.8 within a Flock,
+ * and 1.0 for flock 1 (0.8 for flock 2) from the other Flocks
+ *
+ * Neighborhood.gatherInteractions reads the entries for a Boid's Flock by the neighbor's Flock ID,
+ * in the same loop for every pair of Flocks (see VelocityRule.INTERACTIONS), so the weights can be
+ * changed while the simulation runs (by Max: "/interaction") without any code for particular Flocks
+ *
+ * The entries are only changed at the start of a time step (see SwarmWorld.setInteraction), so they
+ * can be read while the Boids are run without locking
+ *
+ */
+
+// data structures for the matrix
+import java.util.Arrays;
+
+
+public class FlockInteractions {
+
+	// the number of Flock IDs in each row (and the number of rows); the entry for the pair
+	// (flockID, otherFlockID) is at flockID * stride + otherFlockID
+	// NOTE: flock indices start at 1, not 0 (see SwarmWorld), so row and column 0 aren't used
+	private int stride = 0;
+
+	float[] separation = new float[0];
+	float[] cohesion = new float[0];
+	float[] alignment = new float[0];
+	float[] radius = new float[0];
+	// 1 if cohesion (or alignment) is not 0, i.e. whether the neighbor counts toward the average
+	float[] cohesionCounts = new float[0];
+	float[] alignmentCounts = new float[0];
+	// the largest radius in each row, for searching the grid
+	float[] maxRadius = new float[0];
+
+
+	// make room for Flock IDs up to maxFlockID; the new entries are 1
+	// NOTE: only call this on the thread that runs the time steps
+	void ensureFlocks(int maxFlockID) {
+
+		if (maxFlockID < stride)
+			return;
+
+		int newStride = Math.max(maxFlockID + 1, 2 * stride);
+		separation = grow(separation, newStride);
+		cohesion = grow(cohesion, newStride);
+		alignment = grow(alignment, newStride);
+		radius = grow(radius, newStride);
+		cohesionCounts = grow(cohesionCounts, newStride);
+		alignmentCounts = grow(alignmentCounts, newStride);
+		stride = newStride;
+
+		maxRadius = new float[newStride];
+		for (int flockID = 0; flockID < newStride; flockID++)
+			updateMaxRadius(flockID);
+	}
+
+	// the same matrix, with more Flock IDs (1 for the new entries)
+	private float[] grow(float[] entries, int newStride) {
+
+		float[] grown = new float[newStride * newStride];
+		Arrays.fill(grown, 1.0f);
+		for (int row = 0; row < stride; row++)
+			System.arraycopy(entries, row * stride, grown, row * newStride, stride);
+		return grown;
+	}
+
+
+	// set the entries for how the Boids of flockID react to the Boids of otherFlockID
+	// NOTE: only call this on the thread that runs the time steps
+	void set(int flockID, int otherFlockID, float separation, float cohesion, float alignment, float radius) {
+
+		ensureFlocks(Math.max(flockID, otherFlockID));
+
+		int pair = flockID * stride + otherFlockID;
+		this.separation[pair] = separation;
+		this.cohesion[pair] = cohesion;
+		this.alignment[pair] = alignment;
+		this.radius[pair] = Math.max(radius, 0.0f);
+		cohesionCounts[pair] = cohesion != 0 ? 1.0f : 0.0f;
+		alignmentCounts[pair] = alignment != 0 ? 1.0f : 0.0f;
+		updateMaxRadius(flockID);
+	}
+
+	// every Boid coheres and aligns only with the Boids in its own Flock (the other entries are 1),
+	// for the Flock IDs there is room for (see ensureFlocks)
+	// NOTE: only call this on the thread that runs the time steps
+	void ownFlockOnly() {
+
+		for (int flockID = 1; flockID < stride; flockID++) {
+			for (int otherFlockID = 1; otherFlockID < stride; otherFlockID++) {
+				float ownFlock = (flockID == otherFlockID) ? 1.0f : 0.0f;
+				set(flockID, otherFlockID, 1.0f, ownFlock, ownFlock, 1.0f);
+			}
+		}
+	}
+
+
+	// the first entry of the row of the given Flock
+	int row(int flockID) {
+		return flockID * stride;
+	}
+
+	private void updateMaxRadius(int flockID) {
+
+		float max = 0.0f;
+		for (int otherFlockID = 1; otherFlockID < stride; otherFlockID++)
+			max = Math.max(max, radius[flockID * stride + otherFlockID]);
+		maxRadius[flockID] = max;
+	}
+}
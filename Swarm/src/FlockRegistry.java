@@ -0,0 +1,178 @@
+/*
+ *
+ * The Flocks in a SwarmWorld, by ID; Flocks can be created and destroyed while the simulation
+ * runs (by Max, or from code), so there is no fixed number of them
+ *
+ * Flock IDs start at 1, not 0, because Max numbers them this way; an ID whose Flock has been
+ * destroyed (or never existed) has no Flock, until a new Flock is created with that ID
+ *
+ * Creating and destroying Flocks are changes like any other: they are asked for on any thread,
+ * but only made at the start of a time step (see SwarmWorld.createFlock), so the Flocks never
+ * change in the middle of a time step; the registry keeps which Flock each ID will have once the
+ * changes that have been asked for are made, so IDs can be handed out (and Flocks changed, e.g.
+ * by Max right after creating them) before then
+ *
+ * There are two lists of the Flocks, both in ID order:
+ * 	- every Flock (for Max and the renderer, which can read it on any thread), as of the start
+ * 	  of the last time step
+ * 	- the Flocks that have Boids (for the time steps), which is updated at the start of every
+ * 	  time step, once the changes have been made (see SwarmWorld.step); everything the time step
+ * 	  does for each Flock (the grid, the neighbor lists, phase one and two) only goes through
+ * 	  this list, so a Flock with no Boids costs nothing, however many of them there are
+ *
+ * The arrays are never changed once they have been handed out: creating or destroying a Flock
+ * replaces them (which is rare), so they can be read on any thread without locking, and the
+ * time step can tell whether the Flocks that have Boids have changed by whether the array has
+ *
+ */
+
+// data structures for the registry
+import java.util.Arrays;
+
+
+public class FlockRegistry {
+
+	// the Flock with each ID (null if there is none), once the changes that have been asked for
+	// are made; element 0 is not used
+	private volatile Flock[] plannedByID = new Flock[1];
+	// the Flock with each ID now
+	// NOTE: only changed on the thread that runs the time steps
+	private Flock[] byID = new Flock[1];
+	// every Flock, in ID order
+	private volatile Flock[] all = new Flock[0];
+	// the Flocks that had Boids at the start of this time step, in ID order
+	// NOTE: only used on the thread that runs the time steps
+	private Flock[] active = new Flock[0];
+
+
+	// the Flock with the given ID once the changes that have been asked for are made, or null if
+	// there will be none; can be called from any thread
+	Flock get(int flockID) {
+
+		Flock[] plannedByID = this.plannedByID;
+		return flockID > 0 && flockID < plannedByID.length ? plannedByID[flockID] : null;
+	}
+
+	// every Flock, in ID order; can be called from any thread
+	// NOTE: don't change the array
+	Flock[] all() {
+		return all;
+	}
+
+	// the Flocks that had Boids at the start of this time step, in ID order
+	// NOTE: don't change the array
+	Flock[] active() {
+		return active;
+	}
+
+	// the lowest ID that has no Flock (once the changes that have been asked for are made)
+	synchronized int freeID() {
+
+		for (int flockID = 1; flockID < plannedByID.length; flockID++) {
+			if (plannedByID[flockID] == null)
+				return flockID;
+		}
+		return plannedByID.length;
+	}
+
+
+	// give the Flock its ID, for when it is added; false (and nothing is reserved) if there
+	// already is a Flock with that ID (or will be)
+	synchronized boolean reserve(Flock flock) {
+
+		int flockID = flock.store.flockID;
+		if (get(flockID) != null)
+			return false;
+
+		Flock[] newPlannedByID = Arrays.copyOf(plannedByID, Math.max(plannedByID.length, flockID + 1));
+		newPlannedByID[flockID] = flock;
+		plannedByID = newPlannedByID;
+		return true;
+	}
+
+	// give up the ID of the Flock that has it (or will have it), for when the Flock is removed;
+	// returns the Flock (null if there is none)
+	synchronized Flock release(int flockID) {
+
+		Flock flock = get(flockID);
+		if (flock == null)
+			return null;
+
+		Flock[] newPlannedByID = plannedByID.clone();
+		newPlannedByID[flockID] = null;
+		plannedByID = newPlannedByID;
+		return flock;
+	}
+
+
+	// add a Flock (which has reserved its ID) to the Flocks
+	// NOTE: only call this on the thread that runs the time steps, between time steps
+	void add(Flock flock) {
+
+		int flockID = flock.store.flockID;
+		if (flockID >= byID.length)
+			byID = Arrays.copyOf(byID, flockID + 1);
+		byID[flockID] = flock;
+		all = collect(byID);
+	}
+
+	// remove a Flock from the Flocks (nothing happens if it isn't one of them)
+	// NOTE: only call this on the thread that runs the time steps, between time steps
+	void remove(Flock flock) {
+
+		int flockID = flock.store.flockID;
+		if (flockID >= byID.length || byID[flockID] != flock)
+			return;
+
+		byID[flockID] = null;
+		all = collect(byID);
+	}
+
+
+	// find the Flocks that have Boids, after the changes at the start of a time step; the
+	// array is only replaced if they are not the same Flocks as in the last time step
+	// NOTE: only call this on the thread that runs the time steps
+	Flock[] updateActive() {
+
+		Flock[] all = this.all;
+		int numActive = 0;
+		boolean same = true;
+		for (int f = 0; f < all.length; f++) {
+			if (all[f].flockEmpty())
+				continue;
+			if (numActive >= active.length || active[numActive] != all[f])
+				same = false;
+			++numActive;
+		}
+		if (same && numActive == active.length)
+			return active;
+
+		Flock[] newActive = new Flock[numActive];
+		numActive = 0;
+		for (int f = 0; f < all.length; f++) {
+			if (!all[f].flockEmpty())
+				newActive[numActive++] = all[f];
+		}
+		active = newActive;
+		return active;
+	}
+
+
+	// the Flocks in an array by ID, without the gaps
+	private static Flock[] collect(Flock[] byID) {
+
+		int numFlocks = 0;
+		for (int flockID = 1; flockID < byID.length; flockID++) {
+			if (byID[flockID] != null)
+				++numFlocks;
+		}
+
+		Flock[] flocks = new Flock[numFlocks];
+		numFlocks = 0;
+		for (int flockID = 1; flockID < byID.length; flockID++) {
+			if (byID[flockID] != null)
+				flocks[numFlocks++] = byID[flockID];
+		}
+		return flocks;
+	}
+}
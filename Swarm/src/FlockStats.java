@@ -0,0 +1,117 @@
+/*
+ *
+ * Statistics of a Flock after a time step: the mean and mean absolute deviation of the Boids'
+ * locations and velocities, and the mean, mean absolute deviation, and variance of their speeds
+ *
+ * They are measured when the Flock commits a time step (see Flock.commit), in two passes over the
+ * store's arrays (which are contiguous, so each pass is quick): the first adds up the values for the
+ * means, and the second adds up the absolute and squared deviations from those means, so the
+ * deviations and the variance are exact
+ *
+ * Each Flock has two FlockStats, and measures each time step into the one that isn't the latest,
+ * so nothing is allocated; the latest can be read on the thread that runs the time steps (e.g. by
+ * the renderer, between time steps); any other thread (Max, a fitness function) should copy it
+ * (see Flock.getStats(FlockStats)), which is done under the statistics' lock, so the copy is never
+ * half of one time step and half of another
+ *
+ */
+
+public class FlockStats {
+
+	// the time step the statistics were measured after, and how many Boids there were
+	int timeStep;
+	int numBoids;
+
+	float locationMeanX, locationMeanY, locationMeanZ;
+	float locationDeviationX, locationDeviationY, locationDeviationZ;
+
+	float velocityMeanX, velocityMeanY, velocityMeanZ;
+	float velocityDeviationX, velocityDeviationY, velocityDeviationZ;
+
+	float speedMean;
+	float speedDeviation;
+	float speedVariance;
+
+
+	// measure the Boids in the store (which must not be empty), after the given time step
+	synchronized void measure(BoidStore store, int timeStep) {
+
+		int n = store.size;
+		float[] bx = store.x, by = store.y, bz = store.z;
+		float[] bvx = store.vx, bvy = store.vy, bvz = store.vz;
+
+		// the means
+		double x = 0, y = 0, z = 0, vx = 0, vy = 0, vz = 0, speed = 0;
+		for (int i = 0; i < n; i++) {
+			x += bx[i]; y += by[i]; z += bz[i];
+			vx += bvx[i]; vy += bvy[i]; vz += bvz[i];
+			speed += speed(store, i);
+		}
+		double meanX = x / n, meanY = y / n, meanZ = z / n;
+		double meanVx = vx / n, meanVy = vy / n, meanVz = vz / n;
+		double meanSpeed = speed / n;
+
+		// the deviations from the means
+		double deviationX = 0, deviationY = 0, deviationZ = 0;
+		double deviationVx = 0, deviationVy = 0, deviationVz = 0;
+		double speedDeviation = 0, speedSquaredDeviation = 0;
+		for (int i = 0; i < n; i++) {
+			deviationX += Math.abs(bx[i] - meanX);
+			deviationY += Math.abs(by[i] - meanY);
+			deviationZ += Math.abs(bz[i] - meanZ);
+			deviationVx += Math.abs(bvx[i] - meanVx);
+			deviationVy += Math.abs(bvy[i] - meanVy);
+			deviationVz += Math.abs(bvz[i] - meanVz);
+			double s = speed(store, i) - meanSpeed;
+			speedDeviation += Math.abs(s);
+			speedSquaredDeviation += s * s;
+		}
+
+		this.timeStep = timeStep;
+		numBoids = n;
+		locationMeanX = (float) meanX;
+		locationMeanY = (float) meanY;
+		locationMeanZ = (float) meanZ;
+		locationDeviationX = (float) (deviationX / n);
+		locationDeviationY = (float) (deviationY / n);
+		locationDeviationZ = (float) (deviationZ / n);
+		velocityMeanX = (float) meanVx;
+		velocityMeanY = (float) meanVy;
+		velocityMeanZ = (float) meanVz;
+		velocityDeviationX = (float) (deviationVx / n);
+		velocityDeviationY = (float) (deviationVy / n);
+		velocityDeviationZ = (float) (deviationVz / n);
+		speedMean = (float) meanSpeed;
+		this.speedDeviation = (float) (speedDeviation / n);
+		speedVariance = (float) (speedSquaredDeviation / n);
+	}
+
+
+	// copy these statistics into the given ones
+	synchronized void copyTo(FlockStats copy) {
+
+		copy.timeStep = timeStep;
+		copy.numBoids = numBoids;
+		copy.locationMeanX = locationMeanX;
+		copy.locationMeanY = locationMeanY;
+		copy.locationMeanZ = locationMeanZ;
+		copy.locationDeviationX = locationDeviationX;
+		copy.locationDeviationY = locationDeviationY;
+		copy.locationDeviationZ = locationDeviationZ;
+		copy.velocityMeanX = velocityMeanX;
+		copy.velocityMeanY = velocityMeanY;
+		copy.velocityMeanZ = velocityMeanZ;
+		copy.velocityDeviationX = velocityDeviationX;
+		copy.velocityDeviationY = velocityDeviationY;
+		copy.velocityDeviationZ = velocityDeviationZ;
+		copy.speedMean = speedMean;
+		copy.speedDeviation = speedDeviation;
+		copy.speedVariance = speedVariance;
+	}
+
+
+	// magnitude of the velocity of the Boid at the given index
+	private static float speed(BoidStore store, int i) {
+		return (float) Math.sqrt(store.vx[i]*store.vx[i] + store.vy[i]*store.vy[i] + store.vz[i]*store.vz[i]);
+	}
+}
@@ -17,20 +17,28 @@
  * 	2) graphics
  * 		- sets up graphics environment
  * 		- includes code that implements a movable camera view of the simulation
+ * 		- renders the Boids (and the lines between connected Boids)
  * 	3) flocks
- * 		- creation
- * 		- running (calls run method in Flock class)
+ * 		- creation (creates the SwarmWorld, which has the flocks)
+ * 		- running (calls step method in SwarmWorld class, as many times per frame as the
+ * 		  SimulationClock says, so the simulation runs at a fixed rate whatever the frame rate)
+ * 
+ * The simulation itself is in SwarmWorld, which doesn't use Processing; this class only
+ * draws it and passes on the changes from Max
  * 		
  */
 
 // Processing classes (including graphics)
 import processing.core.PApplet;
-import processing.core.PVector;
+
+// we use Open Sound Control for communication with Max/MSP
+import oscP5.OscBundle;
+import oscP5.OscMessage;
+import oscP5.OscP5;
+import netP5.NetAddress;
 
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
-// for random numbers
-import java.util.Random;
 
 import javax.swing.*;
 
@@ -61,30 +69,25 @@ public class MusicSwarm extends PApplet {
 	private float yaw;	  //rotate around Y
 	private float zoom;
 
-	// can introduce wind into the simulation; not used for quite a while (as of 5/14/13)
-	public static PVector windVector = new PVector(0.0f, 0.0f, 0.0f);
-
 	// boid-specific rendering
 	public static final int BOID_SIZE = 5;
 	// opacity of the fill for Boids
 	public static final int B_ALPHA = 150;
-	// are the boids in the same neighborhood connected by a line graphically?
+	// are the boids in the same cluster (see FlockClusters) connected by lines graphically?
 	public static final boolean CONNECTED_COMPONENTS = false;
 
 
 	// ****************  FLOCKS  ******************
 
-	// different modes of flock creation
-	public static final int DEFAULT_FLOCK = 1; // creates flock with the same default parameters, which are specified in the Flock class
-	public static final int RANDOM_FLOCK = 2;  // creates each flock with its own random parameters, generated in the Flock class
-	private static int flockType = DEFAULT_FLOCK;	
+	// different modes of flock creation (see SwarmWorld)
+	private static int flockType = SwarmWorld.DEFAULT_FLOCK;	
 
 	// flocks
 	// ************************************************************************************************
 	// NOTE: flock indices start at 1, not 0, because Max numbers them this way 
 	// ************************************************************************************************
+	// the Flocks that are created at the start; Max can create more, and destroy them (see createFlock)
 	private static final int NUM_FLOCKS = 6;                      
-	private static Flock[] allFlocks = new Flock[NUM_FLOCKS+1];   
 	// ************************************************************************************************
 	// NOTE (5/14/13): ALL 6 flocks are always created: 
 	// if all flocks are being used and all are the same size, set useDefaultFlockSize to true 
@@ -97,6 +100,15 @@ public class MusicSwarm extends PApplet {
 	private static int defaultFlockSize = 50;
 	private static int[] nonDefaultInitialFlockSizes = {0, 200, 200, 200, 0, 0, 0};
 
+	// the simulation: the flocks, and the space they fly in
+	// (the time steps are run on the animation thread, by draw())
+	private SwarmWorld world;
+
+	// how many time steps to run for each frame, so the simulation runs at a fixed number of
+	// steps per second, however fast the frames are drawn; the Boids are drawn between their
+	// last two states, according to how far the frame is between the last two steps
+	private SimulationClock clock;
+
 	// flock colors
 	static final int[][] FLOCKCOLOR = { 	
 		{0,    0,  0},
@@ -109,16 +121,32 @@ public class MusicSwarm extends PApplet {
 	};
 
 
-	// ****************  MISCELLANEOUS  ******************
+	// ****************  COMMUNICATION WITH MAX  ******************
 
-	// for random numbers
-	// static so accessible from other classes (not actually used in this class)
-	static Random rand = new Random();
-	//rand.setSeed(43453445);        
+	// Max sends OSC messages to this port; the address of each message is "plugged" into
+	// the method that handles it (see setup)
+	private static final int OSC_LISTENING_PORT = 12000;
+	private OscP5 oscP5;
+
+	// where the messages to Max are sent
+	private static final String MAX_HOST = "127.0.0.1";
+	private static final int MAX_PORT = 12001;
+	private NetAddress maxLocation;
+
+	// send the statistics of every Flock to Max ("/FlockAnalysis") after each frame's time steps?
+	private volatile boolean sendFlockStats = true;
+
+	// proximity events are sent to Max in bundles of at most this many messages
+	private static final int MESSAGES_PER_BUNDLE = 32;
+
+	// send the clusters of every Flock to Max ("/flockClusters") after each frame's time steps?
+	private volatile boolean sendClusters = false;
+	// only the largest clusters of each Flock are sent, so the message stays small
+	private static final int MAX_CLUSTERS_SENT = 8;
+
+
+	// ****************  MISCELLANEOUS  ******************
 
-	// for delimiting behaviors over time
-	public static int timeStep = 0;
-	
 	public int buttonColor = 209;
 	
 	public static void main(String args[]) {
@@ -129,19 +157,30 @@ public class MusicSwarm extends PApplet {
 	public void setup() {
 		// window size and graphics mode
 		size(400, 400, P3D); 
-		
-		timeStep = 0;
+
+		// listen for messages from Max
+		oscP5 = new OscP5(this, OSC_LISTENING_PORT);
+		oscP5.plug(this, "setVelocityRule", "/velocityRule");
+		oscP5.plug(this, "setStepsPerSecond", "/stepsPerSecond");
+		oscP5.plug(this, "setSendFlockStats", "/flockStats");
+		oscP5.plug(this, "createFlock", "/createFlock");
+		oscP5.plug(this, "destroyFlock", "/destroyFlock");
+		oscP5.plug(this, "setInteraction", "/interaction");
+		oscP5.plug(this, "setProximityEvents", "/proximityEvents");
+		oscP5.plug(this, "setSendClusters", "/clusters");
+		maxLocation = new NetAddress(MAX_HOST, MAX_PORT);
 
 		// create the Flocks  
+		int[] flockSizes = new int[NUM_FLOCKS+1];
 		for (int flockID = 1; flockID <= NUM_FLOCKS; flockID++){    
-			int flockSize = useDefaultFlockSize? defaultFlockSize: nonDefaultInitialFlockSizes[flockID];
-			allFlocks[flockID] = new Flock(flockID, flockSize, flockType, this, new Behavior());
+			flockSizes[flockID] = useDefaultFlockSize? defaultFlockSize: nonDefaultInitialFlockSizes[flockID];
 		}
+		world = new SwarmWorld(WINDOW_WIDTH, WINDOW_HEIGHT, WINDOW_DEPTH, flockSizes, flockType);
+		clock = new SimulationClock();
 	}
 	
 	// the "loop forever" method in processing
 	public void draw() {
-		++timeStep;
 
 		// background is black
 		// (need to completely redraw the simulation at each time step)
@@ -159,71 +198,365 @@ public class MusicSwarm extends PApplet {
 		noFill();
 		box(WINDOW_HEIGHT);	
 		
-		// update all the Flocks
-		// NOTE: need to send all the Flocks, so we have access to all the Boids in every Boid's neighborhood
-		for(int flockID = 1; flockID <= NUM_FLOCKS; flockID++) {
-			allFlocks[flockID].run(allFlocks);
+		// run the time steps of all the Flocks that are due by now (possibly none)
+		int steps = clock.stepsDue(System.nanoTime());
+		for (int i = 0; i < steps; i++) {
+			world.step();
+			// the Boids that came into (or went out of) contact in this time step
+			if (world.isDetectingProximity())
+				sendProximityEvents(world.getProximityEvents());
 		}
+		float interpolation = clock.getInterpolation();
 
-		// remove dead Boids
-		for(int flockID = 1; flockID <= NUM_FLOCKS; flockID++) {
-			allFlocks[flockID].removeDeadBoids();
+		// tell Max how the Flocks are doing, if they have moved
+		Flock[] flocks = world.getFlocks();
+		if (steps > 0 && sendFlockStats) {
+			for (int f = 0; f < flocks.length; f++)
+				sendFlockStats(flocks[f]);
+		}
+
+		// the clusters of each Flock (only found again if there has been a time step)
+		FlockClusters clusters = null;
+		if (CONNECTED_COMPONENTS || sendClusters)
+			clusters = world.findClusters();
+		if (steps > 0 && sendClusters)
+			sendClusters(clusters);
+
+		// draw lines between Boids from the same flock in the same cluster
+		if (CONNECTED_COMPONENTS)
+			connectBoids(clusters);
+
+		// render all the Flocks
+		for(int f = 0; f < flocks.length; f++) {
+			BoidStore store = flocks[f].store;
+			for (int i = 0; i < store.size; i++)
+				renderBoid(store, i, interpolation);
 		}
-		
 	}
-	
+
+
+	// redraw the Boid at the given index in the store, the given fraction of the way from where
+	// it was before the last time step to where it is now
+	// (between time steps, the store's next arrays have where the Boids were; see BoidStore)
+	private void renderBoid(BoidStore store, int index, float interpolation) {
+
+		int[] color = flockColor(store.flockID);
+		float x = lerp(store.nextX[index], store.x[index], interpolation);
+		float y = lerp(store.nextY[index], store.y[index], interpolation);
+		float z = lerp(store.nextZ[index], store.z[index], interpolation);
+		float vx = lerp(store.nextVx[index], store.vx[index], interpolation);
+		float vy = lerp(store.nextVy[index], store.vy[index], interpolation);
+		float vz = lerp(store.nextVz[index], store.vz[index], interpolation);
+
+		if (renderMethod == RENDER_2D) {
+			// Draw a triangle rotated in the direction of velocity
+			float theta = (float) Math.atan2(vy, vx) + (float) Math.PI/2;
+			noStroke();
+			fill(color[0], color[1], color[2], B_ALPHA);
+			pushMatrix();
+			translate(x, y);
+			rotate(theta);
+			beginShape(TRIANGLES);
+			vertex(0, -BOID_SIZE*2);
+			vertex(-BOID_SIZE, BOID_SIZE*2);
+			vertex(BOID_SIZE, BOID_SIZE*2);
+			endShape();
+			popMatrix();
+		}
+
+		//3d render
+		else if (renderMethod == RENDER_3D) {
+			pushMatrix();
+			translate(x, y, z);
+			rotateY(atan2(-vz, vx));
+			rotateZ(asin(vy / (float) Math.sqrt(vx*vx + vy*vy + vz*vz)));
+			noStroke();
+			fill(color[0], color[1], color[2], B_ALPHA);
+
+			//drawing boids
+			beginShape(TRIANGLES);
+
+			vertex(3*BOID_SIZE,0,0);
+			vertex(-3*BOID_SIZE,2*BOID_SIZE,0);
+			vertex(-3*BOID_SIZE,-2*BOID_SIZE,0);
+
+			vertex(3*BOID_SIZE,0,0);
+			vertex(-3*BOID_SIZE,2*BOID_SIZE,0);
+			vertex(-3*BOID_SIZE,0,2*BOID_SIZE);
+
+			vertex(3*BOID_SIZE,0,0);
+			vertex(-3*BOID_SIZE,0,2*BOID_SIZE);
+			vertex(-3*BOID_SIZE,-2*BOID_SIZE,0);
+
+			vertex(-3*BOID_SIZE,0,2*BOID_SIZE);
+			vertex(-3*BOID_SIZE,2*BOID_SIZE,0);
+			vertex(-3*BOID_SIZE,-2*BOID_SIZE,0);
+
+			endShape();
+			popMatrix();
+		}
+	}
+
+
+	// the color of the Flock with the given ID (the colors are used over again if there are more Flocks than colors)
+	private static int[] flockColor(int flockID) {
+		return FLOCKCOLOR[1 + (flockID - 1) % (FLOCKCOLOR.length - 1)];
+	}
+
+
+	// draw the lines that connect the Boids of each cluster, one batch of lines per Flock; the
+	// lines are drawn where the Boids were at the start of the last time step, when the clusters
+	// were found (see FlockClusters)
+	private void connectBoids(FlockClusters clusters) {
+
+		float[] lines = clusters.lines;
+		for (int f = 0; f < clusters.numFlocks; f++) {
+			int[] color = flockColor(clusters.flockID[f]);
+			stroke(color[0], color[1], color[2]);
+			beginShape(LINES);
+			for (int l = 6 * clusters.lineStart[f]; l < 6 * clusters.lineStart[f + 1]; l += 6) {
+				if (renderMethod == RENDER_3D) {
+					vertex(lines[l], lines[l + 1], lines[l + 2]);
+					vertex(lines[l + 3], lines[l + 4], lines[l + 5]);
+				}
+				if (renderMethod == RENDER_2D) {
+					vertex(lines[l], lines[l + 1]);
+					vertex(lines[l + 3], lines[l + 4]);
+				}
+			}
+			endShape();
+		}
+	}
+
+	// send the clusters of every Flock that has Boids to Max, in bundles of up to MESSAGES_PER_BUNDLE messages:
+	// "/flockClusters" flockID, number of clusters, how many more clusters than in the last message
+	// (> 0: the Flock has split up, < 0: clusters have merged), then for each of the largest
+	// MAX_CLUSTERS_SENT clusters (largest first): number of Boids, center (x, y, z)
+	private void sendClusters(FlockClusters clusters) {
+
+		OscBundle bundle = new OscBundle();
+		for (int f = 0; f < clusters.numFlocks; f++) {
+			OscMessage message = new OscMessage("/flockClusters");
+			message.add(clusters.flockID[f]);
+			message.add(clusters.clusterStart[f + 1] - clusters.clusterStart[f]);
+			message.add(clusters.clusterChange[f]);
+			int end = Math.min(clusters.clusterStart[f + 1], clusters.clusterStart[f] + MAX_CLUSTERS_SENT);
+			for (int c = clusters.clusterStart[f]; c < end; c++) {
+				message.add(clusters.clusterSize[c]);
+				message.add(clusters.clusterX[c]);
+				message.add(clusters.clusterY[c]);
+				message.add(clusters.clusterZ[c]);
+			}
+			bundle = addToBundle(bundle, message);
+		}
+		if (bundle.size() > 0)
+			oscP5.send(bundle, maxLocation);
+	}
+
+	// send the proximity events of the last time step to Max, in bundles of up to MESSAGES_PER_BUNDLE
+	// messages (so each bundle fits in a UDP packet):
+	// "/proximityEnter" flockID A, boidID A, flockID B, boidID B, the point halfway between them (x, y, z)
+	// "/proximityExit" flockID A, boidID A, flockID B, boidID B
+	private void sendProximityEvents(ProximityEvents events) {
+
+		OscBundle bundle = new OscBundle();
+		for (int e = 0; e < events.entered.size; e++) {
+			OscMessage message = new OscMessage("/proximityEnter");
+			addPair(message, events.entered, e);
+			message.add(events.entered.x[e]);
+			message.add(events.entered.y[e]);
+			message.add(events.entered.z[e]);
+			bundle = addToBundle(bundle, message);
+		}
+		for (int e = 0; e < events.exited.size; e++) {
+			OscMessage message = new OscMessage("/proximityExit");
+			addPair(message, events.exited, e);
+			bundle = addToBundle(bundle, message);
+		}
+		if (bundle.size() > 0)
+			oscP5.send(bundle, maxLocation);
+	}
+
+	private static void addPair(OscMessage message, ProximityEvents.Contacts events, int e) {
+		message.add(events.flockA[e]);
+		message.add(events.boidA[e]);
+		message.add(events.flockB[e]);
+		message.add(events.boidB[e]);
+	}
+
+	// add the message to the bundle; if the bundle is full, send it first and start a new one
+	private OscBundle addToBundle(OscBundle bundle, OscMessage message) {
+
+		if (bundle.size() == MESSAGES_PER_BUNDLE) {
+			oscP5.send(bundle, maxLocation);
+			bundle = new OscBundle();
+		}
+		bundle.add(message);
+		return bundle;
+	}
+
+	// send the statistics of the given Flock after the last time step to Max (nothing if it has no Boids):
+	// flockID, mean location (x, y, z), mean absolute deviation of the locations (x, y, z),
+	// mean velocity (x, y, z), mean absolute deviation of the velocities (x, y, z),
+	// mean speed, mean absolute deviation of the speeds, variance of the speeds
+	private void sendFlockStats(Flock flock) {
+
+		FlockStats stats = flock.getStats();
+		if (stats == null)
+			return;
+
+		OscMessage message = new OscMessage("/FlockAnalysis");
+		message.add(flock.store.flockID);
+		message.add(stats.locationMeanX);
+		message.add(stats.locationMeanY);
+		message.add(stats.locationMeanZ);
+		message.add(stats.locationDeviationX);
+		message.add(stats.locationDeviationY);
+		message.add(stats.locationDeviationZ);
+		message.add(stats.velocityMeanX);
+		message.add(stats.velocityMeanY);
+		message.add(stats.velocityMeanZ);
+		message.add(stats.velocityDeviationX);
+		message.add(stats.velocityDeviationY);
+		message.add(stats.velocityDeviationZ);
+		message.add(stats.speedMean);
+		message.add(stats.speedDeviation);
+		message.add(stats.speedVariance);
+		oscP5.send(message, maxLocation);
+	}
+
 	// Max calls these to change the parameters of the Flocks  ---------------------------------------
+	// (a message for a Flock that doesn't exist, e.g. one that has been destroyed, is ignored)
+
+	// create a Flock with the given ID and number of Boids (nothing happens if there already is one)
+	public void createFlock(int flockID, int flockSize) {
+		world.createFlock(flockID, flockSize, flockType);
+	}
+
+	public void destroyFlock(int flockID) {
+		world.destroyFlock(flockID);
+	}
 
 	void setFlockSize(int flockSize, int flockID) {
-		allFlocks[flockID].setFlockSize(flockSize);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setFlockSize(flockSize);
 	}
 
 	void setVelocityScale(float velocityScale, int flockID){
-		allFlocks[flockID].setVelocityScale(velocityScale);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setVelocityScale(velocityScale);
 	}    
 
 	void setMaxSpeed(int maxSpeed, int flockID){
-		allFlocks[flockID].setMaxSpeed(maxSpeed);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setMaxSpeed(maxSpeed);
 	}
 
 	void setNormalSpeed(int normalSpeed, int flockID){
-		allFlocks[flockID].setNormalSpeed(normalSpeed);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setNormalSpeed(normalSpeed);
 	}
 
 	void setNeighborRadius(float radius, int flockID){
-		allFlocks[flockID].setNeighborRadius(radius);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setNeighborRadius(radius);
 	}
 
 	void setSeparationWeight(float separationWeight, int flockID){
-		allFlocks[flockID].setSeparationWeight(separationWeight);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setSeparationWeight(separationWeight);
 	}
 
 	void setAlignWeight (float alignWeight, int flockID){
-		allFlocks[flockID].setAlignWeight(alignWeight);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setAlignWeight(alignWeight);
 	}
 
 	void setCohesionWeight(float cohesionWeight, int flockID){
-		allFlocks[flockID].setCohesionWeight(cohesionWeight);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setCohesionWeight(cohesionWeight);
 	}
 
 	void setPacekeepingWeight(float paceKeepingWeight, int flockID){
-		allFlocks[flockID].setPacekeepingWeight(paceKeepingWeight);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setPacekeepingWeight(paceKeepingWeight);
 	}
 
 	void setRandomMotionProbability(float randomMotionProbability, int flockID){
-		allFlocks[flockID].setRandomMotionProbability(randomMotionProbability);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setRandomMotionProbability(randomMotionProbability);
 	}
 
 	void setProximityThreshold(int proximityThreshold, int flockID){
-		allFlocks[flockID].setProximityThreshold(proximityThreshold);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setProximityThreshold(proximityThreshold);
 	}
 
 	void setMortality(int mortality, int flockID){
-		allFlocks[flockID].setMortality(mortality == 1);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.setMortality(mortality == 1);
+	}
+
+	// selects how the Boids in a Flock calculate their new velocities,
+	// by the number of the velocity rule in VelocityRule.RULES
+	public void setVelocityRule(int ruleID, int flockID){
+		Flock flock = world.getFlock(flockID);
+		if (flock != null && ruleID >= 0 && ruleID < VelocityRule.RULES.length)
+			flock.setVelocityRule(VelocityRule.RULES[ruleID]);
+	}
+
+	// how the Boids of one Flock react to the Boids of another (or the same) Flock, for the
+	// INTERACTIONS velocity rule: separation, cohesion, and alignment weights, and neighborhood radius,
+	// each as a multiple of the Boids' own parameter (see FlockInteractions)
+	public void setInteraction(int flockID, int otherFlockID, float separation, float cohesion, float alignment, float radius){
+		world.setInteraction(flockID, otherFlockID, separation, cohesion, alignment, radius);
+	}
+
+	// how many time steps the simulation runs per second
+	public void setStepsPerSecond(int stepsPerSecond){
+		clock.setStepsPerSecond(stepsPerSecond);
+	}
+
+	public void setSendFlockStats(int send){
+		sendFlockStats = (send == 1);
+	}
+
+	// detect proximity events (see ProximityEvents), and send them to Max after each time step?
+	public void setProximityEvents(int detect){
+		world.setDetectProximity(detect == 1);
+	}
+
+	// find the clusters of every Flock (see FlockClusters), and send them to Max after each frame's time steps?
+	public void setSendClusters(int send){
+		sendClusters = (send == 1);
+	}
+
+	void setParallelStep(int parallel){
+		world.setParallelStep(parallel == 1);
+	}
+
+	void setPairwiseNeighbors(int pairwise){
+		world.setPairwiseNeighbors(pairwise == 1);
+	}
+
+	void setNeighborLists(int lists){
+		world.setNeighborLists(lists == 1);
 	}
 
 	void setWindVector(int windX, int windY, int windZ, int flockID){
-		windVector = new PVector (windX, windY, windZ);
+		world.setWind(windX, windY, windZ);
 	}
 
 	// 5/14/13
@@ -238,8 +571,9 @@ public class MusicSwarm extends PApplet {
 	// 5/14/13
 	// the parameter makeBoid appears not to be used in addNewBoid, so no longer sent 
 	void setAddNewBoid(int locationX, int locationY, int locationZ, int flockID, int makeBoid) {
-		PVector boidLocation = new PVector(locationX, locationY, locationZ);
-		allFlocks[flockID].addNewBoid(boidLocation);
+		Flock flock = world.getFlock(flockID);
+		if (flock != null)
+			flock.addNewBoid(locationX, locationY, locationZ);
 	}
 }
 
@@ -0,0 +1,245 @@
+/*
+ *
+ * Cached ("Verlet") neighbor lists: for every Boid, the other Boids (in any Flock) that were within
+ * its neighborhood radius plus a skin when the lists were built; for the next few time steps, the
+ * neighbors of a Boid are found by checking just the Boids on its list, instead of searching the grid
+ *
+ * A Boid's list has all of its neighbors as long as no Boid has moved more than skin/2 since the
+ * lists were built (two Boids that are within the radius now were within radius + skin then), and
+ * the Boid's neighborhood radius hasn't grown; so the lists are rebuilt when:
+ * 	- some Boid has moved more than skin/2, or some Boid's radius is larger than it was
+ * 	- a Boid was added or removed, or a Flock started or stopped having Boids (the lists refer
+ * 	  to the Boids by their numbers in the grid, which the grid only promises until it is rebuilt;
+ * 	  but since it numbers the Boids Flock by Flock, in index order, the same Boids in the same
+ * 	  Flocks get the same numbers again)
+ * 	- the lists have been used for stepsPerList time steps
+ * The same neighbors are found as with a grid search (their sums can differ in the last bits,
+ * because the neighbors are added up in a different order)
+ *
+ * The skin and stepsPerList adapt to how fast the Boids are moving: the skin is what the fastest
+ * Boid would cover in STEPS_PER_LIST time steps (there and back, within limits), and stepsPerList
+ * is how many time steps it would take the fastest Boid to cover half the skin; if the Boids are
+ * so fast that the lists wouldn't last MIN_STEPS_PER_LIST time steps, they aren't used at all
+ * (until the Boids slow down), and the neighbors are found in the grid as usual
+ *
+ * SwarmWorld updates the lists at the start of every time step (after the grid is rebuilt),
+ * when neighbor lists are turned on; Neighborhood.gather uses them when they are valid
+ *
+ */
+
+// data structures for the lists
+import java.util.Arrays;
+
+
+public class NeighborLists {
+
+	// how many time steps the lists should last, at the speed of the fastest Boid
+	private static final int STEPS_PER_LIST = 4;
+	// limits on the skin: too thin, and the lists are rebuilt all the time;
+	// too thick, and they have far more Boids on them than are actually neighbors
+	private static final float MIN_SKIN = 4.0f;
+	private static final float MAX_SKIN = 40.0f;
+	// never keep the lists longer than this; and don't bother with them if they
+	// wouldn't last at least MIN_STEPS_PER_LIST time steps
+	private static final int MAX_STEPS_PER_LIST = 20;
+	private static final int MIN_STEPS_PER_LIST = 2;
+
+	private final SpatialGrid grid;
+	private final SpatialGrid.Query query;
+
+	// the list of Boid number b is candidates[listStart[b]] ... candidates[listStart[b+1]-1]
+	// (Boid numbers as in the grid; see SpatialGrid.boidNumber)
+	private int[] listStart = new int[1];
+	int[] candidates = new int[0];
+	private int numBoids = 0;
+
+	// where each Boid was, and its neighborhood radius, when the lists were built
+	private float[] builtX = new float[0];
+	private float[] builtY = new float[0];
+	private float[] builtZ = new float[0];
+	private float[] builtRadius = new float[0];
+	// the Flocks that had Boids then (see FlockRegistry), and the total number of modifications
+	// of their stores (see BoidStore)
+	private Flock[] builtFlocks = null;
+	private long builtModifications = -1;
+
+	private boolean valid = false;
+	private float skin = MIN_SKIN;
+	private int stepsPerList = 1;
+	private int stepsUsed = 0;
+	// the farthest any Boid moved in the last time step
+	private float lastStepLength = 0.0f;
+
+	// how many times the lists have been built (for benchmarks)
+	private int numBuilds = 0;
+
+
+	// constructor
+	NeighborLists(SpatialGrid grid) {
+
+		this.grid = grid;
+		query = grid.newQuery();
+	}
+
+
+	// keep the lists for another time step, or rebuild them if they might be missing a neighbor
+	// (allFlocks are the Flocks that have Boids, as for the grid)
+	// NOTE: the grid must have been rebuilt for this time step, and the Boids must not change
+	// (other than moving) until the next call
+	void update(Flock[] allFlocks) {
+
+		long modifications = 0;
+		for (int f = 0; f < allFlocks.length; f++)
+			modifications += allFlocks[f].store.modifications;
+
+		// if a Boid was added or removed, the Boid numbers have changed, so the lists can't be checked
+		// (the array of Flocks is replaced whenever they aren't the same Flocks)
+		boolean numbersChanged = (allFlocks != builtFlocks || modifications != builtModifications);
+		boolean mustRebuild = !valid || numbersChanged || stepsUsed >= stepsPerList;
+		if (checkBoids(allFlocks, valid && !numbersChanged))
+			mustRebuild = true;
+
+		if (mustRebuild) {
+			adaptSkin(allFlocks);
+
+			// if the Boids are so fast that the lists wouldn't last, search the grid instead
+			if (stepsPerList < MIN_STEPS_PER_LIST) {
+				valid = false;
+				return;
+			}
+
+			build(allFlocks);
+			builtFlocks = allFlocks;
+			builtModifications = modifications;
+		}
+		++stepsUsed;
+	}
+
+
+	// stop using the lists (until the next update)
+	void invalidate() {
+		valid = false;
+	}
+
+	boolean isValid() {
+		return valid;
+	}
+
+	// the first and last+1 positions in candidates of the list of the Boid with the given number
+	int listStart(int boidNumber) {
+		return listStart[boidNumber];
+	}
+
+	int listEnd(int boidNumber) {
+		return listStart[boidNumber + 1];
+	}
+
+	float getSkin() {
+		return skin;
+	}
+
+	int getNumBuilds() {
+		return numBuilds;
+	}
+
+
+	// how far did the Boids move in the last time step? and (if checkLists is true) has some Boid
+	// moved more than skin/2 since the lists were built, or has its radius grown?
+	private boolean checkBoids(Flock[] allFlocks, boolean checkLists) {
+
+		float maxDistSquared = (skin / 2) * (skin / 2);
+		boolean mustRebuild = false;
+		lastStepLength = 0.0f;
+
+		for (int f = 0; f < allFlocks.length; f++) {
+			BoidStore store = allFlocks[f].store;
+			for (int i = 0; i < store.size; i++) {
+
+				// in the last time step (between time steps, the store's next arrays have where
+				// the Boids were before they last moved; see BoidStore)
+				float sx = store.x[i] - store.nextX[i], sy = store.y[i] - store.nextY[i], sz = store.z[i] - store.nextZ[i];
+				float stepLength = (float) Math.sqrt(sx*sx + sy*sy + sz*sz);
+				if (stepLength > lastStepLength)
+					lastStepLength = stepLength;
+
+				// since the lists were built
+				if (checkLists) {
+					int b = grid.boidNumber(store.flockID, i);
+					float dx = store.x[i] - builtX[b], dy = store.y[i] - builtY[b], dz = store.z[i] - builtZ[b];
+					if (dx*dx + dy*dy + dz*dz > maxDistSquared || store.neighborRadius.get(i) > builtRadius[b])
+						mustRebuild = true;
+				}
+			}
+		}
+		return mustRebuild;
+	}
+
+
+	// choose the skin, and how long the lists should be kept, from how fast the Boids are moving
+	private void adaptSkin(Flock[] allFlocks) {
+
+		// how far the fastest Boid went in the last time step; if no Boid has moved (e.g. they
+		// were just created), the fastest any Boid is allowed to go
+		float speed = lastStepLength;
+		if (speed == 0) {
+			for (int f = 0; f < allFlocks.length; f++) {
+				BoidStore store = allFlocks[f].store;
+				for (int i = 0; i < store.size; i++)
+					speed = Math.max(speed, store.maxSpeed.get(i));
+			}
+		}
+
+		skin = Math.min(Math.max(2 * STEPS_PER_LIST * speed, MIN_SKIN), MAX_SKIN);
+		stepsPerList = speed > 0 ? Math.min((int) (skin / (2 * speed)), MAX_STEPS_PER_LIST) : MAX_STEPS_PER_LIST;
+	}
+
+
+	// find the candidates of every Boid in the grid, with a skin that fits how fast the Boids move
+	private void build(Flock[] allFlocks) {
+
+		numBoids = grid.getNumBoids();
+		if (listStart.length < numBoids + 1) {
+			listStart = new int[numBoids + 1];
+			builtX = new float[numBoids];
+			builtY = new float[numBoids];
+			builtZ = new float[numBoids];
+			builtRadius = new float[numBoids];
+		}
+
+		int numCandidates = 0;
+		for (int f = 0; f < allFlocks.length; f++) {
+			BoidStore store = allFlocks[f].store;
+			for (int i = 0; i < store.size; i++) {
+				int b = grid.boidNumber(store.flockID, i);
+				float x = store.x[i], y = store.y[i], z = store.z[i];
+				float radius = store.neighborRadius.get(i) + skin;
+				float radiusSquared = radius * radius;
+
+				builtX[b] = x;
+				builtY[b] = y;
+				builtZ[b] = z;
+				builtRadius[b] = store.neighborRadius.get(i);
+				listStart[b] = numCandidates;
+
+				// the Boids are numbered Flock by Flock, so the lists are filled in order
+				query.gather(x, y, z, radius);
+				for (int r = 0 ; r < query.numRuns ; r++) {
+					for (int j = query.runStart[r] ; j < query.runEnd[r] ; j++) {
+						float dx = x - grid.x[j], dy = y - grid.y[j], dz = z - grid.z[j];
+						int candidate = grid.boidAt(j);
+						if (candidate != b && dx*dx + dy*dy + dz*dz <= radiusSquared) {
+							if (numCandidates == candidates.length)
+								candidates = Arrays.copyOf(candidates, Math.max(2 * numCandidates, 1024));
+							candidates[numCandidates++] = candidate;
+						}
+					}
+				}
+			}
+		}
+		listStart[numBoids] = numCandidates;
+
+		valid = true;
+		stepsUsed = 0;
+		++numBuilds;
+	}
+}
@@ -0,0 +1,484 @@
+/*
+ *
+ * The neighbors of one Boid, summed up the way the velocity rules need them:
+ * 	- separation: the sum of (own location - neighbor location) / distance^2, over the neighbors
+ * 	  in all the Flocks, and over the neighbors in the other Flocks only
+ * 	- the sums of the locations and velocities of the neighbors (for cohesion and alignment), and
+ * 	  the number of neighbors, for the Boid's own Flock and for all the Flocks
+ *
+ * Every velocity rule (see VelocityRule) finds the neighbors of a Boid the same way (the Boids within
+ * the Boid's neighborhood radius, other than itself), so they all use gather() to do it, and then
+ * weight and combine the sums however they want
+ *
+ * Each thread that calculates new velocities needs its own Neighborhood (it is reused for every Boid
+ * the thread does, so calculating a new velocity doesn't allocate anything)
+ *
+ * There are two ways of going through the candidate neighbors from the grid, which give the same sums:
+ * 	- one candidate at a time (gatherScalar), with a branch for whether it is a neighbor
+ * 	- a block of candidates at a time (gatherBlocked): first the squared distances of the whole
+ * 	  block, in a loop with no branches and no sums that the JIT compiler can vectorize, then the
+ * 	  list of the neighbors in the block (without branches), then the sums over just those
+ * Both compare the squared distance to the squared radius, so no square root is taken; the way it
+ * used to be done, with a square root for every candidate (gatherSqrt), is kept only so that
+ * NeighborhoodBenchmark can measure what that saves for each velocity rule
+ * When the neighbor lists are being used (see NeighborLists), the candidates are the Boids on the
+ * Boid's list instead of the Boids the grid finds, and they are gone through one at a time
+ *
+ * The blocked kernel is only used if the program is started with -Dswarm.blockedNeighbors=true;
+ * NeighborhoodBenchmark compares the two (as of this writing, the runs of candidates from the grid
+ * are too short for the blocks to pay off, so one at a time is faster)
+ *
+ */
+
+public class Neighborhood {
+
+	// for finding the candidate neighbors in the grid
+	private final SpatialGrid.Query query;
+	// or on the cached lists of candidates, when they are valid
+	private final NeighborLists neighborLists;
+
+	// the sums over the neighbors found by the last call to gather
+	final Vector3 separation = new Vector3();
+	final Vector3 separationOtherFlocks = new Vector3();
+	final Vector3 locationsOwnFlock = new Vector3();
+	final Vector3 velocitiesOwnFlock = new Vector3();
+	int numNeighborsOwnFlock = 0;
+	final Vector3 locationsAllFlocks = new Vector3();
+	final Vector3 velocitiesAllFlocks = new Vector3();
+	int numNeighborsAllFlocks = 0;
+
+	// the sums over the neighbors found by the last call to gatherInteractions, weighted by the
+	// entries for the pair of Flocks (see FlockInteractions): the weighted separation, the weighted
+	// sums of the locations and velocities, the sums of the weights, and the number of neighbors
+	// that were counted for cohesion and for alignment
+	final Vector3 weightedSeparation = new Vector3();
+	final Vector3 weightedLocations = new Vector3();
+	final Vector3 weightedVelocities = new Vector3();
+	float cohesionWeights = 0.0f;
+	float alignmentWeights = 0.0f;
+	float numCohesionNeighbors = 0.0f;
+	float numAlignmentNeighbors = 0.0f;
+
+	// scratch space for the velocity rules, for adding up the acceleration
+	final Vector3 acceleration = new Vector3();
+
+	// the ways of going through the candidate neighbors (see gather)
+	static final int SCALAR_KERNEL = 0;
+	static final int BLOCKED_KERNEL = 1;
+	static final int SQRT_KERNEL = 2;
+
+	// the way every Neighborhood goes through them, unless it is told otherwise (decided once, at startup)
+	static final int DEFAULT_KERNEL = Boolean.getBoolean("swarm.blockedNeighbors") ? BLOCKED_KERNEL : SCALAR_KERNEL;
+	int kernel = DEFAULT_KERNEL;
+
+	// number of candidate neighbors in a block, and the squared distances and neighbors for one block
+	private static final int BLOCK_SIZE = 64;
+	private final float[] blockDistSquared = new float[BLOCK_SIZE];
+	private final int[] blockNeighbors = new int[BLOCK_SIZE];
+
+
+	// constructor
+	Neighborhood(SpatialGrid grid, NeighborLists neighborLists) {
+
+		query = grid.newQuery();
+		this.neighborLists = neighborLists;
+	}
+
+
+	// find the neighbors of the Boid at the given index in the given Flock (at location x, y, z,
+	// with the given neighborhood radius) in the grid and sum them up
+	void gather(int flockID, int index, float x, float y, float z, float neighborRadius) {
+
+		gather(flockID, index, x, y, z, neighborRadius, kernel);
+	}
+
+	// the same, going through the candidates with the given kernel (see NeighborhoodBenchmark)
+	void gather(int flockID, int index, float x, float y, float z, float neighborRadius, int kernel) {
+
+		SpatialGrid grid = query.grid();
+
+		// the sums might already have been accumulated for this radius, one pair of Boids at a time
+		// (see SpatialGrid.accumulatePairs), if the Boid has the radius they were accumulated for
+		if (grid.hasPairSums(neighborRadius)) {
+			int p = grid.position(flockID, index);
+			if (grid.hasPairSums(p, neighborRadius)) {
+				getPairSums(grid.pairSums, p * SpatialGrid.PAIR_SUMS);
+				return;
+			}
+		}
+
+		// the candidates might already have been found, for a few time steps at a time
+		if (neighborLists.isValid()) {
+			gatherListed(grid.boidNumber(flockID, index), flockID, x, y, z, neighborRadius);
+			return;
+		}
+
+		// the grid gives us the Boids that might be in the neighborhood, so we don't look at every Boid
+		query.gather(x, y, z, neighborRadius);
+
+		switch (kernel) {
+		case BLOCKED_KERNEL:
+			gatherBlocked(flockID, x, y, z, neighborRadius);
+			break;
+		case SQRT_KERNEL:
+			gatherSqrt(flockID, x, y, z, neighborRadius);
+			break;
+		default:
+			gatherScalar(flockID, x, y, z, neighborRadius);
+		}
+	}
+
+
+	// find the neighbors of the Boid at the given index in the given Flock (at location x, y, z,
+	// with the given neighborhood radius) in the grid, and sum them up weighted by how the Boid's
+	// Flock reacts to each neighbor's Flock; the same loop for every pair of Flocks, with the
+	// entries for the pair read by the neighbor's Flock ID (with every entry 1, the sums are the
+	// same as the sums over all the Flocks from gather with the grid)
+	void gatherInteractions(int flockID, int index, float x, float y, float z, float neighborRadius,
+			FlockInteractions interactions) {
+
+		SpatialGrid grid = query.grid();
+		float[] gridX = grid.x, gridY = grid.y, gridZ = grid.z;
+		float[] gridVx = grid.vx, gridVy = grid.vy, gridVz = grid.vz;
+		int[] gridFlockID = grid.flockID;
+		float[] separationWeights = interactions.separation;
+		float[] cohesion = interactions.cohesion, alignment = interactions.alignment;
+		float[] cohesionCounts = interactions.cohesionCounts, alignmentCounts = interactions.alignmentCounts;
+		float[] radius = interactions.radius;
+		int row = interactions.row(flockID);
+		boolean sqrt = kernel == SQRT_KERNEL;
+
+		float separationX = 0.0f, separationY = 0.0f, separationZ = 0.0f;
+		float locationsX = 0.0f, locationsY = 0.0f, locationsZ = 0.0f;
+		float velocitiesX = 0.0f, velocitiesY = 0.0f, velocitiesZ = 0.0f;
+		float cohesionSum = 0.0f, alignmentSum = 0.0f, numCohesion = 0.0f, numAlignment = 0.0f;
+
+		// the candidates within the largest radius for the Boid's Flock
+		query.gather(x, y, z, neighborRadius * interactions.maxRadius[flockID]);
+
+		for (int r = 0 ; r < query.numRuns ; r++) {
+			for (int j = query.runStart[r] ; j < query.runEnd[r] ; j++) {
+
+				int pair = row + gridFlockID[j];
+				float dx = x - gridX[j];
+				float dy = y - gridY[j];
+				float dz = z - gridZ[j];
+				float distSquared = dx*dx + dy*dy + dz*dz;
+				float pairRadius = neighborRadius * radius[pair];
+
+				// the way it used to be done, with a square root for every candidate (see gatherSqrt)
+				boolean isNeighbor;
+				if (sqrt) {
+					float dist = (float) Math.sqrt(distSquared);
+					isNeighbor = dist > 0 && dist <= pairRadius;
+					distSquared = dist*dist;
+				}
+				else {
+					isNeighbor = distSquared > 0 && distSquared <= pairRadius * pairRadius;
+				}
+
+				if (isNeighbor) {
+
+					float s = separationWeights[pair];
+					separationX += s * (dx / distSquared);
+					separationY += s * (dy / distSquared);
+					separationZ += s * (dz / distSquared);
+
+					float c = cohesion[pair];
+					locationsX += c * gridX[j];
+					locationsY += c * gridY[j];
+					locationsZ += c * gridZ[j];
+					cohesionSum += c;
+					numCohesion += cohesionCounts[pair];
+
+					float a = alignment[pair];
+					velocitiesX += a * gridVx[j];
+					velocitiesY += a * gridVy[j];
+					velocitiesZ += a * gridVz[j];
+					alignmentSum += a;
+					numAlignment += alignmentCounts[pair];
+				}
+			}
+		}
+
+		weightedSeparation.set(separationX, separationY, separationZ);
+		weightedLocations.set(locationsX, locationsY, locationsZ);
+		weightedVelocities.set(velocitiesX, velocitiesY, velocitiesZ);
+		cohesionWeights = cohesionSum;
+		alignmentWeights = alignmentSum;
+		numCohesionNeighbors = numCohesion;
+		numAlignmentNeighbors = numAlignment;
+	}
+
+
+	// the query the grid is searched with (e.g. for the pairs of neighbors; see ParallelStep)
+	SpatialGrid.Query query() {
+		return query;
+	}
+
+
+	// the sums of the Boid whose sums start at sums[s] (see SpatialGrid.pairSums)
+	private void getPairSums(float[] sums, int s) {
+
+		separation.set(sums[s + SpatialGrid.SEPARATION], sums[s + SpatialGrid.SEPARATION + 1],
+				sums[s + SpatialGrid.SEPARATION + 2]);
+		separationOtherFlocks.set(sums[s + SpatialGrid.SEPARATION_OTHER_FLOCKS], sums[s + SpatialGrid.SEPARATION_OTHER_FLOCKS + 1],
+				sums[s + SpatialGrid.SEPARATION_OTHER_FLOCKS + 2]);
+		locationsOwnFlock.set(sums[s + SpatialGrid.LOCATIONS_OWN_FLOCK], sums[s + SpatialGrid.LOCATIONS_OWN_FLOCK + 1],
+				sums[s + SpatialGrid.LOCATIONS_OWN_FLOCK + 2]);
+		velocitiesOwnFlock.set(sums[s + SpatialGrid.VELOCITIES_OWN_FLOCK], sums[s + SpatialGrid.VELOCITIES_OWN_FLOCK + 1],
+				sums[s + SpatialGrid.VELOCITIES_OWN_FLOCK + 2]);
+		numNeighborsOwnFlock = (int) sums[s + SpatialGrid.NUM_NEIGHBORS_OWN_FLOCK];
+		locationsAllFlocks.set(sums[s + SpatialGrid.LOCATIONS_ALL_FLOCKS], sums[s + SpatialGrid.LOCATIONS_ALL_FLOCKS + 1],
+				sums[s + SpatialGrid.LOCATIONS_ALL_FLOCKS + 2]);
+		velocitiesAllFlocks.set(sums[s + SpatialGrid.VELOCITIES_ALL_FLOCKS], sums[s + SpatialGrid.VELOCITIES_ALL_FLOCKS + 1],
+				sums[s + SpatialGrid.VELOCITIES_ALL_FLOCKS + 2]);
+		numNeighborsAllFlocks = (int) sums[s + SpatialGrid.NUM_NEIGHBORS_ALL_FLOCKS];
+	}
+
+
+	// sum up the neighbors among the candidates found by the query, one candidate at a time
+	private void gatherScalar(int flockID, float x, float y, float z, float neighborRadius) {
+
+		SpatialGrid grid = query.grid();
+
+		separation.set(0.0f, 0.0f, 0.0f);
+		separationOtherFlocks.set(0.0f, 0.0f, 0.0f);
+		locationsOwnFlock.set(0.0f, 0.0f, 0.0f);
+		velocitiesOwnFlock.set(0.0f, 0.0f, 0.0f);
+		numNeighborsOwnFlock = 0;
+		locationsAllFlocks.set(0.0f, 0.0f, 0.0f);
+		velocitiesAllFlocks.set(0.0f, 0.0f, 0.0f);
+		numNeighborsAllFlocks = 0;
+
+		float neighborRadiusSquared = neighborRadius * neighborRadius;
+
+		for (int r = 0 ; r < query.numRuns ; r++) {
+			for (int j = query.runStart[r] ; j < query.runEnd[r] ; j++) {
+
+				int nextFlockID = grid.flockID[j];
+				float dx = x - grid.x[j];
+				float dy = y - grid.y[j];
+				float dz = z - grid.z[j];
+				float distSquared = dx*dx + dy*dy + dz*dz;
+
+				// distSquared > 0 so that a Boid does not count itself as a Boid in the neighborhood
+				// (comparing squared distances, so no square root for the Boids that aren't neighbors)
+				if (distSquared > 0 && distSquared <= neighborRadiusSquared) {
+
+					// vector pointing away from the neighbor, inversely proportional to the square of the distance
+					float sx = dx / distSquared, sy = dy / distSquared, sz = dz / distSquared;
+					separation.add(sx, sy, sz);
+
+					if (nextFlockID == flockID) {
+						locationsOwnFlock.add(grid.x[j], grid.y[j], grid.z[j]);
+						velocitiesOwnFlock.add(grid.vx[j], grid.vy[j], grid.vz[j]);
+						++numNeighborsOwnFlock;
+					}
+					else {
+						separationOtherFlocks.add(sx, sy, sz);
+					}
+
+					locationsAllFlocks.add(grid.x[j], grid.y[j], grid.z[j]);
+					velocitiesAllFlocks.add(grid.vx[j], grid.vy[j], grid.vz[j]);
+					++numNeighborsAllFlocks;
+				}
+			}
+		}
+	}
+
+
+	// the same, the way it used to be done: the distance to every candidate, with a square root,
+	// compared to the radius (only for measuring what the squared distances save)
+	private void gatherSqrt(int flockID, float x, float y, float z, float neighborRadius) {
+
+		SpatialGrid grid = query.grid();
+
+		separation.set(0.0f, 0.0f, 0.0f);
+		separationOtherFlocks.set(0.0f, 0.0f, 0.0f);
+		locationsOwnFlock.set(0.0f, 0.0f, 0.0f);
+		velocitiesOwnFlock.set(0.0f, 0.0f, 0.0f);
+		numNeighborsOwnFlock = 0;
+		locationsAllFlocks.set(0.0f, 0.0f, 0.0f);
+		velocitiesAllFlocks.set(0.0f, 0.0f, 0.0f);
+		numNeighborsAllFlocks = 0;
+
+		for (int r = 0 ; r < query.numRuns ; r++) {
+			for (int j = query.runStart[r] ; j < query.runEnd[r] ; j++) {
+
+				int nextFlockID = grid.flockID[j];
+				float dx = x - grid.x[j];
+				float dy = y - grid.y[j];
+				float dz = z - grid.z[j];
+				float dist = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+				// dist > 0 so that a Boid does not count itself as a Boid in the neighborhood
+				if (dist > 0 && dist <= neighborRadius) {
+
+					// vector pointing away from the neighbor, inversely proportional to the square of the distance
+					float distSquared = dist*dist;
+					float sx = dx / distSquared, sy = dy / distSquared, sz = dz / distSquared;
+					separation.add(sx, sy, sz);
+
+					if (nextFlockID == flockID) {
+						locationsOwnFlock.add(grid.x[j], grid.y[j], grid.z[j]);
+						velocitiesOwnFlock.add(grid.vx[j], grid.vy[j], grid.vz[j]);
+						++numNeighborsOwnFlock;
+					}
+					else {
+						separationOtherFlocks.add(sx, sy, sz);
+					}
+
+					locationsAllFlocks.add(grid.x[j], grid.y[j], grid.z[j]);
+					velocitiesAllFlocks.add(grid.vx[j], grid.vy[j], grid.vz[j]);
+					++numNeighborsAllFlocks;
+				}
+			}
+		}
+	}
+
+
+	// sum up the neighbors among the candidates on the list of the Boid with the given number
+	private void gatherListed(int boidNumber, int flockID, float x, float y, float z, float neighborRadius) {
+
+		SpatialGrid grid = query.grid();
+		int[] candidates = neighborLists.candidates;
+
+		separation.set(0.0f, 0.0f, 0.0f);
+		separationOtherFlocks.set(0.0f, 0.0f, 0.0f);
+		locationsOwnFlock.set(0.0f, 0.0f, 0.0f);
+		velocitiesOwnFlock.set(0.0f, 0.0f, 0.0f);
+		numNeighborsOwnFlock = 0;
+		locationsAllFlocks.set(0.0f, 0.0f, 0.0f);
+		velocitiesAllFlocks.set(0.0f, 0.0f, 0.0f);
+		numNeighborsAllFlocks = 0;
+
+		float neighborRadiusSquared = neighborRadius * neighborRadius;
+
+		int end = neighborLists.listEnd(boidNumber);
+		for (int c = neighborLists.listStart(boidNumber) ; c < end ; c++) {
+
+			// where the candidate is in the grid this time step
+			int j = grid.positionOfBoid(candidates[c]);
+
+			float dx = x - grid.x[j];
+			float dy = y - grid.y[j];
+			float dz = z - grid.z[j];
+			float distSquared = dx*dx + dy*dy + dz*dz;
+
+			if (distSquared > 0 && distSquared <= neighborRadiusSquared) {
+
+				// vector pointing away from the neighbor, inversely proportional to the square of the distance
+				float sx = dx / distSquared, sy = dy / distSquared, sz = dz / distSquared;
+				separation.add(sx, sy, sz);
+
+				if (grid.flockID[j] == flockID) {
+					locationsOwnFlock.add(grid.x[j], grid.y[j], grid.z[j]);
+					velocitiesOwnFlock.add(grid.vx[j], grid.vy[j], grid.vz[j]);
+					++numNeighborsOwnFlock;
+				}
+				else {
+					separationOtherFlocks.add(sx, sy, sz);
+				}
+
+				locationsAllFlocks.add(grid.x[j], grid.y[j], grid.z[j]);
+				velocitiesAllFlocks.add(grid.vx[j], grid.vy[j], grid.vz[j]);
+				++numNeighborsAllFlocks;
+			}
+		}
+	}
+
+
+	// sum up the neighbors among the candidates found by the query, a block of candidates at a time
+	// NOTE: gives exactly the same sums as gatherScalar (the neighbors are added in the same order)
+	private void gatherBlocked(int flockID, float x, float y, float z, float neighborRadius) {
+
+		SpatialGrid grid = query.grid();
+		float[] gridX = grid.x, gridY = grid.y, gridZ = grid.z;
+		float[] gridVx = grid.vx, gridVy = grid.vy, gridVz = grid.vz;
+		int[] gridFlockID = grid.flockID;
+		float[] distSquared = blockDistSquared;
+		int[] neighbors = blockNeighbors;
+
+		float neighborRadiusSquared = neighborRadius * neighborRadius;
+
+		float separationX = 0.0f, separationY = 0.0f, separationZ = 0.0f;
+		float separationOtherX = 0.0f, separationOtherY = 0.0f, separationOtherZ = 0.0f;
+		float locationsOwnX = 0.0f, locationsOwnY = 0.0f, locationsOwnZ = 0.0f;
+		float velocitiesOwnX = 0.0f, velocitiesOwnY = 0.0f, velocitiesOwnZ = 0.0f;
+		float locationsAllX = 0.0f, locationsAllY = 0.0f, locationsAllZ = 0.0f;
+		float velocitiesAllX = 0.0f, velocitiesAllY = 0.0f, velocitiesAllZ = 0.0f;
+		int numOwn = 0, numAll = 0;
+
+		for (int r = 0 ; r < query.numRuns ; r++) {
+			int runEnd = query.runEnd[r];
+			for (int blockStart = query.runStart[r] ; blockStart < runEnd ; blockStart += BLOCK_SIZE) {
+				int n = Math.min(BLOCK_SIZE, runEnd - blockStart);
+
+				// the squared distances for the whole block (a loop the JIT compiler can vectorize)
+				for (int k = 0 ; k < n ; k++) {
+					int j = blockStart + k;
+					float dx = x - gridX[j];
+					float dy = y - gridY[j];
+					float dz = z - gridZ[j];
+					distSquared[k] = dx*dx + dy*dy + dz*dz;
+				}
+
+				// the neighbor mask, as a list of the neighbors in the block; every candidate is
+				// written, but the count only goes up for a neighbor, so there is no branch
+				// (a Boid does not count itself as a Boid in the neighborhood: distSquared > 0)
+				int numNeighbors = 0;
+				for (int k = 0 ; k < n ; k++) {
+					float d = distSquared[k];
+					neighbors[numNeighbors] = k;
+					numNeighbors += (d > 0 && d <= neighborRadiusSquared) ? 1 : 0;
+				}
+
+				// the sums over the neighbors in the block
+				for (int m = 0 ; m < numNeighbors ; m++) {
+					int k = neighbors[m];
+					int j = blockStart + k;
+					float d = distSquared[k];
+
+					// vector pointing away from the neighbor, inversely proportional to the square of the distance
+					float sx = (x - gridX[j]) / d, sy = (y - gridY[j]) / d, sz = (z - gridZ[j]) / d;
+					separationX += sx;
+					separationY += sy;
+					separationZ += sz;
+
+					if (gridFlockID[j] == flockID) {
+						locationsOwnX += gridX[j];
+						locationsOwnY += gridY[j];
+						locationsOwnZ += gridZ[j];
+						velocitiesOwnX += gridVx[j];
+						velocitiesOwnY += gridVy[j];
+						velocitiesOwnZ += gridVz[j];
+						++numOwn;
+					}
+					else {
+						separationOtherX += sx;
+						separationOtherY += sy;
+						separationOtherZ += sz;
+					}
+
+					locationsAllX += gridX[j];
+					locationsAllY += gridY[j];
+					locationsAllZ += gridZ[j];
+					velocitiesAllX += gridVx[j];
+					velocitiesAllY += gridVy[j];
+					velocitiesAllZ += gridVz[j];
+				}
+				numAll += numNeighbors;
+			}
+		}
+
+		separation.set(separationX, separationY, separationZ);
+		separationOtherFlocks.set(separationOtherX, separationOtherY, separationOtherZ);
+		locationsOwnFlock.set(locationsOwnX, locationsOwnY, locationsOwnZ);
+		velocitiesOwnFlock.set(velocitiesOwnX, velocitiesOwnY, velocitiesOwnZ);
+		numNeighborsOwnFlock = numOwn;
+		locationsAllFlocks.set(locationsAllX, locationsAllY, locationsAllZ);
+		velocitiesAllFlocks.set(velocitiesAllX, velocitiesAllY, velocitiesAllZ);
+		numNeighborsAllFlocks = numAll;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ * Compares the ways Neighborhood goes through the candidate neighbors of a Boid (see Neighborhood),
+ * without a display:
+ * 	java NeighborhoodBenchmark [flock size] [number of flocks] [number of repetitions]
+ *
+ * The Flocks are run for a while first, so the Boids are bunched up the way they usually are; then
+ * 	- the neighbors of every Boid are gathered one candidate at a time and a block at a time, the
+ * 	  sums are checked to be the same, and the time for each way is reported
+ * 	- the new velocities of every Boid are calculated with each velocity rule (see VelocityRule),
+ * 	  testing the candidates on their squared distance (as the simulation does) and on their
+ * 	  distance, with a square root for every candidate (as it used to), and the time for each
+ * 	  rule both ways is reported
+ *
+ */
+
+public class NeighborhoodBenchmark {
+
+	private static final int WARM_UP_STEPS = 200;
+
+	public static void main(String[] args) {
+
+		int flockSize = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int numFlocks = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		int[] flockSizes = new int[numFlocks+1];
+		for (int flockID = 1; flockID <= numFlocks; flockID++)
+			flockSizes[flockID] = flockSize;
+		SwarmWorld world = new SwarmWorld(400, 400, 400, flockSizes, SwarmWorld.DEFAULT_FLOCK);
+		for (int i = 0; i < WARM_UP_STEPS; i++)
+			world.step();
+
+		Neighborhood scalar = new Neighborhood(world.getGrid(), world.getNeighborLists());
+		Neighborhood blocked = new Neighborhood(world.getGrid(), world.getNeighborLists());
+
+		// the same sums both ways?
+		int mismatches = 0;
+		for (int flockID = 1; flockID <= numFlocks; flockID++) {
+			BoidStore store = world.getFlock(flockID).store;
+			for (int i = 0; i < store.size; i++) {
+				gather(scalar, world, flockID, i, Neighborhood.SCALAR_KERNEL);
+				gather(blocked, world, flockID, i, Neighborhood.BLOCKED_KERNEL);
+				if (!sameSums(scalar, blocked))
+					++mismatches;
+			}
+		}
+		System.out.printf("%d boids, %d with different sums\n", numFlocks * flockSize, mismatches);
+
+		// alternate, so both get the same chance to be compiled
+		long scalarTime = 0, blockedTime = 0;
+		for (int rep = 0; rep < repetitions; rep++) {
+			scalarTime += time(scalar, world, numFlocks, Neighborhood.SCALAR_KERNEL);
+			blockedTime += time(blocked, world, numFlocks, Neighborhood.BLOCKED_KERNEL);
+		}
+		System.out.printf("one at a time:  %.2f ms per pass over all the boids\n", scalarTime / 1e6 / repetitions);
+		System.out.printf("block at a time: %.2f ms per pass over all the boids\n", blockedTime / 1e6 / repetitions);
+
+		// each velocity rule, on the Boids where they were when the grid was last built (only the
+		// next states are calculated, so the Boids don't move; a Behavior can change their parameters)
+		Neighborhood squared = new Neighborhood(world.getGrid(), world.getNeighborLists());
+		Neighborhood sqrt = new Neighborhood(world.getGrid(), world.getNeighborLists());
+		sqrt.kernel = Neighborhood.SQRT_KERNEL;
+		Flock[] allFlocks = world.getFlocks();
+		// every rule both ways a few times first, so the times don't include compiling them
+		for (int rep = 0; rep < repetitions; rep++) {
+			for (int r = 0; r < VelocityRule.RULES.length; r++) {
+				time(VelocityRule.RULES[r], squared, allFlocks);
+				time(VelocityRule.RULES[r], sqrt, allFlocks);
+			}
+		}
+		for (int r = 0; r < VelocityRule.RULES.length; r++) {
+			long squaredTime = 0, sqrtTime = 0;
+			for (int rep = 0; rep < repetitions; rep++) {
+				squaredTime += time(VelocityRule.RULES[r], squared, allFlocks);
+				sqrtTime += time(VelocityRule.RULES[r], sqrt, allFlocks);
+			}
+			System.out.printf("rule %d: %.2f ms on squared distances, %.2f ms with a square root (%.0f%% saved)\n",
+					r, squaredTime / 1e6 / repetitions, sqrtTime / 1e6 / repetitions,
+					100.0 * (sqrtTime - squaredTime) / sqrtTime);
+		}
+	}
+
+
+	// gather the neighbors of every Boid in every Flock; returns the time it took
+	private static long time(Neighborhood neighborhood, SwarmWorld world, int numFlocks, int kernel) {
+
+		long start = System.nanoTime();
+		for (int flockID = 1; flockID <= numFlocks; flockID++) {
+			BoidStore store = world.getFlock(flockID).store;
+			for (int i = 0; i < store.size; i++)
+				gather(neighborhood, world, flockID, i, kernel);
+		}
+		return System.nanoTime() - start;
+	}
+
+	// calculate the new velocities of every Boid in every Flock with the given rule; returns the time it took
+	private static long time(VelocityRule rule, Neighborhood neighborhood, Flock[] allFlocks) {
+
+		long start = System.nanoTime();
+		for (int f = 0; f < allFlocks.length; f++)
+			rule.calcNewVelocities(allFlocks[f], allFlocks, neighborhood, 0, allFlocks[f].store.size);
+		return System.nanoTime() - start;
+	}
+
+	// gather the neighbors of the Boid at the given index, where it was when the grid was built
+	private static void gather(Neighborhood neighborhood, SwarmWorld world, int flockID, int index, int kernel) {
+
+		SpatialGrid grid = world.getGrid();
+		int p = grid.position(flockID, index);
+		float neighborRadius = world.getFlock(flockID).store.neighborRadius.get(index);
+		neighborhood.gather(flockID, index, grid.x[p], grid.y[p], grid.z[p], neighborRadius, kernel);
+	}
+
+	private static boolean sameSums(Neighborhood a, Neighborhood b) {
+
+		return same(a.separation, b.separation) && same(a.separationOtherFlocks, b.separationOtherFlocks)
+				&& same(a.locationsOwnFlock, b.locationsOwnFlock) && same(a.velocitiesOwnFlock, b.velocitiesOwnFlock)
+				&& same(a.locationsAllFlocks, b.locationsAllFlocks) && same(a.velocitiesAllFlocks, b.velocitiesAllFlocks)
+				&& a.numNeighborsOwnFlock == b.numNeighborsOwnFlock && a.numNeighborsAllFlocks == b.numNeighborsAllFlocks;
+	}
+
+	private static boolean same(Vector3 a, Vector3 b) {
+		return a.x == b.x && a.y == b.y && a.z == b.z;
+	}
+}
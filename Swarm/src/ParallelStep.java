@@ -0,0 +1,245 @@
+/*
+ *
+ * Computes the next location and velocity of every Boid in every Flock in parallel, on a ForkJoinPool
+ *
+ * This is only the first phase of a time step: each Boid reads the grid (a snapshot of all the
+ * Boids' locations and velocities taken when the grid was rebuilt) and its own current entries in
+ * its Flock's store, and writes only its own next location, next velocity, and parameters, so the
+ * Boids can be processed in any order and on any thread without locking; the second phase
+ * (Flock.commit, which swaps the next states in) is done afterwards on the thread that runs the time steps
+ *
+ * The sums over the pairs of neighbors (see SpatialGrid.accumulatePairs), if they are being used,
+ * are done on the pool as well, before the first phase: a slab of the grid adds to its own Boids
+ * and to the Boids in the next slab, so the even slabs are done at the same time, and then the odd
+ * ones, in the same order as on one thread
+ *
+ * NOTE: no Flock changes size while the step is running, because changes from Max are only
+ * made at the start of a time step (see Flock.applyChanges)
+ *
+ */
+
+// for the tasks
+import java.util.Arrays;
+// for running the step on all the cores
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class ParallelStep {
+
+	// don't split the Boids of a Flock into tasks smaller than this
+	private static final int BOIDS_PER_TASK = 64;
+
+	// one pool for every SwarmWorld in the program, with a worker for each core; a world that
+	// isn't used any more leaves no threads behind (the workers are daemon threads, and stop by
+	// themselves once the pool has had nothing to do for a while)
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	private final SpatialGrid grid;
+
+	// each worker thread needs its own Neighborhood for finding and summing up the neighbors
+	private final ThreadLocal<Neighborhood> neighborhoods;
+
+	// the tasks of the time step: each does up to BOIDS_PER_TASK Boids of one Flock, or the pairs of
+	// neighbors in one slab of the grid; the tasks (and the task that runs them) are kept and run
+	// again in the next time step, so nothing is allocated (see ReusableTask for why they can be)
+	private BoidRange[] boidRanges = new BoidRange[0];
+	private PairSlab[] pairSlabs = new PairSlab[0];
+	private final StepTask step = new StepTask();
+
+	// the tasks that are being run
+	private CountedTask[] tasks;
+	private int numTasks = 0;
+
+	// the tasks don't join each other, and the thread that runs the time steps doesn't join them
+	// either (a thread that waits in join or invoke allocates a node to wait in): counting itself off
+	// is the last thing each task does, and the last one wakes up the thread that runs the time steps
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile Thread waiting;
+	// the first thing a task threw, if any (thrown again on the thread that runs the time steps)
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+
+	// constructor
+	ParallelStep(final SpatialGrid grid, final NeighborLists neighborLists) {
+
+		this.grid = grid;
+		neighborhoods = new ThreadLocal<Neighborhood>() {
+			@Override
+			protected Neighborhood initialValue() {
+				return new Neighborhood(grid, neighborLists);
+			}
+		};
+	}
+
+
+	// compute the next state of every Boid in the given Flocks (the ones that have Boids;
+	// see FlockRegistry); returns when all are done
+	void computeNextStates(Flock[] allFlocks) {
+
+		// divide the Boids of each Flock into tasks
+		int n = 0;
+		for (int f = 0; f < allFlocks.length; f++) {
+			int size = allFlocks[f].store.size;
+			for (int from = 0; from < size; from += BOIDS_PER_TASK) {
+				if (n == boidRanges.length) {
+					boidRanges = Arrays.copyOf(boidRanges, Math.max(2 * n, 16));
+					for (int t = n; t < boidRanges.length; t++)
+						boidRanges[t] = new BoidRange();
+				}
+				boidRanges[n++].set(allFlocks, f, from, Math.min(from + BOIDS_PER_TASK, size));
+			}
+		}
+
+		run(boidRanges, n);
+	}
+
+
+	// sum up the neighbors of the Boids that have the given neighborhood radius, one pair of Boids
+	// at a time (see SpatialGrid.accumulatePairs); returns when the sums are done
+	void accumulatePairs(float radius) {
+
+		int numSlabs = grid.startPairs(radius);
+		if (pairSlabs.length < numSlabs) {
+			pairSlabs = new PairSlab[numSlabs];
+			for (int s = 0; s < numSlabs; s++)
+				pairSlabs[s] = new PairSlab();
+		}
+
+		// the even slabs, then the odd ones
+		for (int first = 0; first < 2; first++) {
+			int n = 0;
+			for (int slab = first; slab < numSlabs; slab += 2)
+				pairSlabs[n++].slab = slab;
+			run(pairSlabs, n);
+		}
+
+		grid.finishPairs();
+	}
+
+
+	// run the first n of the given tasks on the pool; returns when all are done
+	private void run(CountedTask[] tasks, int n) {
+
+		if (n == 0)
+			return;
+
+		this.tasks = tasks;
+		numTasks = n;
+		waiting = Thread.currentThread();
+		pending.set(n);
+		POOL.execute(step);
+		while (pending.get() > 0)
+			LockSupport.park(this);
+
+		Throwable thrown = failure.getAndSet(null);
+		if (thrown instanceof RuntimeException)
+			throw (RuntimeException) thrown;
+		if (thrown instanceof Error)
+			throw (Error) thrown;
+	}
+
+
+	// a task that the pool never marks as done: exec() returns false, so once compute() has
+	// returned, the pool doesn't touch the task again, and it can be forked again right away, without
+	// being reinitialized (and without waiting for the pool to mark it as done); nothing waits for
+	// these tasks to be done, since the countdown in CountedTask says when they have all run
+	@SuppressWarnings("serial")
+	private static abstract class ReusableTask extends ForkJoinTask<Void> {
+
+		protected abstract void compute();
+
+		@Override
+		protected final boolean exec() {
+			compute();
+			return false;
+		}
+
+		@Override
+		public final Void getRawResult() {
+			return null;
+		}
+
+		@Override
+		protected final void setRawResult(Void value) {
+		}
+	}
+
+
+	// starts all the tasks: the other workers take them from the end of the list, while the thread
+	// that runs this one does the first one, and then takes them from the start
+	// NOTE: every task has been forked before the last one counts itself off, so by then this
+	// task only has to return
+	@SuppressWarnings("serial")
+	private class StepTask extends ReusableTask {
+
+		@Override
+		protected void compute() {
+
+			for (int t = numTasks - 1; t > 0; t--)
+				tasks[t].fork();
+			tasks[0].compute();
+		}
+	}
+
+
+	// one of the tasks that are run together: it does its work, and then counts itself off
+	@SuppressWarnings("serial")
+	private abstract class CountedTask extends ReusableTask {
+
+		abstract void work();
+
+		@Override
+		protected final void compute() {
+
+			try {
+				work();
+			} catch (Throwable thrown) {
+				failure.compareAndSet(null, thrown);
+			} finally {
+				if (pending.decrementAndGet() == 0)
+					LockSupport.unpark(waiting);
+			}
+		}
+	}
+
+
+	// the Boids at indices from ... to-1 in one Flock
+	@SuppressWarnings("serial")
+	private class BoidRange extends CountedTask {
+
+		private Flock[] allFlocks;
+		// the Flock's place in allFlocks
+		private int flock;
+		private int from;
+		private int to;
+
+		void set(Flock[] allFlocks, int flock, int from, int to) {
+			this.allFlocks = allFlocks;
+			this.flock = flock;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		void work() {
+			allFlocks[flock].computeNextStates(allFlocks, neighborhoods.get(), from, to);
+		}
+	}
+
+
+	// the pairs of neighbors in one slab of the grid
+	@SuppressWarnings("serial")
+	private class PairSlab extends CountedTask {
+
+		private int slab;
+
+		@Override
+		void work() {
+			grid.accumulatePairs(slab, neighborhoods.get().query());
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ *
+ * Proximity ("collision") events: two Boids (in any Flocks) are in contact when they are closer
+ * to each other than the proximityThreshold of either of them; an event is reported when two Boids
+ * come into contact (enter), and when they stop being in contact (exit: they moved apart, or one
+ * of them is gone), but not for every time step they stay in contact
+ *
+ * The contacts are found in the grid, at the start of every time step (see SwarmWorld.step), so
+ * each Boid only looks at the Boids in the cells around it, and each pair of Boids is only
+ * looked at once (from the one that is first in the grid); the contacts are kept by the serial
+ * numbers of the two Boids (see BoidStore.serial), sorted, so the contacts of this time step can
+ * be compared with the ones of the last time step in one pass over both; all together, the cost
+ * is linear in the number of Boids (plus sorting the contacts, of which there are few)
+ *
+ * The events of the last time step can be read (e.g. sent to Max) until the next time step
+ *
+ */
+
+// data structures for the contacts and events
+import java.util.Arrays;
+
+
+public class ProximityEvents {
+
+	private final SpatialGrid grid;
+	private final SpatialGrid.Query query;
+
+	// the contacts, sorted by key; the key of a contact is the serial numbers of the two Boids,
+	// the smaller one in the high 32 bits; for each contact, the Flock IDs and Boid IDs of the two
+	// Boids (a is the one with the smaller serial number), and the point halfway between them
+	private Contacts contacts = new Contacts();
+	// the contacts of the last time step
+	private Contacts lastContacts = new Contacts();
+
+	// scratch space for sorting the contacts
+	private long[] sortedKeys = new long[0];
+
+	// the events of the last time step
+	final Contacts entered = new Contacts();
+	final Contacts exited = new Contacts();
+
+
+	// constructor
+	ProximityEvents(SpatialGrid grid) {
+
+		this.grid = grid;
+		query = grid.newQuery();
+	}
+
+
+	// find the contacts between the Boids in the given Flocks (the Flocks the grid was built from),
+	// and the events since the last time step
+	// NOTE: the grid must have been rebuilt for this time step
+	void detect(Flock[] allFlocks) {
+
+		// the search radius: the largest threshold of any Boid
+		float maxThreshold = 0.0f;
+		for (int f = 0; f < allFlocks.length; f++) {
+			BoidStore store = allFlocks[f].store;
+			if (!store.proximityThreshold.anyOverridden()) {
+				maxThreshold = Math.max(maxThreshold, store.proximityThreshold.getShared());
+				continue;
+			}
+			for (int i = 0; i < store.size; i++)
+				maxThreshold = Math.max(maxThreshold, store.proximityThreshold.get(i));
+		}
+		float maxThresholdSquared = maxThreshold * maxThreshold;
+
+		Contacts found = lastContacts;
+		lastContacts = contacts;
+		contacts = found;
+		contacts.clear();
+
+		for (int f = 0; f < allFlocks.length; f++) {
+			BoidStore store = allFlocks[f].store;
+			for (int i = 0; i < store.size; i++) {
+
+				int p = grid.position(store.flockID, i);
+				float x = grid.x[p], y = grid.y[p], z = grid.z[p];
+				float threshold = store.proximityThreshold.get(i);
+
+				query.gather(x, y, z, maxThreshold);
+				for (int r = 0; r < query.numRuns; r++) {
+
+					// only the Boids after this one in the grid; the ones before it have already looked at it
+					for (int j = Math.max(query.runStart[r], p + 1); j < query.runEnd[r]; j++) {
+
+						float dx = x - grid.x[j], dy = y - grid.y[j], dz = z - grid.z[j];
+						float distSquared = dx*dx + dy*dy + dz*dz;
+						if (distSquared >= maxThresholdSquared)
+							continue;
+
+						int other = grid.boidAt(j);
+						BoidStore otherStore = allFlocks[grid.flockOfBoid(other)].store;
+						int otherIndex = grid.indexOfBoid(other);
+						float contactThreshold = Math.max(threshold, otherStore.proximityThreshold.get(otherIndex));
+						if (distSquared < contactThreshold * contactThreshold)
+							contacts.add(store, i, otherStore, otherIndex, (x + grid.x[j]) / 2, (y + grid.y[j]) / 2, (z + grid.z[j]) / 2);
+					}
+				}
+			}
+		}
+		sort(contacts);
+
+		// the contacts that are new, and the ones that are gone (both lists are sorted, so one pass)
+		entered.clear();
+		exited.clear();
+		int c = 0, last = 0;
+		while (c < contacts.size || last < lastContacts.size) {
+			if (last == lastContacts.size || (c < contacts.size && contacts.key[c] < lastContacts.key[last]))
+				entered.copy(contacts, c++);
+			else if (c == contacts.size || lastContacts.key[last] < contacts.key[c])
+				exited.copy(lastContacts, last++);
+			else {
+				++c;
+				++last;
+			}
+		}
+	}
+
+
+	// forget the contacts (e.g. when detection is turned off), so they will all be new next time
+	void clear() {
+
+		contacts.clear();
+		lastContacts.clear();
+		entered.clear();
+		exited.clear();
+	}
+
+	// the number of Boids in contact now
+	int getNumContacts() {
+		return contacts.size;
+	}
+
+
+	// sort the contacts by key; each pair of Boids is found once, so the keys are all different,
+	// and the place of each contact is where its key is among the sorted keys
+	private void sort(Contacts contacts) {
+
+		int n = contacts.size;
+		if (sortedKeys.length < n)
+			sortedKeys = new long[contacts.key.length];
+		System.arraycopy(contacts.key, 0, sortedKeys, 0, n);
+		Arrays.sort(sortedKeys, 0, n);
+
+		Contacts sorted = contacts.scratch();
+		sorted.clear();
+		for (int c = 0; c < n; c++)
+			sorted.set(Arrays.binarySearch(sortedKeys, 0, n, contacts.key[c]), contacts, c);
+		sorted.size = n;
+		contacts.copyAll(sorted);
+	}
+
+
+	// a list of contacts (or events), as parallel arrays
+	static class Contacts {
+
+		long[] key = new long[16];
+		int[] flockA = new int[16];
+		int[] boidA = new int[16];
+		int[] flockB = new int[16];
+		int[] boidB = new int[16];
+		float[] x = new float[16];
+		float[] y = new float[16];
+		float[] z = new float[16];
+		int size = 0;
+
+		private Contacts scratch;
+
+		void clear() {
+			size = 0;
+		}
+
+		// the contact between the Boids at the given indices in the given stores, at (x, y, z)
+		private void add(BoidStore store, int index, BoidStore otherStore, int otherIndex, float x, float y, float z) {
+
+			ensureCapacity(size + 1);
+			int serial = store.serial[index], otherSerial = otherStore.serial[otherIndex];
+			if (otherSerial < serial) {
+				BoidStore swapStore = store;
+				store = otherStore;
+				otherStore = swapStore;
+				int swapIndex = index;
+				index = otherIndex;
+				otherIndex = swapIndex;
+			}
+
+			key[size] = ((long) store.serial[index] << 32) | (otherStore.serial[otherIndex] & 0xffffffffL);
+			flockA[size] = store.flockID;
+			boidA[size] = store.boidID[index];
+			flockB[size] = otherStore.flockID;
+			boidB[size] = otherStore.boidID[otherIndex];
+			this.x[size] = x;
+			this.y[size] = y;
+			this.z[size] = z;
+			++size;
+		}
+
+		// add contact c of the given list to this list
+		private void copy(Contacts from, int c) {
+
+			ensureCapacity(size + 1);
+			set(size++, from, c);
+		}
+
+		// make this list the same as the given list
+		private void copyAll(Contacts from) {
+
+			ensureCapacity(from.size);
+			for (int c = 0; c < from.size; c++)
+				set(c, from, c);
+			size = from.size;
+		}
+
+		// put contact c of the given list at the given place in this list
+		private void set(int place, Contacts from, int c) {
+
+			ensureCapacity(place + 1);
+			key[place] = from.key[c];
+			flockA[place] = from.flockA[c];
+			boidA[place] = from.boidA[c];
+			flockB[place] = from.flockB[c];
+			boidB[place] = from.boidB[c];
+			x[place] = from.x[c];
+			y[place] = from.y[c];
+			z[place] = from.z[c];
+		}
+
+		// another list, for sorting this one
+		private Contacts scratch() {
+
+			if (scratch == null)
+				scratch = new Contacts();
+			return scratch;
+		}
+
+		private void ensureCapacity(int capacity) {
+
+			if (capacity > key.length) {
+				int newLength = Math.max(capacity, 2 * key.length);
+				key = Arrays.copyOf(key, newLength);
+				flockA = Arrays.copyOf(flockA, newLength);
+				boidA = Arrays.copyOf(boidA, newLength);
+				flockB = Arrays.copyOf(flockB, newLength);
+				boidB = Arrays.copyOf(boidB, newLength);
+				x = Arrays.copyOf(x, newLength);
+				y = Arrays.copyOf(y, newLength);
+				z = Arrays.copyOf(z, newLength);
+			}
+		}
+	}
+}
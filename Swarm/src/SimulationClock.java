@@ -0,0 +1,99 @@
+/*
+ *
+ * Fixed-timestep clock for the simulation: decides how many time steps to run for each frame,
+ * so that the simulation runs at the same number of steps per second however fast (or slowly)
+ * the frames are drawn
+ *
+ * The time since the last frame is added to the time that hasn't been simulated yet, and a step
+ * is run for every whole step length in it; what is left over (less than one step) is carried
+ * over to the next frame, and tells the renderer how far the simulation is between its last two
+ * states (see getInterpolation)
+ *
+ * If the frames fall too far behind (e.g. the window was dragged, or the machine is overloaded),
+ * only maxStepsPerFrame steps are run, and the rest of the time is dropped: the simulation slows
+ * down for a moment instead of running more and more steps per frame to catch up
+ *
+ */
+
+public class SimulationClock {
+
+	public static final int DEFAULT_STEPS_PER_SECOND = 60;
+	public static final int DEFAULT_MAX_STEPS_PER_FRAME = 4;
+
+	private static final long NANOSECONDS_PER_SECOND = 1000000000L;
+
+	// these can be changed from any thread (e.g. by Max)
+	private volatile int stepsPerSecond;
+	private volatile int maxStepsPerFrame;
+
+	// when the last frame was, and the time since then that hasn't been simulated yet (in nanoseconds)
+	private long lastFrameTime = -1;
+	private long unsimulatedTime = 0;
+
+	// how far (0 ... 1) the time of the last frame was between the last two states of the simulation
+	private float interpolation = 0.0f;
+
+
+	// constructors
+	SimulationClock() {
+		this(DEFAULT_STEPS_PER_SECOND, DEFAULT_MAX_STEPS_PER_FRAME);
+	}
+
+	SimulationClock(int stepsPerSecond, int maxStepsPerFrame) {
+		setStepsPerSecond(stepsPerSecond);
+		setMaxStepsPerFrame(maxStepsPerFrame);
+	}
+
+
+	// the number of time steps to run for a frame drawn at the given time (from System.nanoTime());
+	// call this once per frame, then run that many steps
+	int stepsDue(long now) {
+
+		// nothing is due for the first frame; the clock starts then
+		if (lastFrameTime < 0) {
+			lastFrameTime = now;
+			return 0;
+		}
+
+		long stepLength = NANOSECONDS_PER_SECOND / stepsPerSecond;
+		unsimulatedTime += now - lastFrameTime;
+		lastFrameTime = now;
+
+		int steps = (int) Math.min(unsimulatedTime / stepLength, Integer.MAX_VALUE);
+
+		// don't try to catch up on more than maxStepsPerFrame steps; drop the rest, but
+		// keep the fraction of a step, so the interpolation doesn't jump
+		if (steps > maxStepsPerFrame) {
+			steps = maxStepsPerFrame;
+			unsimulatedTime = steps * stepLength + unsimulatedTime % stepLength;
+		}
+
+		unsimulatedTime -= steps * stepLength;
+		interpolation = (float) unsimulatedTime / stepLength;
+		return steps;
+	}
+
+
+	// getters
+
+	// how far (0 ... 1) the last frame was from the second-to-last state of the simulation to the
+	// last one; the renderer draws the Boids this far between where they were and where they are
+	float getInterpolation() {
+		return interpolation;
+	}
+
+	int getStepsPerSecond() {
+		return stepsPerSecond;
+	}
+
+
+	// setters
+
+	void setStepsPerSecond(int stepsPerSecond) {
+		this.stepsPerSecond = Math.max(stepsPerSecond, 1);
+	}
+
+	void setMaxStepsPerFrame(int maxStepsPerFrame) {
+		this.maxStepsPerFrame = Math.max(maxStepsPerFrame, 1);
+	}
+}
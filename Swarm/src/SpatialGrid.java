@@ -0,0 +1,498 @@
+/*
+ *
+ * Uniform grid over the flock space that is used to find the candidate neighbors of a Boid
+ * without looking at every Boid in every Flock
+ *
+ * The grid is rebuilt once per time step (in SwarmWorld.step(), before the Flocks are run):
+ * 	1) every Boid in every Flock is assigned to the cell that contains its location
+ * 		- Boids that have wandered outside the space are put in the nearest cell on the boundary
+ * 	2) the Boids are sorted by cell (counting sort), and their locations, velocities, and Flock IDs
+ * 	   are copied into primitive arrays in that order, so the Boids in a row of cells are contiguous
+ *
+ * A Query finds the runs of grid positions for the cells that overlap the cube around a location,
+ * i.e. every Boid within the given radius (and some that are farther away, so the velocity
+ * rules still need to check the actual distance); the cost of a query depends on how many
+ * Boids are near the location, not on how many Boids there are in total
+ *
+ * For the Boids that have the same neighborhood radius, the neighborhoods are symmetric (if B is in
+ * A's neighborhood, A is in B's), so accumulatePairs can visit each pair of neighbors once and
+ * add what each contributes to the other's sums (separation, locations, velocities, counts),
+ * instead of every Boid looking at all its neighbors and computing each distance twice; the Boids
+ * with another radius find their own neighbors (see Neighborhood.gather)
+ *
+ * The pairs are visited a slab of the grid at a time (slabs of cells along z, at least the radius
+ * thick): a Boid is only paired with the Boids after it in the grid, which are in its own slab or
+ * the next one, so the even slabs can be done at the same time, and then the odd ones (see
+ * ParallelStep); on one thread the slabs are done in the same order, so the sums are the same
+ *
+ */
+
+// data structures for the grid
+import java.util.Arrays;
+
+
+public class SpatialGrid {
+
+	// size of the (cubic) cells; the neighborhood radius of a Boid is usually a few cells
+	public static final float DEFAULT_CELL_SIZE = 50.0f;
+
+	// dimensions of the grid
+	private final float cellSize;
+	private final int cellsX;
+	private final int cellsY;
+	private final int cellsZ;
+	// corner of the flock space with the smallest coordinates
+	private final float minX;
+	private final float minY;
+	private final float minZ;
+
+	// the Boids in cell c are at grid positions cellStart[c] ... cellStart[c+1]-1
+	private int[] cellStart;
+	private int numBoids = 0;
+
+	// copies of the locations, velocities, and Flock IDs of the Boids, sorted by cell
+	float[] x = new float[0];
+	float[] y = new float[0];
+	float[] z = new float[0];
+	float[] vx = new float[0];
+	float[] vy = new float[0];
+	float[] vz = new float[0];
+	int[] flockID = new int[0];
+	// and the neighborhood radii of the Boids
+	float[] neighborRadius = new float[0];
+
+	// where each Boid was put: the Boid at index i in Flock f is at grid position
+	// positionOf[flockStart[f] + i] (Boids were collected Flock by Flock, in index order)
+	private int[] flockStart = new int[0];
+	private int[] positionOf = new int[0];
+	// and the other way around: the Boid at grid position p is number boidAt[p] (flockStart[f] + i)
+	private int[] boidAt = new int[0];
+
+	// sums over the neighbors of the Boid at each grid position, from accumulatePairs; the sums of
+	// the Boid at position p are pairSums[p * PAIR_SUMS + ...], at the offsets below (all of a
+	// Boid's sums are together, since a pair adds to all of them at once); only valid for the
+	// Boids that hasPairSums(p, radius) says (they are cleared when the grid is rebuilt)
+	static final int SEPARATION = 0;				// sum of (own location - neighbor location) / distance^2
+	static final int SEPARATION_OTHER_FLOCKS = 3;	// the same, over the neighbors in the other Flocks only
+	static final int LOCATIONS_OWN_FLOCK = 6;		// of the neighbors in the Boid's own Flock
+	static final int VELOCITIES_OWN_FLOCK = 9;
+	static final int NUM_NEIGHBORS_OWN_FLOCK = 12;
+	static final int LOCATIONS_ALL_FLOCKS = 13;		// of the neighbors in all the Flocks
+	static final int VELOCITIES_ALL_FLOCKS = 16;
+	static final int NUM_NEIGHBORS_ALL_FLOCKS = 19;
+	static final int PAIR_SUMS = 20;
+	float[] pairSums = new float[0];
+	// the radius the sums were accumulated for (NaN if they haven't been, in this time step)
+	private float pairRadius = Float.NaN;
+	// the radius the sums are being accumulated for, and the slabs the pairs are visited in
+	private float slabRadius;
+	private int cellsPerSlab;
+	private int numSlabs;
+	private Query pairQuery;
+
+	// the cell, Flock (its place in the array of Flocks), and index of each Boid, by Boid number
+	// (i.e. in the order they were collected)
+	private int[] collectedCells = new int[0];
+	private int[] collectedFlocks = new int[0];
+	private int[] collectedIndices = new int[0];
+
+
+	// constructor
+	// grid covers a space of the given dimensions, centered on the origin (like the flock space)
+	SpatialGrid(float width, float height, float depth, float cellSize) {
+
+		this.cellSize = cellSize;
+		this.cellsX = Math.max(1, (int) Math.ceil(width / cellSize));
+		this.cellsY = Math.max(1, (int) Math.ceil(height / cellSize));
+		this.cellsZ = Math.max(1, (int) Math.ceil(depth / cellSize));
+		this.minX = -width / 2.0f;
+		this.minY = -height / 2.0f;
+		this.minZ = -depth / 2.0f;
+
+		cellStart = new int[cellsX * cellsY * cellsZ + 1];
+	}
+
+
+	// put every Boid in the given Flocks (the ones that have Boids; see FlockRegistry) into its cell
+	void rebuild(Flock[] allFlocks) {
+
+		// collect the Boids and their cells
+		numBoids = 0;
+		pairRadius = Float.NaN;
+		for (int f = 0; f < allFlocks.length; f++) {
+
+			BoidStore store = allFlocks[f].store;
+			if (flockStart.length <= store.flockID)
+				flockStart = Arrays.copyOf(flockStart, Math.max(store.flockID + 1, 2 * flockStart.length));
+			flockStart[store.flockID] = numBoids;
+			ensureCapacity(numBoids + store.size);
+
+			for (int i = 0; i < store.size; i++) {
+				collectedCells[numBoids] = cellIndex(cellX(store.x[i]), cellY(store.y[i]), cellZ(store.z[i]));
+				collectedFlocks[numBoids] = f;
+				collectedIndices[numBoids] = i;
+				++numBoids;
+			}
+		}
+
+		// count the Boids in each cell
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < numBoids; i++)
+			++cellStart[collectedCells[i] + 1];
+
+		// running sum gives the start of each cell
+		for (int c = 1; c < cellStart.length; c++)
+			cellStart[c] += cellStart[c - 1];
+
+		// copy the Boids into place; cellStart[cell] is advanced past each Boid placed in the cell
+		for (int i = 0; i < numBoids; i++) {
+			BoidStore store = allFlocks[collectedFlocks[i]].store;
+			int boid = collectedIndices[i];
+			int position = cellStart[collectedCells[i]]++;
+			positionOf[i] = position;
+			boidAt[position] = i;
+			x[position] = store.x[boid];
+			y[position] = store.y[boid];
+			z[position] = store.z[boid];
+			vx[position] = store.vx[boid];
+			vy[position] = store.vy[boid];
+			vz[position] = store.vz[boid];
+			flockID[position] = store.flockID;
+			neighborRadius[position] = store.neighborRadius.get(boid);
+		}
+
+		// placing advanced each start to the start of the next cell, so shift back by one
+		for (int c = cellStart.length - 1; c > 0; c--)
+			cellStart[c] = cellStart[c - 1];
+		cellStart[0] = 0;
+	}
+
+
+	// the grid position of the Boid at the given index in the given Flock
+	int position(int flockID, int index) {
+		return positionOf[flockStart[flockID] + index];
+	}
+
+	// the Boids are numbered in the order they were collected (Flock by Flock, in index order);
+	// the numbers are only good until the grid is rebuilt
+	int boidNumber(int flockID, int index) {
+		return flockStart[flockID] + index;
+	}
+
+	// the grid position of the Boid with the given number
+	int positionOfBoid(int boidNumber) {
+		return positionOf[boidNumber];
+	}
+
+	// the number of the Boid at the given grid position
+	int boidAt(int position) {
+		return boidAt[position];
+	}
+
+	// the Flock (its place in the array of Flocks the grid was built from) and the index
+	// in that Flock of the Boid with the given number
+	int flockOfBoid(int boidNumber) {
+		return collectedFlocks[boidNumber];
+	}
+
+	int indexOfBoid(int boidNumber) {
+		return collectedIndices[boidNumber];
+	}
+
+	int getNumBoids() {
+		return numBoids;
+	}
+
+
+	// have the sums over the neighbors been accumulated for this time step, for the given radius?
+	boolean hasPairSums(float radius) {
+		return radius == pairRadius;
+	}
+
+	// and for the Boid at the given grid position? (only for the Boids that have that radius)
+	boolean hasPairSums(int position, float radius) {
+		return radius == pairRadius && neighborRadius[position] == radius;
+	}
+
+
+	// sum up the neighbors of every Boid that has the given neighborhood radius, where its neighbors
+	// are the other Boids within that radius, visiting each pair of neighbors only once; a pair where
+	// neither Boid has the radius is skipped, and the sums of the Boids that don't have it aren't
+	// valid (see hasPairSums), so those Boids find their own neighbors (see Neighborhood.gather)
+	void accumulatePairs(float radius) {
+
+		if (pairQuery == null)
+			pairQuery = newQuery();
+
+		// the even slabs, then the odd ones (the order ParallelStep does them in)
+		int numSlabs = startPairs(radius);
+		for (int first = 0; first < 2; first++) {
+			for (int slab = first; slab < numSlabs; slab += 2)
+				accumulatePairs(slab, pairQuery);
+		}
+		finishPairs();
+	}
+
+	// start accumulating the sums for the given radius; returns the number of slabs
+	int startPairs(float radius) {
+
+		pairRadius = Float.NaN;
+		slabRadius = radius;
+
+		// a Boid is only paired with Boids in a cell at most this many cells further along z
+		// (see Query.gather), so the pairs of a slab this thick are all in it or in the next one
+		cellsPerSlab = Math.max(1, (int) Math.ceil(radius / cellSize));
+		numSlabs = (cellsZ + cellsPerSlab - 1) / cellsPerSlab;
+
+		ensurePairSums();
+		return numSlabs;
+	}
+
+	// the sums are done
+	void finishPairs() {
+		pairRadius = slabRadius;
+	}
+
+	// the grid positions of the Boids in the given slab start here (and end where the next slab starts)
+	private int slabStart(int slab) {
+		return cellStart[cellIndex(0, 0, Math.min(slab * cellsPerSlab, cellsZ))];
+	}
+
+	// visit the pairs of neighbors whose first Boid is in the given slab; the sums of the Boids in the
+	// slab and the next one are added to, so the slabs next to this one must not be done at the same time
+	// NOTE: every even slab must be done before any odd one (the even slabs clear the sums)
+	void accumulatePairs(int slab, Query query) {
+
+		float radius = slabRadius;
+		float radiusSquared = radius * radius;
+		float[] sums = pairSums;
+
+		// an even slab clears the sums of its own Boids and of the next slab's (which are
+		// only added to by the Boids in those two slabs)
+		int start = slabStart(slab), end = slabStart(slab + 1);
+		if (slab % 2 == 0)
+			Arrays.fill(sums, start * PAIR_SUMS, slabStart(slab + 2) * PAIR_SUMS, 0.0f);
+
+		for (int i = start; i < end; i++) {
+
+			// this Boid's sums are kept in local variables, and added to what the Boids before it
+			// have added to them once all its pairs are done; only the other Boid of each pair
+			// is added to in the array
+			float xi = x[i], yi = y[i], zi = z[i];
+			float vxi = vx[i], vyi = vy[i], vzi = vz[i];
+			int flockIDi = flockID[i];
+			boolean pairedI = neighborRadius[i] == radius;
+			float sepX = 0.0f, sepY = 0.0f, sepZ = 0.0f;
+			float sepOtherX = 0.0f, sepOtherY = 0.0f, sepOtherZ = 0.0f;
+			float locOwnX = 0.0f, locOwnY = 0.0f, locOwnZ = 0.0f;
+			float velOwnX = 0.0f, velOwnY = 0.0f, velOwnZ = 0.0f;
+			float locAllX = 0.0f, locAllY = 0.0f, locAllZ = 0.0f;
+			float velAllX = 0.0f, velAllY = 0.0f, velAllZ = 0.0f;
+			int numOwn = 0, numAll = 0;
+
+			query.gather(xi, yi, zi, radius);
+			for (int r = 0; r < query.numRuns; r++) {
+
+				// only the Boids after this one; the ones before it have already been paired with it
+				for (int j = Math.max(query.runStart[r], i + 1); j < query.runEnd[r]; j++) {
+
+					boolean pairedJ = neighborRadius[j] == radius;
+					if (!pairedI && !pairedJ)
+						continue;
+
+					float dx = xi - x[j];
+					float dy = yi - y[j];
+					float dz = zi - z[j];
+					float distSquared = dx*dx + dy*dy + dz*dz;
+
+					// distSquared > 0, as in Neighborhood.gather (Boids at the same location aren't neighbors)
+					if (distSquared > 0 && distSquared <= radiusSquared) {
+
+						// separation is equal and opposite
+						float sx = dx / distSquared, sy = dy / distSquared, sz = dz / distSquared;
+						boolean ownFlock = flockIDi == flockID[j];
+
+						// each is the other's neighbor
+						sepX += sx;
+						sepY += sy;
+						sepZ += sz;
+						if (ownFlock) {
+							locOwnX += x[j];
+							locOwnY += y[j];
+							locOwnZ += z[j];
+							velOwnX += vx[j];
+							velOwnY += vy[j];
+							velOwnZ += vz[j];
+							++numOwn;
+						}
+						else {
+							sepOtherX += sx;
+							sepOtherY += sy;
+							sepOtherZ += sz;
+						}
+						locAllX += x[j];
+						locAllY += y[j];
+						locAllZ += z[j];
+						velAllX += vx[j];
+						velAllY += vy[j];
+						velAllZ += vz[j];
+						++numAll;
+
+						if (pairedJ) {
+							int s = j * PAIR_SUMS;
+							sums[s + SEPARATION] -= sx;
+							sums[s + SEPARATION + 1] -= sy;
+							sums[s + SEPARATION + 2] -= sz;
+							if (ownFlock) {
+								sums[s + LOCATIONS_OWN_FLOCK] += xi;
+								sums[s + LOCATIONS_OWN_FLOCK + 1] += yi;
+								sums[s + LOCATIONS_OWN_FLOCK + 2] += zi;
+								sums[s + VELOCITIES_OWN_FLOCK] += vxi;
+								sums[s + VELOCITIES_OWN_FLOCK + 1] += vyi;
+								sums[s + VELOCITIES_OWN_FLOCK + 2] += vzi;
+								sums[s + NUM_NEIGHBORS_OWN_FLOCK] += 1.0f;
+							}
+							else {
+								sums[s + SEPARATION_OTHER_FLOCKS] -= sx;
+								sums[s + SEPARATION_OTHER_FLOCKS + 1] -= sy;
+								sums[s + SEPARATION_OTHER_FLOCKS + 2] -= sz;
+							}
+							sums[s + LOCATIONS_ALL_FLOCKS] += xi;
+							sums[s + LOCATIONS_ALL_FLOCKS + 1] += yi;
+							sums[s + LOCATIONS_ALL_FLOCKS + 2] += zi;
+							sums[s + VELOCITIES_ALL_FLOCKS] += vxi;
+							sums[s + VELOCITIES_ALL_FLOCKS + 1] += vyi;
+							sums[s + VELOCITIES_ALL_FLOCKS + 2] += vzi;
+							sums[s + NUM_NEIGHBORS_ALL_FLOCKS] += 1.0f;
+						}
+					}
+				}
+			}
+
+			if (pairedI) {
+				int s = i * PAIR_SUMS;
+				sums[s + SEPARATION] += sepX;
+				sums[s + SEPARATION + 1] += sepY;
+				sums[s + SEPARATION + 2] += sepZ;
+				sums[s + SEPARATION_OTHER_FLOCKS] += sepOtherX;
+				sums[s + SEPARATION_OTHER_FLOCKS + 1] += sepOtherY;
+				sums[s + SEPARATION_OTHER_FLOCKS + 2] += sepOtherZ;
+				sums[s + LOCATIONS_OWN_FLOCK] += locOwnX;
+				sums[s + LOCATIONS_OWN_FLOCK + 1] += locOwnY;
+				sums[s + LOCATIONS_OWN_FLOCK + 2] += locOwnZ;
+				sums[s + VELOCITIES_OWN_FLOCK] += velOwnX;
+				sums[s + VELOCITIES_OWN_FLOCK + 1] += velOwnY;
+				sums[s + VELOCITIES_OWN_FLOCK + 2] += velOwnZ;
+				sums[s + NUM_NEIGHBORS_OWN_FLOCK] += numOwn;
+				sums[s + LOCATIONS_ALL_FLOCKS] += locAllX;
+				sums[s + LOCATIONS_ALL_FLOCKS + 1] += locAllY;
+				sums[s + LOCATIONS_ALL_FLOCKS + 2] += locAllZ;
+				sums[s + VELOCITIES_ALL_FLOCKS] += velAllX;
+				sums[s + VELOCITIES_ALL_FLOCKS + 1] += velAllY;
+				sums[s + VELOCITIES_ALL_FLOCKS + 2] += velAllZ;
+				sums[s + NUM_NEIGHBORS_ALL_FLOCKS] += numAll;
+			}
+		}
+	}
+
+
+	// a query object holds the results of a neighborhood search; each caller that
+	// searches the grid needs its own (they are reused from step to step)
+	Query newQuery() {
+		return new Query();
+	}
+
+
+	class Query {
+
+		// the candidate neighbors found by the last call to gather are at 
+		// grid positions runStart[r] ... runEnd[r]-1, for r < numRuns
+		int[] runStart = new int[16];
+		int[] runEnd = new int[16];
+		int numRuns = 0;
+
+		// the grid that was searched (for access to the copies of the Boids' locations and velocities)
+		SpatialGrid grid() {
+			return SpatialGrid.this;
+		}
+
+		// find all Boids that are in a cell that overlaps the cube of half-width radius around (x, y, z)
+		void gather(float x, float y, float z, float radius) {
+
+			numRuns = 0;
+
+			int loX = cellX(x - radius), hiX = cellX(x + radius);
+			int loY = cellY(y - radius), hiY = cellY(y + radius);
+			int loZ = cellZ(z - radius), hiZ = cellZ(z + radius);
+
+			for (int cz = loZ; cz <= hiZ; cz++) {
+				for (int cy = loY; cy <= hiY; cy++) {
+					// cells in a row along x are contiguous, so so are their Boids
+					int first = cellStart[cellIndex(loX, cy, cz)];
+					int last = cellStart[cellIndex(hiX, cy, cz) + 1];
+					if (first == last)
+						continue;
+					if (numRuns == runStart.length) {
+						runStart = Arrays.copyOf(runStart, 2 * numRuns);
+						runEnd = Arrays.copyOf(runEnd, 2 * numRuns);
+					}
+					runStart[numRuns] = first;
+					runEnd[numRuns] = last;
+					++numRuns;
+				}
+			}
+		}
+	}
+
+
+	// cell coordinates; locations outside the space are clamped to the boundary cells
+	private int cellX(float x) {
+		return clamp((int) Math.floor((x - minX) / cellSize), cellsX);
+	}
+
+	private int cellY(float y) {
+		return clamp((int) Math.floor((y - minY) / cellSize), cellsY);
+	}
+
+	private int cellZ(float z) {
+		return clamp((int) Math.floor((z - minZ) / cellSize), cellsZ);
+	}
+
+	private static int clamp(int cell, int numCells) {
+		if (cell < 0)
+			return 0;
+		if (cell >= numCells)
+			return numCells - 1;
+		return cell;
+	}
+
+	// x varies fastest, so a row of cells along x is contiguous
+	private int cellIndex(int cx, int cy, int cz) {
+		return (cz * cellsY + cy) * cellsX + cx;
+	}
+
+	// room for the sums of every Boid (only made when the sums are first accumulated)
+	private void ensurePairSums() {
+		if (pairSums.length < x.length * PAIR_SUMS)
+			pairSums = new float[x.length * PAIR_SUMS];
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > x.length) {
+			int newLength = Math.max(capacity, 2 * x.length);
+			x = Arrays.copyOf(x, newLength);
+			y = Arrays.copyOf(y, newLength);
+			z = Arrays.copyOf(z, newLength);
+			vx = Arrays.copyOf(vx, newLength);
+			vy = Arrays.copyOf(vy, newLength);
+			vz = Arrays.copyOf(vz, newLength);
+			flockID = Arrays.copyOf(flockID, newLength);
+			neighborRadius = Arrays.copyOf(neighborRadius, newLength);
+			positionOf = Arrays.copyOf(positionOf, newLength);
+			boidAt = Arrays.copyOf(boidAt, newLength);
+			collectedCells = Arrays.copyOf(collectedCells, newLength);
+			collectedFlocks = Arrays.copyOf(collectedFlocks, newLength);
+			collectedIndices = Arrays.copyOf(collectedIndices, newLength);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ * Checks that a time step allocates nothing once the simulation has warmed up, on the thread
+ * that runs the time steps and on the worker threads of the parallel step, without a display:
+ * 	java StepAllocationTest [flock size] [number of flocks] [number of steps]
+ *
+ * The simulation is run both ways (in parallel and on one thread) and with the neighbor lists on
+ * and off; after the warm-up (so the arrays have grown to their size, and the code is compiled),
+ * the bytes each thread allocates over the measured steps are read from the ThreadMXBean; any
+ * thread that allocated anything is reported, and the exit status is 1
+ *
+ */
+
+// for the number of bytes each thread has allocated
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+// for the threads that run the time steps
+import java.util.concurrent.ForkJoinWorkerThread;
+
+
+public class StepAllocationTest {
+
+	// long enough for the JVM to have compiled SwarmWorld.step fully (which is only called once a
+	// time step), since compiling it allocates a little on the thread that calls it
+	private static final int WARM_UP_STEPS = 5000;
+	// the simulation is checked with the same seed every time
+	private static final long SEED = 1;
+
+	public static void main(String[] args) {
+
+		int flockSize = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int numFlocks = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int numSteps = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("this JVM can't measure the memory allocated by each thread");
+			System.exit(1);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		boolean allocated = false;
+		for (int parallel = 1; parallel >= 0; parallel--) {
+			for (int lists = 0; lists <= 1; lists++) {
+
+				int[] flockSizes = new int[numFlocks+1];
+				for (int flockID = 1; flockID <= numFlocks; flockID++)
+					flockSizes[flockID] = flockSize;
+				SwarmWorld world = new SwarmWorld(400, 400, 400, flockSizes, SwarmWorld.DEFAULT_FLOCK, SEED);
+				world.setParallelStep(parallel == 1);
+				world.setNeighborLists(lists == 1);
+				for (int i = 0; i < WARM_UP_STEPS; i++)
+					world.step();
+
+				// this thread, and the workers of the parallel step (the JVM's own threads allocate
+				// now and then, whatever the simulation does)
+				Thread[] running = Thread.getAllStackTraces().keySet().toArray(new Thread[0]);
+				int numIDs = 0;
+				long[] ids = new long[running.length];
+				String[] names = new String[running.length];
+				for (Thread thread : running) {
+					if (thread == Thread.currentThread() || thread instanceof ForkJoinWorkerThread) {
+						names[numIDs] = thread.getName();
+						ids[numIDs++] = thread.getId();
+					}
+				}
+				ids = Arrays.copyOf(ids, numIDs);
+
+				// what measuring allocates by itself (the ThreadMXBean returns a new array each time)
+				long[] before = threads.getThreadAllocatedBytes(ids);
+				long[] after = threads.getThreadAllocatedBytes(ids);
+				long[] overhead = new long[ids.length];
+				for (int t = 0; t < ids.length; t++)
+					overhead[t] = after[t] - before[t];
+
+				before = threads.getThreadAllocatedBytes(ids);
+				for (int i = 0; i < numSteps; i++)
+					world.step();
+				after = threads.getThreadAllocatedBytes(ids);
+
+				String mode = (parallel == 1 ? "parallel" : "one thread") + (lists == 1 ? ", neighbor lists" : "");
+				boolean modeAllocated = false;
+				for (int t = 0; t < ids.length; t++) {
+					long bytes = after[t] - before[t] - overhead[t];
+					if (before[t] < 0 || after[t] < 0 || bytes <= 0)
+						continue;
+					System.out.printf("%s: thread %s allocated %d bytes in %d steps (%.1f per step)\n",
+							mode, names[t], bytes, numSteps, (double) bytes / numSteps);
+					modeAllocated = true;
+				}
+				if (!modeAllocated)
+					System.out.printf("%s: no thread allocated anything in %d steps\n", mode, numSteps);
+				allocated |= modeAllocated;
+			}
+		}
+
+		System.exit(allocated ? 1 : 0);
+	}
+}
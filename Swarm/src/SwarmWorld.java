@@ -0,0 +1,446 @@
+/*
+ *
+ * The simulation itself: the Flocks (and their Boids and Behaviors), the space they fly in,
+ * and the time steps; nothing in here uses Processing, so the simulation can be run without a
+ * display, e.g. in batch for evaluating Behaviors or for benchmarks (see main)
+ *
+ * MusicSwarm renders a SwarmWorld and passes on the changes that Max asks for; anything else
+ * that wants to run the simulation only needs to create a SwarmWorld and call step()
+ *
+ * A time step:
+ * 	1) remove the Boids that died in the last time step (if mortality is being used)
+ * 	2) make the changes that were asked for since the last time step (see Flock.applyChanges),
+ * 	   and find the Flocks that have Boids (the rest are left out of the time step; see FlockRegistry)
+ * 	3) put all the Boids into the grid (and update the neighbor lists, if they are being used),
+ * 	   and find the proximity events, if they are being detected (see ProximityEvents)
+ * 	4) phase one: calculate the next location and velocity of every Boid in every Flock
+ * 	   (in parallel, if parallelStep is true)
+ * 	5) phase two: move all the Boids
+ * After step() returns, the Boids can be read (e.g. rendered) until the next call to step(), and
+ * the clusters of each Flock can be found (see findClusters)
+ *
+ */
+
+// for random numbers
+import java.util.SplittableRandom;
+// for the changes that are asked for from other threads
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+public class SwarmWorld {
+
+	// different modes of flock creation
+	public static final int DEFAULT_FLOCK = 1; // creates flock with the same default parameters, which are specified in the Flock class
+	public static final int RANDOM_FLOCK = 2;  // creates each flock with its own random parameters, generated in the Flock class
+
+	// dimensions of the space the Boids fly in, which is centered on the origin
+	final int width;
+	final int height;
+	final int depth;
+
+	// flocks
+	// ************************************************************************************************
+	// NOTE: flock indices start at 1, not 0, because Max numbers them this way
+	// ************************************************************************************************
+	private final FlockRegistry flocks = new FlockRegistry();
+
+	// how the Boids of each Flock react to the Boids of each Flock (see FlockInteractions);
+	// only changed at the start of a time step
+	final FlockInteractions interactions = new FlockInteractions();
+
+	// uniform grid over the flock space for finding the Boids in a neighborhood;
+	// rebuilt at every time step, before the Flocks are run
+	private final SpatialGrid grid;
+
+	// calculate the next states of the Boids in parallel, on all the cores?
+	private volatile boolean parallelStep = true;
+	private final ParallelStep stepper;
+
+	// sum up the neighbors one pair of Boids at a time, so each distance is only calculated once
+	// (see SpatialGrid.accumulatePairs), for the Boids that have the neighborhood radius that the
+	// most Boids have (the others find their own neighbors)? done on the pool if parallelStep is true
+	private volatile boolean pairwiseNeighbors = false;
+
+	// keep a list of the candidate neighbors of each Boid, and only search the grid again every
+	// few time steps (see NeighborLists)? off unless Max turns it on: with the speeds the Boids
+	// usually have, the lists don't last long enough to be faster than searching the grid
+	private volatile boolean useNeighborLists = false;
+	private final NeighborLists neighborLists;
+
+	// find the Boids that come closer to each other than their proximityThreshold (see ProximityEvents)?
+	private volatile boolean detectProximity = false;
+	private final ProximityEvents proximityEvents;
+
+	// the clusters of Boids in each Flock (see FlockClusters); only found when they are asked for
+	private final FlockClusters clusters;
+
+	// can introduce wind into the simulation; not used for quite a while (as of 5/14/13)
+	float windX = 0.0f;
+	float windY = 0.0f;
+	float windZ = 0.0f;
+
+	// for random numbers: the seed, and the stream that the stepping thread draws from (for the
+	// locations and parameters of new Boids); each Boid gets its own stream, split off from this one
+	// when the Boid is created, for its random motion, so the random numbers a Boid gets don't depend
+	// on which thread calculates its next state, or on what the other Boids have drawn; and the
+	// same seed gives the same run, with any number of threads (as long as Max asks for the same
+	// changes at the same time steps)
+	private final long seed;
+	final SplittableRandom rand;
+
+	// for delimiting behaviors over time
+	private int timeStep = 0;
+
+	// the serial number of the next Boid that is created (see BoidStore.serial)
+	private int nextBoidSerial = 0;
+
+	// changes to the world (not to a Flock) that haven't been made yet, in the order they arrived
+	private final ConcurrentLinkedQueue<Runnable> changes = new ConcurrentLinkedQueue<Runnable>();
+
+
+	// constructors
+	// flockSizes[f] is the initial size of Flock f (flockSizes[0] is not used); every Flock is
+	// created, even if its initial size is 0, so that its size can be changed later (a Flock
+	// with no Boids costs nothing; more Flocks can be created later, see createFlock)
+	SwarmWorld(int width, int height, int depth, int[] flockSizes, int flockType) {
+		this(width, height, depth, flockSizes, flockType, new SplittableRandom().nextLong());
+	}
+
+	// the same seed gives the same run (see rand)
+	SwarmWorld(int width, int height, int depth, int[] flockSizes, int flockType, long seed) {
+
+		this.seed = seed;
+		rand = new SplittableRandom(seed);
+
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+
+		grid = new SpatialGrid(width, height, depth, SpatialGrid.DEFAULT_CELL_SIZE);
+		neighborLists = new NeighborLists(grid);
+		proximityEvents = new ProximityEvents(grid);
+		clusters = new FlockClusters(grid);
+		stepper = new ParallelStep(grid, neighborLists);
+
+		// create the Flocks
+		for (int flockID = 1; flockID < flockSizes.length; flockID++) {
+			Flock flock = new Flock(flockID, flockSizes[flockID], flockType, this, new Behavior());
+			flocks.reserve(flock);
+			flocks.add(flock);
+		}
+	}
+
+
+	// run one time step of the simulation
+	void step() {
+
+		++timeStep;
+
+		// remove the Boids that died in the last time step
+		Flock[] allFlocks = flocks.active();
+		for (int f = 0; f < allFlocks.length; f++) {
+			allFlocks[f].removeDeadBoids();
+		}
+
+		// make the changes that were asked for during the last time step; the Flocks don't
+		// change at any other time, so updating them doesn't need to lock anything
+		Runnable change;
+		while ((change = changes.poll()) != null)
+			change.run();
+		Flock[] registered = flocks.all();
+		for (int f = 0; f < registered.length; f++) {
+			registered[f].applyChanges();
+		}
+
+		// only the Flocks that have Boids take part in the rest of the time step
+		allFlocks = flocks.updateActive();
+		if (allFlocks.length > 0)
+			interactions.ensureFlocks(allFlocks[allFlocks.length - 1].store.flockID);
+
+		// put all the Boids into the grid, so each Boid only has to look at the Boids near it
+		grid.rebuild(allFlocks);
+
+		// reuse the candidate neighbors from the last time step, if they can't have changed too much
+		if (useNeighborLists)
+			neighborLists.update(allFlocks);
+		else
+			neighborLists.invalidate();
+
+		// the Boids that have come into (or gone out of) contact since the last time step
+		if (detectProximity)
+			proximityEvents.detect(allFlocks);
+
+		// where the neighborhoods are symmetric, visit each pair of neighbors only once
+		if (pairwiseNeighbors) {
+			float radius = mostCommonNeighborRadius(allFlocks);
+			if (!Float.isNaN(radius)) {
+				if (parallelStep)
+					stepper.accumulatePairs(radius);
+				else
+					grid.accumulatePairs(radius);
+			}
+		}
+
+		// phase one: calculate the next location and velocity of every Boid in every Flock from the
+		// current ones, which don't change until every Boid has been done, so the order doesn't matter
+		// NOTE: need to send all the Flocks, so we have access to all the Boids in every Boid's neighborhood
+		if (parallelStep) {
+			stepper.computeNextStates(allFlocks);
+		}
+		else {
+			for (int f = 0; f < allFlocks.length; f++) {
+				allFlocks[f].computeNextStates(allFlocks, grid, neighborLists);
+			}
+		}
+
+		// phase two: move all the Boids
+		for (int f = 0; f < allFlocks.length; f++) {
+			allFlocks[f].commit();
+		}
+	}
+
+
+	// of the Flocks' neighborhood radii, the one that the most Boids in the given Flocks have
+	// (NaN if there are no Boids)
+	private float mostCommonNeighborRadius(Flock[] allFlocks) {
+
+		float radius = Float.NaN;
+		int most = 0;
+		for (int f = 0; f < allFlocks.length; f++) {
+			float flockRadius = allFlocks[f].store.neighborRadius.getShared();
+			int n = 0;
+			for (int g = 0; g < allFlocks.length; g++)
+				n += allFlocks[g].numWithNeighborRadius(flockRadius);
+			if (n > most) {
+				radius = flockRadius;
+				most = n;
+			}
+		}
+		return radius;
+	}
+
+
+	// create a Flock with the given number of Boids, under the lowest ID that has no Flock; returns
+	// the ID; the Flock can be changed right away (see getFlock), but it is only added (with its
+	// Boids) at the start of the next time step, like any other change; can be called from any thread
+	int createFlock(int numBoids, int flockType) {
+
+		synchronized (flocks) {
+			int flockID = flocks.freeID();
+			createFlock(flockID, numBoids, flockType);
+			return flockID;
+		}
+	}
+
+	// the same, under the given ID; false (and nothing is created) if there already is a Flock with that ID
+	boolean createFlock(int flockID, int numBoids, int flockType) {
+
+		if (flockID < 1)
+			return false;
+		synchronized (flocks) {
+			if (flocks.get(flockID) != null)
+				return false;
+			final Flock flock = new Flock(flockID, this, new Behavior());
+			flocks.reserve(flock);
+			flock.populate(numBoids, flockType);
+			changes.add(new Runnable() {
+				public void run() {
+					flocks.add(flock);
+				}
+			});
+			return true;
+		}
+	}
+
+	// destroy the Flock with the given ID, and all its Boids, at the start of the next time step
+	// (Max can't find the Flock any more right away, and can create a new one with its ID);
+	// can be called from any thread
+	void destroyFlock(int flockID) {
+
+		final Flock flock = flocks.release(flockID);
+		if (flock == null)
+			return;
+		changes.add(new Runnable() {
+			public void run() {
+				flocks.remove(flock);
+			}
+		});
+	}
+
+
+	// a serial number for a new Boid (see BoidStore.serial)
+	// NOTE: only call this on the stepping thread (e.g. from a change)
+	int newBoidSerial() {
+		return nextBoidSerial++;
+	}
+
+
+	// a random float in [0, 1) from the stepping thread's stream
+	// NOTE: only call this on the stepping thread (e.g. from a change), since it uses rand
+	float nextFloat() {
+		return nextFloat(rand);
+	}
+
+	// a random float in [0, 1) from the given stream (the same way java.util.Random makes them)
+	static float nextFloat(SplittableRandom random) {
+		return (random.nextInt() >>> 8) * (1.0f / (1 << 24));
+	}
+
+
+	// a random location in the space (on integer coordinates)
+	// NOTE: only call this on the stepping thread (e.g. from a change), since it uses rand
+	void randomLocation(Vector3 location) {
+
+		location.set(rand.nextInt(width+1) - width/2,
+					 rand.nextInt(height+1) - height/2,
+					 rand.nextInt(depth+1) - depth/2);
+	}
+
+
+	// getters
+
+	// the number of Flocks (with or without Boids)
+	int getNumFlocks() {
+		return flocks.all().length;
+	}
+
+	// NOTE: flock indices start at 1; null if there is no Flock with the given ID (including a Flock
+	// that is being destroyed, and counting a Flock that is being created; see createFlock)
+	Flock getFlock(int flockID) {
+		return flocks.get(flockID);
+	}
+
+	// every Flock (with or without Boids), in ID order; can be called from any thread
+	// NOTE: don't change the array
+	Flock[] getFlocks() {
+		return flocks.all();
+	}
+
+	// the grid as it was built at the start of the last time step, i.e. with the locations
+	// the Boids had before they last moved
+	SpatialGrid getGrid() {
+		return grid;
+	}
+
+	NeighborLists getNeighborLists() {
+		return neighborLists;
+	}
+
+	// the proximity events of the last time step (none, if they aren't being detected)
+	// NOTE: only read them on the thread that runs the time steps, between time steps
+	ProximityEvents getProximityEvents() {
+		return proximityEvents;
+	}
+
+	boolean isDetectingProximity() {
+		return detectProximity;
+	}
+
+	// the clusters of Boids in each Flock (see FlockClusters), where the Boids were at the start of
+	// the last time step; they are only found once per time step, however often they are asked for
+	// NOTE: only call this on the thread that runs the time steps, between time steps
+	FlockClusters findClusters() {
+
+		clusters.find(flocks.active(), timeStep);
+		return clusters;
+	}
+
+	int getTimeStep() {
+		return timeStep;
+	}
+
+	long getSeed() {
+		return seed;
+	}
+
+
+	// setters; these can be called from any thread
+
+	void setParallelStep(boolean parallelStep) {
+		this.parallelStep = parallelStep;
+	}
+
+	void setPairwiseNeighbors(boolean pairwiseNeighbors) {
+		this.pairwiseNeighbors = pairwiseNeighbors;
+	}
+
+	void setNeighborLists(boolean useNeighborLists) {
+		this.useNeighborLists = useNeighborLists;
+	}
+
+	// start or stop detecting proximity events; they start over (with no Boids in contact) at
+	// the start of the next time step
+	void setDetectProximity(final boolean detectProximity) {
+
+		changes.add(new Runnable() {
+			public void run() {
+				SwarmWorld.this.detectProximity = detectProximity;
+				proximityEvents.clear();
+			}
+		});
+	}
+
+	void setWind(final float windX, final float windY, final float windZ) {
+
+		changes.add(new Runnable() {
+			public void run() {
+				SwarmWorld.this.windX = windX;
+				SwarmWorld.this.windY = windY;
+				SwarmWorld.this.windZ = windZ;
+			}
+		});
+	}
+
+
+	// how the Boids of flockID react to the Boids of otherFlockID, for the INTERACTIONS velocity
+	// rule (see FlockInteractions); the change is made at the start of the next time step
+	void setInteraction(final int flockID, final int otherFlockID, final float separation, final float cohesion,
+			final float alignment, final float radius) {
+
+		if (flockID < 1 || otherFlockID < 1)
+			return;
+		changes.add(new Runnable() {
+			public void run() {
+				interactions.set(flockID, otherFlockID, separation, cohesion, alignment, radius);
+			}
+		});
+	}
+
+	// cohere and align only within each Flock (of the Flocks there are when the change is made),
+	// for the INTERACTIONS velocity rule (see FlockInteractions)
+	void setInteractionsOwnFlockOnly() {
+
+		changes.add(new Runnable() {
+			public void run() {
+				Flock[] registered = flocks.all();
+				if (registered.length > 0)
+					interactions.ensureFlocks(registered[registered.length - 1].store.flockID);
+				interactions.ownFlockOnly();
+			}
+		});
+	}
+
+
+	// run the simulation without a display and report how fast it goes:
+	// 	java SwarmWorld [number of time steps] [flock size] [number of flocks] [seed]
+	public static void main(String[] args) {
+
+		int numSteps = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int flockSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int numFlocks = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : new SplittableRandom().nextLong();
+
+		int[] flockSizes = new int[numFlocks+1];
+		for (int flockID = 1; flockID <= numFlocks; flockID++)
+			flockSizes[flockID] = flockSize;
+		SwarmWorld world = new SwarmWorld(400, 400, 400, flockSizes, DEFAULT_FLOCK, seed);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < numSteps; i++)
+			world.step();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d steps of %d flocks of %d boids in %.2f s (%.1f steps per second), seed %d\n",
+				numSteps, numFlocks, flockSize, seconds, numSteps / seconds, seed);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ *
+ * A 3D vector of floats, for the sums and accelerations in the simulation
+ *
+ * The simulation (see SwarmWorld) doesn't use Processing, so it can't use PVector; this has
+ * only what the simulation needs, and the methods change the vector in place, like PVector's
+ *
+ */
+
+public class Vector3 {
+
+	public float x;
+	public float y;
+	public float z;
+
+
+	// constructors
+	public Vector3() {
+	}
+
+	public Vector3(float x, float y, float z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+
+	public void set(float x, float y, float z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	public void add(float x, float y, float z) {
+		this.x += x;
+		this.y += y;
+		this.z += z;
+	}
+
+	public void div(float n) {
+		x /= n;
+		y /= n;
+		z /= n;
+	}
+}
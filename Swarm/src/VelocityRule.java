@@ -0,0 +1,91 @@
+/*
+ *
+ * A velocity rule calculates the new velocities of the Boids in a Flock (one of the flavors
+ * of calcNewVelocity in Boid); each Flock has its own, which can be changed while the
+ * simulation is running (see Flock.setVelocityRule, and MusicSwarm for the message from Max)
+ *
+ * A rule is called once for a whole range of Boids in a Flock, not once for each Boid, and
+ * each rule is its own class calling its own calcNewVelocity method, so the loop over the Boids
+ * always calls the same method (which the JIT compiler can inline)
+ *
+ * The rules are numbered (for Max) by their position in RULES
+ *
+ */
+
+public interface VelocityRule {
+
+	// calculate the new velocities of the Boids at indices from ... to-1 in the given Flock
+	// (allFlocks are the Flocks that have Boids, in ID order; see FlockRegistry)
+	void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to);
+
+
+	VelocityRule STANDARD = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityStandard(allFlocks, neighborhood);
+		}
+	};
+
+	VelocityRule NICE_BEHAVIOR_FROM_WORKSHOP = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityNiceBehaviorFromWorkshop(allFlocks, neighborhood);
+			// the Behavior is shared by all the Boids in the Flock, and runs on the whole range at once;
+			// it doesn't keep anything about the Boids, so other ranges can run it on other threads
+			flock.getBehavior().execute(flock.store, from, to);
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).finishNewVelocity(neighborhood.acceleration);
+		}
+	};
+
+	VelocityRule PLAYFUL = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityPlayful(allFlocks, neighborhood);
+		}
+	};
+
+	VelocityRule PREDATOR_PREY = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityPredatorPrey(allFlocks, neighborhood);
+		}
+	};
+
+	VelocityRule FISH_SCHOOLS = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityFishSchools(allFlocks, neighborhood);
+		}
+	};
+
+	VelocityRule GREEN_SNAKE = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityGreenSnake(allFlocks, neighborhood);
+		}
+	};
+
+	// weights for each pair of Flocks, which Max can change (see FlockInteractions)
+	VelocityRule INTERACTIONS = new VelocityRule() {
+		public void calcNewVelocities(Flock flock, Flock[] allFlocks, Neighborhood neighborhood, int from, int to) {
+			for (int i = from; i < to; i++)
+				flock.getBoid(i).calcNewVelocityInteractions(allFlocks, neighborhood);
+		}
+	};
+
+
+	// the rules by number; Max selects a rule for a Flock by its index here
+	VelocityRule[] RULES = {
+		STANDARD,
+		NICE_BEHAVIOR_FROM_WORKSHOP,
+		PLAYFUL,
+		PREDATOR_PREY,
+		FISH_SCHOOLS,
+		GREEN_SNAKE,
+		INTERACTIONS
+	};
+
+	// the rule every Flock starts with
+	VelocityRule DEFAULT = NICE_BEHAVIOR_FROM_WORKSHOP;
+}